@@ -0,0 +1,82 @@
+package com.emiperez.repeson.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.emiperez.repeson.client.JsonRpcClient;
+import com.emiperez.repeson.client.JsonRpcException;
+import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcResponse;
+import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.ResultType;
+import com.emiperez.repeson.transport.HttpTransport;
+import com.emiperez.repeson.transport.MockHttpServer;
+
+/**
+ * Round trips of the client through an {@link HttpTransport}, against a server
+ * in the same JVM that answers at once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ClientBenchmark {
+
+	private static final ResultType<String> STRING = ResultType.of(String.class);
+	private static final int WINDOW = 16;
+
+	private MockHttpServer server;
+	private JsonRpcClient client;
+	private JsonRpcRequest request;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new MockHttpServer(0);
+		client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0)
+				.transport(HttpTransport.builder().uri(server.getUri()).build()).build();
+		request = JsonRpcRequest.builder().id("1").jsonrpc(JsonRpcVersion.v2_0).method("echo").params("0x4b7")
+				.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+	}
+
+	@Benchmark
+	public JsonRpcResponse<String> send() throws Exception {
+		return client.send(request, STRING);
+	}
+
+	/**
+	 * Sends a window of requests at once and waits for all of them.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(WINDOW)
+	public void sendAsync(Blackhole blackhole) throws JsonRpcException {
+		CompletableFuture<?>[] responses = new CompletableFuture<?>[WINDOW];
+		for (int i = 0; i < WINDOW; i++) {
+			responses[i] = client.sendAsync(request, STRING);
+		}
+		blackhole.consume(CompletableFuture.allOf(responses).join());
+	}
+}
@@ -0,0 +1,64 @@
+package com.emiperez.repeson.benchmark;
+
+/**
+ * The POJO sent as params and returned as result by the benchmarks.
+ */
+public class Customer {
+
+	private long id;
+	private String name;
+	private String email;
+	private int age;
+	private boolean active;
+
+	public Customer() {
+	}
+
+	public Customer(long id, String name, String email, int age, boolean active) {
+		this.id = id;
+		this.name = name;
+		this.email = email;
+		this.age = age;
+		this.active = active;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public void setEmail(String email) {
+		this.email = email;
+	}
+
+	public int getAge() {
+		return age;
+	}
+
+	public void setAge(int age) {
+		this.age = age;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public void setActive(boolean active) {
+		this.active = active;
+	}
+}
@@ -0,0 +1,80 @@
+package com.emiperez.repeson.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.emiperez.commons.json.apiselector.JacksonJsonMapper;
+import com.emiperez.repeson.client.JsonRpcException;
+import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcVersion;
+
+/**
+ * Serialization of the requests, by the kind of params.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBenchmark {
+
+	private final Customer customer = new Customer(42, "Emilio", "emilio@example.com", 40, true);
+	private final JacksonJsonMapper mapper = new JacksonJsonMapper();
+	private JsonRpcRequest stringParams;
+	private JsonRpcRequest intParams;
+	private JsonRpcRequest namedParams;
+	private JsonRpcRequest positionalParams;
+
+	@Setup
+	public void setUp() {
+		stringParams = request("0x4b7").params("0x4b7").build();
+		intParams = request("1207").params(1207).build();
+		namedParams = request("42").params(customer).isNamedParams(true).build();
+		positionalParams = request("42").params(customer).isNamedParams(false).build();
+	}
+
+	@Benchmark
+	public String stringParams() throws JsonRpcException {
+		return stringParams.getJson();
+	}
+
+	@Benchmark
+	public String intParams() throws JsonRpcException {
+		return intParams.getJson();
+	}
+
+	@Benchmark
+	public String namedParams() throws JsonRpcException {
+		return namedParams.getJson();
+	}
+
+	@Benchmark
+	public String positionalParams() throws JsonRpcException {
+		return positionalParams.getJson();
+	}
+
+	@Benchmark
+	public byte[] positionalParamsBytes() throws JsonRpcException {
+		return positionalParams.getJsonBytes();
+	}
+
+	@Benchmark
+	public String serializeAsArray() throws JsonRpcException {
+		return mapper.serializeAsArray(customer);
+	}
+
+	private static JsonRpcRequest.Builder request(String id) {
+		return JsonRpcRequest.builder().id(id).jsonrpc(JsonRpcVersion.v2_0).method("getcustomer");
+	}
+}
@@ -0,0 +1,70 @@
+package com.emiperez.repeson.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.emiperez.repeson.client.JsonRpcResponse;
+import com.emiperez.repeson.client.ResultType;
+
+/**
+ * Parsing of the responses, from a single object to an array of several MB.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseBenchmark {
+
+	private static final ResultType<Customer> CUSTOMER = ResultType.of(Customer.class);
+	private static final ResultType<List<Customer>> CUSTOMERS = new ResultType<List<Customer>>() {
+	};
+
+	/**
+	 * The number of customers in the result: 1 is about 100 bytes, 40000 about 4
+	 * MB.
+	 */
+	@Param({ "1", "40000" })
+	public int customers;
+
+	private byte[] response;
+
+	@Setup
+	public void setUp() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < customers; i++) {
+			result.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"Customer ").append(i)
+					.append("\",\"email\":\"customer").append(i).append("@example.com\",\"age\":").append(i % 100)
+					.append(",\"active\":true}");
+		}
+		String json = customers == 1 ? result.toString() : "[" + result + "]";
+		response = ("{\"id\":\"1\",\"result\":" + json + ",\"error\":null}").getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public JsonRpcResponse<?> of() throws IOException {
+		return customers == 1 ? JsonRpcResponse.of(new ByteArrayInputStream(response), CUSTOMER)
+				: JsonRpcResponse.of(new ByteArrayInputStream(response), CUSTOMERS);
+	}
+
+	@Benchmark
+	public JsonRpcResponse<Object> ofUntyped() throws IOException {
+		return JsonRpcResponse.of(new ByteArrayInputStream(response));
+	}
+}
@@ -0,0 +1,75 @@
+package com.emiperez.commons.json.apiselector;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * A bounded, thread-safe cache of the ObjectWriters that serialize a class as a
+ * JSON array. Each writer comes from its own ObjectMapper, configured once, so
+ * Jackson's serializer cache is kept between calls. When the cache is full the
+ * oldest writer is evicted.
+ */
+class ArrayWriterCache {
+
+	private final int maxSize;
+	private final ConcurrentHashMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<Class<?>> insertionOrder = new ConcurrentLinkedQueue<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	ArrayWriterCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		}
+		this.maxSize = maxSize;
+	}
+
+	ObjectWriter get(Class<?> type) {
+		ObjectWriter writer = writers.get(type);
+		if (writer != null) {
+			hits.increment();
+			return writer;
+		}
+		misses.increment();
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.configOverride(type).setFormat(JsonFormat.Value.forShape(JsonFormat.Shape.ARRAY));
+		writer = mapper.writerFor(type);
+		ObjectWriter previous = writers.putIfAbsent(type, writer);
+		if (previous != null) {
+			return previous;
+		}
+		insertionOrder.add(type);
+		while (writers.size() > maxSize) {
+			Class<?> eldest = insertionOrder.poll();
+			if (eldest == null) {
+				break;
+			}
+			if (writers.remove(eldest) != null) {
+				evictions.increment();
+			}
+		}
+		return writer;
+	}
+
+	int size() {
+		return writers.size();
+	}
+
+	long hits() {
+		return hits.sum();
+	}
+
+	long misses() {
+		return misses.sum();
+	}
+
+	long evictions() {
+		return evictions.sum();
+	}
+}
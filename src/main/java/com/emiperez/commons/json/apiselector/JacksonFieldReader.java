@@ -0,0 +1,100 @@
+package com.emiperez.commons.json.apiselector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * A {@link JsonFieldReader} over Jackson's streaming parser.
+ */
+class JacksonFieldReader implements JsonFieldReader {
+
+	private final JsonParser parser;
+	private final JacksonJsonMapper mapper;
+
+	JacksonFieldReader(JsonParser parser, JacksonJsonMapper mapper) throws IOException {
+		this.parser = parser;
+		this.mapper = mapper;
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException(parser, "A JSON object was expected");
+		}
+	}
+
+	@Override
+	public String nextField() throws IOException {
+		if (parser.nextToken() != JsonToken.FIELD_NAME) {
+			return null;
+		}
+		String name = parser.getCurrentName();
+		parser.nextToken();
+		return name;
+	}
+
+	@Override
+	public boolean isNullValue() {
+		return parser.currentToken() == JsonToken.VALUE_NULL;
+	}
+
+	@Override
+	public <T> T readValue(Type type) throws IOException {
+		return mapper.readerFor(type).readValue(parser);
+	}
+
+	@Override
+	public <T> Iterator<T> readElements(Type type) throws IOException {
+		if (isNullValue()) {
+			return Collections.emptyIterator();
+		}
+		if (parser.currentToken() != JsonToken.START_ARRAY) {
+			throw new JsonParseException(parser, "A JSON array was expected");
+		}
+		ObjectReader reader = mapper.readerFor(type);
+		return new Iterator<T>() {
+
+			private JsonToken next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = parser.nextToken();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+				return next != JsonToken.END_ARRAY && next != null;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				next = null;
+				try {
+					return reader.readValue(parser);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		parser.skipChildren();
+	}
+
+	@Override
+	public void close() throws IOException {
+		parser.close();
+	}
+}
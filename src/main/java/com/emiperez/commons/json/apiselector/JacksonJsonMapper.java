@@ -2,16 +2,56 @@ package com.emiperez.commons.json.apiselector;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.emiperez.repeson.client.JsonRpcException;
-import com.fasterxml.jackson.annotation.JsonFormat;
+import com.emiperez.repeson.client.JsonRpcResponse;
+import com.emiperez.repeson.transport.PooledInputStream;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 public class JacksonJsonMapper implements JsonMapper {
 
-	private static final ObjectMapper MAPPER = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);	
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+			.addMixIn(JsonRpcResponse.class, JsonRpcResponseMixIn.class);	
+	private static final ObjectWriter WRITER = MAPPER.writer();
+	private static final ObjectWriter CANONICAL_WRITER = MAPPER
+			.writer(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+	private static final int DEFAULT_ARRAY_WRITER_CACHE_SIZE = 256;
+
+	private final ArrayWriterCache arrayWriters;
+	private final ConcurrentHashMap<Type, JavaType> javaTypes = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Type, ObjectReader> listReaders = new ConcurrentHashMap<>();
+
+	public JacksonJsonMapper() {
+		this(DEFAULT_ARRAY_WRITER_CACHE_SIZE);
+	}
+
+	/**
+	 * @param arrayWriterCacheSize the maximum number of params classes whose
+	 *                             array serializers are kept
+	 */
+	public JacksonJsonMapper(int arrayWriterCacheSize) {
+		arrayWriters = new ArrayWriterCache(arrayWriterCacheSize);
+	}
 	
 	@Override
 	public String serialize(Object object) throws JsonRpcException {
@@ -25,19 +65,200 @@ public class JacksonJsonMapper implements JsonMapper {
 
 	@Override
 	public String serializeAsArray(Object params) throws JsonRpcException {
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.configOverride(params.getClass()).setFormat(JsonFormat.Value.forShape(JsonFormat.Shape.ARRAY));
 		try {
-			return mapper.writeValueAsString(params);
+			return arrayWriters.get(params.getClass()).writeValueAsString(params);
 		} catch (JsonProcessingException e) {
 			e.printStackTrace();
 			throw new JsonRpcException("Json Serialization Error for " + params.getClass().getName(), e);
 		}
 	}
 
+	@Override
+	public void serialize(Object object, OutputStream out) throws JsonRpcException {
+		write(WRITER, object, out);
+	}
+
+	@Override
+	public void serializeAsArray(Object params, OutputStream out) throws JsonRpcException {
+		write(arrayWriters.get(params.getClass()), params, out);
+	}
+
+	private static void write(ObjectWriter writer, Object object, OutputStream out) throws JsonRpcException {
+		try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out)
+				.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+			writer.writeValue(generator, object);
+		} catch (IOException e) {
+			throw new JsonRpcException("Json Serialization Error for " + object.getClass().getName(), e);
+		}
+	}
+
+	/**
+	 * @return the number of array serializations that found their writer cached
+	 */
+	public long getArrayWriterCacheHits() {
+		return arrayWriters.hits();
+	}
+
+	/**
+	 * @return the number of array serializations that had to configure a new
+	 *         writer
+	 */
+	public long getArrayWriterCacheMisses() {
+		return arrayWriters.misses();
+	}
+
+	/**
+	 * @return the number of writers evicted because the cache was full
+	 */
+	public long getArrayWriterCacheEvictions() {
+		return arrayWriters.evictions();
+	}
+
 	@Override
 	public <T> T deserialize(InputStream input, Class<T> type) throws IOException {
-		return MAPPER.readValue(input, type);
+		return deserialize(input, (Type) type);
+	}
+
+	@Override
+	public <T> T deserialize(InputStream input, Type type) throws IOException {
+		if (input instanceof PooledInputStream) {
+			// Parsed in place, instead of being copied through the stream into the
+			// buffers of the parser, and given back to its pool
+			try (PooledInputStream pooled = (PooledInputStream) input) {
+				ByteBuffer buffer = pooled.buffer();
+				return MAPPER.readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+						javaType(type));
+			}
+		}
+		return MAPPER.readValue(input, javaType(type));
+	}
+
+	@Override
+	public <T> T deserialize(byte[] src, int offset, int length, Type type) throws IOException {
+		return MAPPER.readValue(src, offset, length, javaType(type));
+	}
+
+	@Override
+	public Map<String, RawJson> readFields(byte[] src, int offset, int length) throws IOException {
+		try (JsonParser parser = MAPPER.getFactory().createParser(src, offset, length)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "A JSON object was expected");
+			}
+			Map<String, RawJson> fields = new HashMap<>();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				fields.put(name, rawValue(parser, src, offset));
+			}
+			return fields;
+		}
+	}
+
+	@Override
+	public List<RawJson> readElements(byte[] src) throws IOException {
+		try (JsonParser parser = MAPPER.getFactory().createParser(src)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException(parser, "A JSON array was expected");
+			}
+			List<RawJson> elements = new ArrayList<>();
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				elements.add(rawValue(parser, src, 0));
+			}
+			return elements;
+		}
+	}
+
+	/**
+	 * @return the slice of src taken by the value at the current token, leaving
+	 *         the parser at its last token. The parser counts from base.
+	 */
+	private static RawJson rawValue(JsonParser parser, byte[] src, int base) throws IOException {
+		int start = base + (int) parser.getTokenLocation().getByteOffset();
+		if (parser.currentToken() == JsonToken.VALUE_STRING) {
+			// Strings are read lazily, this reaches the closing quote
+			parser.getTextLength();
+		} else {
+			parser.skipChildren();
+		}
+		int end = base + (int) parser.getCurrentLocation().getByteOffset();
+		return new RawJson(src, start, end - start);
+	}
+
+	@Override
+	public JsonFieldReader readFields(InputStream input) throws IOException {
+		JsonParser parser = MAPPER.getFactory().createParser(input);
+		try {
+			return new JacksonFieldReader(parser, this);
+		} catch (IOException e) {
+			parser.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public <T> List<T> deserializeList(InputStream input, Class<T> type) throws IOException {
+		return deserializeList(input, (Type) type);
+	}
+
+	@Override
+	public <T> List<T> deserializeList(InputStream input, Type type) throws IOException {
+		ObjectReader reader = listReaders.computeIfAbsent(type,
+				t -> MAPPER.readerFor(MAPPER.getTypeFactory().constructCollectionType(List.class, javaType(t)))
+						.with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY));
+		if (input instanceof PooledInputStream) {
+			try (PooledInputStream pooled = (PooledInputStream) input) {
+				ByteBuffer buffer = pooled.buffer();
+				return reader.readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			}
+		}
+		return reader.readValue(input);
+	}
+
+	@Override
+	public <T> T convert(Object value, Class<T> type) {
+		return MAPPER.convertValue(value, type);
+	}
+
+	@Override
+	public <T> T convert(Object value, Type type) {
+		return MAPPER.convertValue(value, javaType(type));
+	}
+
+	@Override
+	public byte[] canonicalize(byte[] json) throws IOException {
+		// Read as Maps and Lists, whose entries the writer can sort
+		return CANONICAL_WRITER.writeValueAsBytes(MAPPER.readValue(json, Object.class));
+	}
+
+	ObjectReader readerFor(Type type) {
+		return MAPPER.readerFor(javaType(type));
+	}
+
+	/**
+	 * Resolving the JavaType of a generic type walks its whole structure, so it is
+	 * done only once per type.
+	 */
+	private JavaType javaType(Type type) {
+		return javaTypes.computeIfAbsent(type, t -> MAPPER.getTypeFactory().constructType(t));
+	}
+
+	/**
+	 * Reads and writes the id of a JsonRpcResponse as a number when it is one, so
+	 * that numeric ids are not turned into Strings.
+	 */
+	abstract static class JsonRpcResponseMixIn {
+
+		@JsonProperty("id")
+		abstract Object getJsonId();
+
+		@JsonProperty("id")
+		abstract void setJsonId(Object id);
+
+		@JsonIgnore
+		abstract long getNumericId();
+
+		@JsonIgnore
+		abstract void setNumericId(long id);
 	}
 	
 
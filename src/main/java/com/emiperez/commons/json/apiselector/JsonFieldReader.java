@@ -0,0 +1,54 @@
+package com.emiperez.commons.json.apiselector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+
+/**
+ * Reads the fields of a JSON object one by one from a stream, so that a large
+ * value can be consumed without holding the whole object in memory. Closing the
+ * reader closes the underlying stream.
+ */
+public interface JsonFieldReader extends Closeable {
+
+	/**
+	 * Moves to the next field of the object.
+	 * 
+	 * @return the name of the next field, or null when the object ends
+	 * @throws IOException if the input is not a well-formed JSON object
+	 */
+	String nextField() throws IOException;
+
+	/**
+	 * @return true if the value of the current field is the JSON literal null
+	 */
+	boolean isNullValue();
+
+	/**
+	 * @param <T>  The Type of the Object to be obtained.
+	 * @param type The Type of the value of the current field.
+	 * @return The deserialized value of the current field.
+	 * @throws IOException if an error occurs in deserialization
+	 */
+	<T> T readValue(Type type) throws IOException;
+
+	/**
+	 * Streams the elements of the array that is the value of the current field.
+	 * Each element is deserialized when the iterator reaches it. The iterator
+	 * throws {@link java.io.UncheckedIOException} if an error occurs.
+	 * 
+	 * @param <T>  The Type of the elements.
+	 * @param type The Type of the elements, generics included.
+	 * @return an Iterator over the elements, empty if the value is null.
+	 * @throws IOException if the value is neither an array nor null
+	 */
+	<T> Iterator<T> readElements(Type type) throws IOException;
+
+	/**
+	 * Skips the value of the current field.
+	 * 
+	 * @throws IOException if the input is not well-formed
+	 */
+	void skipValue() throws IOException;
+}
@@ -3,6 +3,10 @@ package com.emiperez.commons.json.apiselector;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
 
 import com.emiperez.repeson.client.JsonRpcException;
 
@@ -26,6 +30,27 @@ public interface JsonMapper {
 	 */
 	String serializeAsArray(Object pojo) throws JsonRpcException;
 
+	/**
+	 * Writes the JSON representation of the object, encoded in UTF-8, to the
+	 * given stream, which is left open.
+	 * 
+	 * @param pojo The object to be serialized
+	 * @param out  The stream the JSON is written to
+	 * @throws JsonRpcException if an error occurs in serialization
+	 */
+	void serialize(Object pojo, OutputStream out) throws JsonRpcException;
+
+	/**
+	 * Writes the object, encoded in UTF-8, to the given stream, which is left
+	 * open, as an array in JSON format in the same order as the definition of the
+	 * object properties.
+	 * 
+	 * @param pojo The object to be serialized
+	 * @param out  The stream the JSON is written to
+	 * @throws JsonRpcException if an error occurs in serialization
+	 */
+	void serializeAsArray(Object pojo, OutputStream out) throws JsonRpcException;
+
 	/**
 	 * @param <T>   The Class of the Object to be obtained.
 	 * @param input The serialized object in JSON format.
@@ -34,6 +59,115 @@ public interface JsonMapper {
 	 * @throws IOException if an error occurs in serialization
 	 */
 	<T> T deserialize(InputStream input, Class<T> type) throws IOException;
+
+	/**
+	 * @param <T>   The Type of the Object to be obtained.
+	 * @param input The serialized object in JSON format.
+	 * @param type  The Type of the Object to be obtained, generics included.
+	 * @return The Object represented by the input.
+	 * @throws IOException if an error occurs in deserialization
+	 */
+	<T> T deserialize(InputStream input, Type type) throws IOException;
+
+	/**
+	 * @param <T>    The Type of the Object to be obtained.
+	 * @param src    A buffer that contains the serialized object in JSON format.
+	 * @param offset The position of the serialized object in the buffer.
+	 * @param length The number of bytes of the serialized object.
+	 * @param type   The Type of the Object to be obtained, generics included.
+	 * @return The Object represented by the slice of the buffer.
+	 * @throws IOException if an error occurs in deserialization
+	 */
+	<T> T deserialize(byte[] src, int offset, int length, Type type) throws IOException;
+
+	/**
+	 * Scans a JSON object, without deserializing it, and splits it into its
+	 * fields.
+	 * 
+	 * @param src A JSON object encoded in UTF-8.
+	 * @return The value of each field of the object, as a slice of src.
+	 * @throws IOException if src is not a well-formed JSON object
+	 */
+	default Map<String, RawJson> readFields(byte[] src) throws IOException {
+		return readFields(src, 0, src.length);
+	}
+
+	/**
+	 * Scans a JSON object, without deserializing it, and splits it into its
+	 * fields.
+	 * 
+	 * @param src    A buffer that contains a JSON object encoded in UTF-8.
+	 * @param offset The position of the object in the buffer.
+	 * @param length The number of bytes of the object.
+	 * @return The value of each field of the object, as a slice of src.
+	 * @throws IOException if the slice is not a well-formed JSON object
+	 */
+	Map<String, RawJson> readFields(byte[] src, int offset, int length) throws IOException;
+
+	/**
+	 * Scans a JSON array, without deserializing it, and splits it into its
+	 * elements.
+	 * 
+	 * @param src A JSON array encoded in UTF-8.
+	 * @return Each element of the array, as a slice of src.
+	 * @throws IOException if src is not a well-formed JSON array
+	 */
+	List<RawJson> readElements(byte[] src) throws IOException;
+
+	/**
+	 * @param input A JSON object.
+	 * @return A reader positioned at the start of the object, which must be
+	 *         closed after use.
+	 * @throws IOException if the input does not start a JSON object
+	 */
+	JsonFieldReader readFields(InputStream input) throws IOException;
+
+	/**
+	 * @param <T>   The Class of the elements of the List to be obtained.
+	 * @param input A JSON array of serialized objects. A single object is
+	 *              accepted as an array of one element.
+	 * @param type  The class of the elements of the List to be obtained.
+	 * @return The List of Objects represented by the input.
+	 * @throws IOException if an error occurs in deserialization
+	 */
+	<T> List<T> deserializeList(InputStream input, Class<T> type) throws IOException;
+
+	/**
+	 * @param <T>   The Type of the elements of the List to be obtained.
+	 * @param input A JSON array of serialized objects. A single object is
+	 *              accepted as an array of one element.
+	 * @param type  The Type of the elements of the List to be obtained, generics
+	 *              included.
+	 * @return The List of Objects represented by the input.
+	 * @throws IOException if an error occurs in deserialization
+	 */
+	<T> List<T> deserializeList(InputStream input, Type type) throws IOException;
+
+	/**
+	 * @param <T>   The Class of the Object to be obtained.
+	 * @param value An Object already deserialized, for example, as Maps and Lists.
+	 * @param type  The class of the Object to be obtained.
+	 * @return An Object of the given class with the same content as the value.
+	 * @throws IllegalArgumentException if the value cannot be converted
+	 */
+	<T> T convert(Object value, Class<T> type);
+
+	/**
+	 * @param <T>   The Type of the Object to be obtained.
+	 * @param value An Object already deserialized, for example, as Maps and Lists.
+	 * @param type  The Type of the Object to be obtained, generics included.
+	 * @return An Object of the given Type with the same content as the value.
+	 * @throws IllegalArgumentException if the value cannot be converted
+	 */
+	<T> T convert(Object value, Type type);
+
+	/**
+	 * @param json A JSON value encoded in UTF-8.
+	 * @return The same value, without whitespace and with the fields of every
+	 *         object sorted by name, so that equal values have equal bytes.
+	 * @throws IOException if the input is not valid JSON
+	 */
+	byte[] canonicalize(byte[] json) throws IOException;
 	
 	default <T> T deserialize(String input, Class<T> type) throws IOException {
 		return deserialize(new ByteArrayInputStream(input.getBytes()), type);
@@ -0,0 +1,97 @@
+package com.emiperez.commons.json.apiselector;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A JSON value kept as the slice of the UTF-8 bytes it was read from. It is
+ * only deserialized when, and if, it is needed.
+ */
+public final class RawJson {
+
+	private final byte[] source;
+	private final int offset;
+	private final int length;
+
+	public RawJson(byte[] source, int offset, int length) {
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * @param <T>  The Type of the Object to be obtained.
+	 * @param type The Type of the Object to be obtained, generics included.
+	 * @return The Object represented by this JSON value.
+	 * @throws IOException if an error occurs in deserialization
+	 */
+	public <T> T as(Type type) throws IOException {
+		return Json.INSTANCE.api().deserialize(source, offset, length, type);
+	}
+
+	/**
+	 * @return The value of each field of this value, which must be a JSON object,
+	 *         as a slice of the same bytes.
+	 * @throws IOException if this value is not a JSON object
+	 */
+	public Map<String, RawJson> fields() throws IOException {
+		return Json.INSTANCE.api().readFields(source, offset, length);
+	}
+
+	/**
+	 * @return true if this value is the JSON literal null
+	 */
+	public boolean isNull() {
+		return length == 4 && source[offset] == 'n' && source[offset + 1] == 'u' && source[offset + 2] == 'l'
+				&& source[offset + 3] == 'l';
+	}
+
+	/**
+	 * @return true if this value is a JSON integer that fits in a long
+	 */
+	public boolean isLong() {
+		int start = length > 1 && source[offset] == '-' ? 1 : 0;
+		// 18 digits always fit, longer values are left to as(Type)
+		if (length == start || length - start > 18) {
+			return false;
+		}
+		for (int i = offset + start; i < offset + length; i++) {
+			if (source[i] < '0' || source[i] > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads this value as a long, without creating any Object.
+	 * 
+	 * @return the value of this JSON integer
+	 * @throws NumberFormatException if {@link #isLong()} is false
+	 */
+	public long asLong() {
+		if (!isLong()) {
+			throw new NumberFormatException("Not a long: " + this);
+		}
+		boolean negative = source[offset] == '-';
+		long value = 0;
+		for (int i = offset + (negative ? 1 : 0); i < offset + length; i++) {
+			value = value * 10 + (source[i] - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return the number of bytes of this value
+	 */
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return new String(source, offset, length, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Hedges the requests of idempotent methods: if the response of a request has
+ * not arrived after a delay, a second copy is sent, the first response is used
+ * and the other request is cancelled. It cuts the tail latency caused by an
+ * occasional slow server, when the {@link com.emiperez.repeson.transport.Transport
+ * Transport} sends each copy to another one, as a
+ * {@link com.emiperez.repeson.transport.LoadBalancingTransport
+ * LoadBalancingTransport} does.
+ *
+ * <p>
+ * The delay of each method is a percentile of its recent response times, so
+ * only the slowest requests are hedged. The extra requests are limited by a
+ * budget, a fraction of the requests sent, so that hedging cannot overload
+ * servers that are all slow.
+ *
+ * <pre>
+ * {@code
+ * HedgingPolicy hedging = HedgingPolicy.builder()
+ *                         .method("getblock")
+ *                         .percentile(0.95)
+ *                         .budget(0.05, 10)
+ *                         .build();
+ * JsonRpcClient client = JsonRpcClient.builder().transport(transport).hedgingPolicy(hedging).build();
+ * }
+ * </pre>
+ *
+ * The copies have the same id, so the Transport must not reject a request whose
+ * id is in flight, as the multiplexed ones do.
+ *
+ * @since 0.6
+ */
+public final class HedgingPolicy {
+
+	private static final int WINDOW_SIZE = 256;
+	private static final int RECOMPUTE_EVERY = 32;
+	private static final long TOKEN = 1_000_000;
+
+	private final Map<String, LatencyWindow> windows;
+	private final double percentile;
+	private final long initialDelayNanos;
+	private final long minimumDelayNanos;
+	private final long tokensPerRequest;
+	private final long maximumTokens;
+
+	private final AtomicLong tokens;
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder hedges = new LongAdder();
+	private final LongAdder hedgeWins = new LongAdder();
+	private final LongAdder budgetExhausted = new LongAdder();
+
+	public static class Builder {
+
+		private final Set<String> methods = new HashSet<>();
+		private double percentile = 0.95;
+		private Duration initialDelay = Duration.ofMillis(100);
+		private Duration minimumDelay = Duration.ofMillis(1);
+		private double budget = 0.05;
+		private int maximumBurst = 10;
+
+		private Builder() {
+		}
+
+		/**
+		 * Hedges the requests of the method.
+		 *
+		 * @param method the name of an idempotent method
+		 * @return the Builder
+		 */
+		public Builder method(String method) {
+			methods.add(method);
+			return this;
+		}
+
+		/**
+		 * @param percentile the percentile of the response times of a method after
+		 *                   which a copy is sent, from 0 to 1. The default is 0.95.
+		 * @return the Builder
+		 */
+		public Builder percentile(double percentile) {
+			if (!(percentile > 0 && percentile < 1)) {
+				throw new IllegalArgumentException("percentile must be between 0 and 1: " + percentile);
+			}
+			this.percentile = percentile;
+			return this;
+		}
+
+		/**
+		 * @param initialDelay the delay used until enough responses of a method have
+		 *                     been timed. The default is 100 milliseconds.
+		 * @param minimumDelay the shortest delay, whatever the response times. The
+		 *                     default is 1 millisecond.
+		 * @return the Builder
+		 */
+		public Builder delay(Duration initialDelay, Duration minimumDelay) {
+			this.initialDelay = initialDelay;
+			this.minimumDelay = minimumDelay;
+			return this;
+		}
+
+		/**
+		 * @param budget       the maximum number of copies, as a fraction of the
+		 *                     requests sent. The default is 0.05.
+		 * @param maximumBurst the number of copies that can be sent in a row when the
+		 *                     budget has been saved. The default is 10.
+		 * @return the Builder
+		 */
+		public Builder budget(double budget, int maximumBurst) {
+			if (!(budget >= 0 && budget <= 1) || maximumBurst < 1) {
+				throw new IllegalArgumentException("Invalid budget: " + budget + ", " + maximumBurst);
+			}
+			this.budget = budget;
+			this.maximumBurst = maximumBurst;
+			return this;
+		}
+
+		public HedgingPolicy build() {
+			return new HedgingPolicy(this);
+		}
+	}
+
+	private HedgingPolicy(Builder builder) {
+		Map<String, LatencyWindow> windows = new HashMap<>();
+		for (String method : builder.methods) {
+			windows.put(method, new LatencyWindow());
+		}
+		this.windows = Map.copyOf(windows);
+		this.percentile = builder.percentile;
+		this.initialDelayNanos = builder.initialDelay.toNanos();
+		this.minimumDelayNanos = builder.minimumDelay.toNanos();
+		this.tokensPerRequest = (long) (builder.budget * TOKEN);
+		this.maximumTokens = builder.maximumBurst * TOKEN;
+		this.tokens = new AtomicLong(maximumTokens);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param method the name of a method
+	 * @return true if the requests of the method are hedged
+	 */
+	boolean isHedged(String method) {
+		return windows.containsKey(method);
+	}
+
+	/**
+	 * Sends the request, and a copy of it if it is slow and the budget allows it.
+	 *
+	 * @param method  the method of the request
+	 * @param attempt sends the request each time it is called
+	 * @return the first response. Cancelling it cancels both requests.
+	 */
+	CompletableFuture<InputStream> send(String method, Supplier<CompletableFuture<InputStream>> attempt) {
+		LatencyWindow window = windows.get(method);
+		requests.increment();
+		deposit();
+		Exchange exchange = new Exchange(window, attempt.get());
+		long delay = Math.max(window.delayNanos(initialDelayNanos), minimumDelayNanos);
+		CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> exchange.hedge(attempt));
+		return exchange.result;
+	}
+
+	/**
+	 * A request and its copy, if it is sent. The first response wins and the other
+	 * attempt is cancelled. A failure only fails the result if the other attempt
+	 * cannot complete it.
+	 */
+	private final class Exchange {
+
+		private final long start = System.nanoTime();
+		private final CompletableFuture<InputStream> result = new CompletableFuture<>();
+		private final CompletableFuture<InputStream> primary;
+		private volatile CompletableFuture<InputStream> copy;
+		// The attempts that may still complete the result
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private final AtomicBoolean decided = new AtomicBoolean();
+		private volatile boolean hedgeWon;
+
+		private Exchange(LatencyWindow window, CompletableFuture<InputStream> primary) {
+			this.primary = primary;
+			primary.whenComplete((r, e) -> {
+				// The time of the primary alone, which the delay is meant to be a percentile
+				// of. When the copy wins, the primary is cancelled and its time is only known
+				// to be longer, which is still recorded so that the slow requests are not left
+				// out of the window.
+				if (e == null || (e instanceof CancellationException && hedgeWon)) {
+					window.record(System.nanoTime() - start);
+				}
+				attempted(r, e, false);
+			});
+			result.whenComplete((r, e) -> {
+				if (e instanceof CancellationException) {
+					cancel(primary);
+					cancel(copy);
+				}
+			});
+		}
+
+		private void hedge(Supplier<CompletableFuture<InputStream>> attempt) {
+			// Only while the primary is pending, so that a late copy never fails alone
+			if (result.isDone() || !pending.compareAndSet(1, 2)) {
+				return;
+			}
+			if (!withdraw()) {
+				budgetExhausted.increment();
+				attempted(null, null, true);
+				return;
+			}
+			hedges.increment();
+			CompletableFuture<InputStream> sent = attempt.get();
+			copy = sent;
+			if (decided.get()) {
+				// The primary won while the copy was being sent
+				cancel(sent);
+			}
+			sent.whenComplete((r, e) -> attempted(r, e, true));
+		}
+
+		/**
+		 * @param isHedge true if it is the copy. A null response and exception mean
+		 *                that the copy was not sent.
+		 */
+		private void attempted(InputStream response, Throwable e, boolean isHedge) {
+			if (e == null && response != null) {
+				pending.decrementAndGet();
+				if (!decided.compareAndSet(false, true)) {
+					close(response);
+					return;
+				}
+				// Decided before the result completes, so that its callers see the counters
+				// and the other attempt cancelled
+				if (isHedge) {
+					hedgeWon = true;
+					hedgeWins.increment();
+				}
+				cancel(isHedge ? primary : copy);
+				if (!result.complete(response)) {
+					close(response);
+				}
+			} else if (pending.decrementAndGet() == 0 && e != null && decided.compareAndSet(false, true)) {
+				result.completeExceptionally(e);
+			}
+		}
+
+		private void cancel(CompletableFuture<InputStream> attempt) {
+			if (attempt != null) {
+				attempt.cancel(true);
+			}
+		}
+	}
+
+	private static void close(InputStream response) {
+		try {
+			response.close();
+		} catch (IOException e) {
+			// The response is discarded anyway
+		}
+	}
+
+	private void deposit() {
+		tokens.accumulateAndGet(tokensPerRequest, (current, add) -> Math.min(current + add, maximumTokens));
+	}
+
+	private boolean withdraw() {
+		long current;
+		do {
+			current = tokens.get();
+			if (current < TOKEN) {
+				return false;
+			}
+		} while (!tokens.compareAndSet(current, current - TOKEN));
+		return true;
+	}
+
+	/**
+	 * @return the number of requests of hedged methods
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * @return the number of copies sent
+	 */
+	public long getHedges() {
+		return hedges.sum();
+	}
+
+	/**
+	 * @return the number of copies answered before the request they copied
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.sum();
+	}
+
+	/**
+	 * @return the number of copies not sent because the budget was exhausted
+	 */
+	public long getBudgetExhausted() {
+		return budgetExhausted.sum();
+	}
+
+	/**
+	 * @param method the name of a hedged method
+	 * @return the time after which a copy of its requests is sent
+	 */
+	public Duration getDelay(String method) {
+		LatencyWindow window = windows.get(method);
+		if (window == null) {
+			throw new IllegalArgumentException("Method not hedged: " + method);
+		}
+		return Duration.ofNanos(Math.max(window.delayNanos(initialDelayNanos), minimumDelayNanos));
+	}
+
+	/**
+	 * The last response times of a method, and the percentile computed from them
+	 * every few responses.
+	 */
+	private final class LatencyWindow {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		// Guarded by lock
+		private final long[] samples = new long[WINDOW_SIZE];
+		// Guarded by lock
+		private long count;
+		private volatile long delayNanos = -1;
+
+		/**
+		 * @return the percentile, or the given default while there are too few
+		 *         samples
+		 */
+		long delayNanos(long defaultNanos) {
+			long delay = delayNanos;
+			return delay < 0 ? defaultNanos : delay;
+		}
+
+		void record(long nanos) {
+			long[] sorted = null;
+			lock.lock();
+			try {
+				samples[(int) (count++ % WINDOW_SIZE)] = nanos;
+				if (count % RECOMPUTE_EVERY == 0) {
+					sorted = Arrays.copyOf(samples, (int) Math.min(count, WINDOW_SIZE));
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (sorted != null) {
+				Arrays.sort(sorted);
+				delayNanos = sorted[(int) (percentile * (sorted.length - 1))];
+			}
+		}
+	}
+}
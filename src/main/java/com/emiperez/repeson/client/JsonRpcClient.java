@@ -15,11 +15,29 @@
 
 package com.emiperez.repeson.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.emiperez.commons.idgenerators.IdGenerator;
+import com.emiperez.commons.json.apiselector.Json;
+import com.emiperez.repeson.transport.PooledInputStream;
 import com.emiperez.repeson.transport.Transport;
 
 import lombok.Builder;
@@ -51,17 +69,70 @@ import lombok.Builder;
  * returned {@code CompletableFuture} can be combined in different ways to
  * declare dependencies among several asynchronous tasks.</li>
  * </ul>
+ *
+ * <p>
+ * Several requests can be sent together in a single JSON-RPC 2.0 batch with
+ * {@link JsonRpcClient#sendBatch(List)} or
+ * {@link JsonRpcClient#sendBatchAsync(List)}. The responses are returned in
+ * the same order as the requests, matched by their {@code id}, whatever the
+ * order the server sends them in. The builder can also enable
+ * {@linkplain JsonRpcClientBuilder#microBatching(int, long) micro-batching},
+ * so that independent asynchronous requests are gathered into batches without
+ * any change at the call sites. The requests of a {@link Flow.Publisher} can be
+ * sent with {@link JsonRpcClient#sendAll(Flow.Publisher, ResultType, int)},
+ * with a bounded number in flight.
+ *
+ * <p>
+ * The responses of idempotent methods can be kept in a {@link ResponseCache},
+ * so that repeated requests do not reach the {@link Transport}, and their slow
+ * requests can be hedged with a {@link HedgingPolicy}.
+ *
+ * <p>
+ * The latency, the sizes and the errors of the requests of each method can be
+ * measured through {@link JsonRpcMetrics}, for example by a
+ * {@link MetricsRecorder}. A client without metrics measures nothing.
  * 
  * @since 0.1
  */
 
-@Builder
 public class JsonRpcClient {
 
-	private IdGenerator<?> idGenerator;
-	private Transport transport;
-	@Builder.Default
-	private JsonRpcVersion version = JsonRpcVersion.v2_0;
+	private static final long DEFAULT_BATCH_WINDOW_MICROS = 500;
+
+	private final IdGenerator<?> idGenerator;
+	private final Transport transport;
+	private final JsonRpcVersion version;
+	private final MicroBatcher microBatcher;
+	private final boolean lazyResults;
+	private final ResponseCache responseCache;
+	private final Set<String> coalescedMethods;
+	private final HedgingPolicy hedgingPolicy;
+	private final Map<String, RetryPolicy> retryPolicies;
+	private final JsonRpcMetrics metrics;
+	// Whether there are metrics, so that the requests are measured at all
+	private final boolean measured;
+	private final SingleFlight<RequestKey, byte[]> singleFlight = new SingleFlight<>();
+
+	@Builder
+	private JsonRpcClient(IdGenerator<?> idGenerator, Transport transport, JsonRpcVersion version, int maxBatchSize,
+			long batchWindowMicros, boolean lazyResults, ResponseCache responseCache, Set<String> coalescedMethods,
+			HedgingPolicy hedgingPolicy, Map<String, RetryPolicy> retryPolicies, JsonRpcMetrics metrics) {
+		this.idGenerator = idGenerator;
+		this.transport = transport;
+		this.version = version == null ? JsonRpcVersion.v2_0 : version;
+		this.lazyResults = lazyResults;
+		this.responseCache = responseCache;
+		this.coalescedMethods = coalescedMethods == null ? Set.of() : Set.copyOf(coalescedMethods);
+		this.hedgingPolicy = hedgingPolicy;
+		this.retryPolicies = retryPolicies == null ? Map.of() : Map.copyOf(retryPolicies);
+		this.metrics = metrics == null ? JsonRpcMetrics.NONE : metrics;
+		this.measured = this.metrics != JsonRpcMetrics.NONE;
+		this.microBatcher = maxBatchSize > 1
+				? new MicroBatcher(transport, maxBatchSize,
+						batchWindowMicros > 0 ? batchWindowMicros : DEFAULT_BATCH_WINDOW_MICROS, lazyResults,
+						this.metrics)
+				: null;
+	}
 
 	public static class JsonRpcClientBuilder {
 
@@ -70,6 +141,70 @@ public class JsonRpcClient {
 			}
 			return this;
 		}
+
+		/**
+		 * Enables the automatic micro-batching of the requests sent asynchronously.
+		 * The requests are collected until {@code maxRequests} are pending or
+		 * {@code windowMicros} microseconds have elapsed since the first one, and then
+		 * they are sent together as a single JSON-RPC batch. Each returned
+		 * {@code CompletableFuture} completes on its own when its response arrives.
+		 * Synchronous requests are never delayed.
+		 * 
+		 * @param maxRequests  the maximum number of requests in a batch, greater than
+		 *                     one
+		 * @param windowMicros the maximum time, in microseconds, that a request waits
+		 *                     for others to join its batch
+		 * @return the Builder
+		 */
+		public JsonRpcClientBuilder microBatching(int maxRequests, long windowMicros) {
+			this.maxBatchSize = maxRequests;
+			this.batchWindowMicros = windowMicros;
+			return this;
+		}
+
+		/**
+		 * Sets whether the results of the responses are kept as raw JSON and only
+		 * deserialized the first time they are accessed. It applies to the requests
+		 * that are not sent in a batch. It is {@code false} by default.
+		 * 
+		 * @param lazyResults true to deserialize the results lazily
+		 * @return the Builder
+		 */
+		public JsonRpcClientBuilder lazyResults(boolean lazyResults) {
+			this.lazyResults = lazyResults;
+			return this;
+		}
+
+		/**
+		 * Enables the coalescing of the requests of the given methods. While a
+		 * request is in flight, the requests with the same method and params wait for
+		 * its response instead of being sent. It must only be enabled for idempotent
+		 * methods.
+		 * 
+		 * @param methods the names of the idempotent methods
+		 * @return the Builder
+		 */
+		public JsonRpcClientBuilder coalesce(String... methods) {
+			this.coalescedMethods = Set.copyOf(Arrays.asList(methods));
+			return this;
+		}
+
+		/**
+		 * Sets the deadline and the retries of the requests of the method. Its
+		 * synchronous requests wait for the asynchronous ones, so that no thread is
+		 * blocked between the attempts.
+		 * 
+		 * @param method the name of the method
+		 * @param policy the policy, which can be shared by several methods
+		 * @return the Builder
+		 */
+		public JsonRpcClientBuilder retryPolicy(String method, RetryPolicy policy) {
+			if (this.retryPolicies == null) {
+				this.retryPolicies = new HashMap<>();
+			}
+			this.retryPolicies.put(method, policy);
+			return this;
+		}
 	}
 
 	/**
@@ -96,7 +231,7 @@ public class JsonRpcClient {
 	 */
 	public <T> JsonRpcResponse<T> send(JsonRpcRequest request)
 			throws IOException, InterruptedException, JsonRpcException {
-		return JsonRpcResponse.of(transport.send(request.getJson()));
+		return send(request, rawResponseType());
 	}
 
 	/**
@@ -116,7 +251,25 @@ public class JsonRpcClient {
 	 */
 	public <R extends JsonRpcResponse<T>, T> R send(JsonRpcRequest request, Class<R> type)
 			throws IOException, InterruptedException, JsonRpcException {
-		return JsonRpcResponse.of(transport.send(request.getJson()), type);
+		return sendForType(request, type);
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest} using this client. The result is
+	 * deserialized directly to the given {@link ResultType}, generics included.
+	 * 
+	 * @param <T>        the type of the result that the response should include
+	 * @param request    the request
+	 * @param resultType the type of the result
+	 * @return the response
+	 * @throws IOException          if an I/O error occurs when sending or receiving
+	 * @throws InterruptedException if the operation is interrupted
+	 * @throws JsonRpcException     if an error occurs in the serialization of the
+	 *                              request
+	 */
+	public <T> JsonRpcResponse<T> send(JsonRpcRequest request, ResultType<T> resultType)
+			throws IOException, InterruptedException, JsonRpcException {
+		return sendForType(request, resultType.getResponseType());
 	}
 
 	/**
@@ -129,13 +282,7 @@ public class JsonRpcClient {
 	 *                          request
 	 */
 	public <T> CompletableFuture<JsonRpcResponse<T>> sendAsync(JsonRpcRequest request) throws JsonRpcException {
-		return transport.sendAsync(request.getJson()).thenApply(r -> {
-			try {
-				return JsonRpcResponse.of(r);
-			} catch (IOException e) {
-				throw new UncheckedIOException(e);
-			}
-		});
+		return sendAsync(request, rawResponseType());
 	}
 
 	/**
@@ -154,13 +301,248 @@ public class JsonRpcClient {
 	 */
 	public <R extends JsonRpcResponse<T>, T> CompletableFuture<R> sendAsync(JsonRpcRequest request, Class<R> type)
 			throws JsonRpcException {
-		return transport.sendAsync(request.getJson()).thenApply(r -> {
+		return sendAsyncForType(request, type);
+	}
+
+	/**
+	 * Sends the given request asynchronously using this client. The result is
+	 * deserialized directly to the given {@link ResultType}, generics included.
+	 * 
+	 * @param <T>        the type of the result that the response should include
+	 * @param request    the request
+	 * @param resultType the type of the result
+	 * @return a {@code CompletableFuture<JsonRpcResponse<T>>}
+	 * @throws JsonRpcException if an error occurs in the serialization of the
+	 *                          request
+	 */
+	public <T> CompletableFuture<JsonRpcResponse<T>> sendAsync(JsonRpcRequest request, ResultType<T> resultType)
+			throws JsonRpcException {
+		return sendAsyncForType(request, resultType.getResponseType());
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest}s as a single JSON-RPC batch using
+	 * this client. Returns their {@link JsonRpcResponse}s in the same order as the
+	 * requests, matched by {@code id}.
+	 * 
+	 * @param <T>      the type of the result that the responses should include
+	 * @param requests the requests, each one with a distinct id
+	 * @return the responses, in the same order as the requests
+	 * @throws IOException          if an I/O error occurs when sending or receiving
+	 * @throws InterruptedException if the operation is interrupted
+	 * @throws JsonRpcException     if an error occurs in the serialization of the
+	 *                              requests or a response is missing
+	 */
+	public <T> List<JsonRpcResponse<T>> sendBatch(List<JsonRpcRequest> requests)
+			throws IOException, InterruptedException, JsonRpcException {
+		return sendBatch(requests, rawResponseType());
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest}s as a single JSON-RPC batch using
+	 * this client. Returns a List of Objects of a Class Type {@code <R>} that
+	 * extends {@link JsonRpcResponse}{@code <T>} to prevent Type Erasure, in the
+	 * same order as the requests, matched by {@code id}. This Class Type must be
+	 * passed as an argument.
+	 * 
+	 * @param <R>      the Class that extends JsonRpcResponse
+	 * @param <T>      the type of the result that the responses should include
+	 * @param requests the requests, each one with a distinct id
+	 * @param type     the Class that extends JsonRpcResponse
+	 * @return the responses, in the same order as the requests
+	 * @throws IOException          if an I/O error occurs when sending or receiving
+	 * @throws InterruptedException if the operation is interrupted
+	 * @throws JsonRpcException     if an error occurs in the serialization of the
+	 *                              requests or a response is missing
+	 */
+	public <R extends JsonRpcResponse<T>, T> List<R> sendBatch(List<JsonRpcRequest> requests, Class<R> type)
+			throws IOException, InterruptedException, JsonRpcException {
+		return sendBatchForType(requests, type);
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest}s as a single JSON-RPC batch using
+	 * this client. The results are deserialized directly to the given
+	 * {@link ResultType}, generics included.
+	 * 
+	 * @param <T>        the type of the result that the responses should include
+	 * @param requests   the requests, each one with a distinct id
+	 * @param resultType the type of the results
+	 * @return the responses, in the same order as the requests
+	 * @throws IOException          if an I/O error occurs when sending or receiving
+	 * @throws InterruptedException if the operation is interrupted
+	 * @throws JsonRpcException     if an error occurs in the serialization of the
+	 *                              requests or a response is missing
+	 */
+	public <T> List<JsonRpcResponse<T>> sendBatch(List<JsonRpcRequest> requests, ResultType<T> resultType)
+			throws IOException, InterruptedException, JsonRpcException {
+		return sendBatchForType(requests, resultType.getResponseType());
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest}s asynchronously as a single JSON-RPC
+	 * batch using this client.
+	 * 
+	 * @param <T>      the type of the result that the responses should include
+	 * @param requests the requests, each one with a distinct id
+	 * @return a {@code CompletableFuture<List<JsonRpcResponse<T>>>} whose
+	 *         responses are in the same order as the requests
+	 * @throws JsonRpcException if an error occurs in the serialization of the
+	 *                          requests
+	 */
+	public <T> CompletableFuture<List<JsonRpcResponse<T>>> sendBatchAsync(List<JsonRpcRequest> requests)
+			throws JsonRpcException {
+		return sendBatchAsync(requests, rawResponseType());
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest}s asynchronously as a single JSON-RPC
+	 * batch using this client. Returns a CompletableFuture of a List, whose Type
+	 * Parameter is a Class that extends {@link JsonRpcResponse}{@code <T>} to
+	 * prevent Type Erasure. This Class Type must be passed as an argument.
+	 * 
+	 * @param <R>      the Class that extends JsonRpcResponse
+	 * @param <T>      the type of the result that the responses should include
+	 * @param requests the requests, each one with a distinct id
+	 * @param type     the Class that extends JsonRpcResponse
+	 * @return a {@code CompletableFuture<List<R>>} whose responses are in the
+	 *         same order as the requests
+	 * @throws JsonRpcException if an error occurs in the serialization of the
+	 *                          requests
+	 */
+	public <R extends JsonRpcResponse<T>, T> CompletableFuture<List<R>> sendBatchAsync(
+			List<JsonRpcRequest> requests, Class<R> type) throws JsonRpcException {
+		return sendBatchAsyncForType(requests, type);
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest}s asynchronously as a single JSON-RPC
+	 * batch using this client. The results are deserialized directly to the given
+	 * {@link ResultType}, generics included.
+	 * 
+	 * @param <T>        the type of the result that the responses should include
+	 * @param requests   the requests, each one with a distinct id
+	 * @param resultType the type of the results
+	 * @return a {@code CompletableFuture<List<JsonRpcResponse<T>>>} whose
+	 *         responses are in the same order as the requests
+	 * @throws JsonRpcException if an error occurs in the serialization of the
+	 *                          requests
+	 */
+	public <T> CompletableFuture<List<JsonRpcResponse<T>>> sendBatchAsync(List<JsonRpcRequest> requests,
+			ResultType<T> resultType) throws JsonRpcException {
+		return sendBatchAsyncForType(requests, resultType.getResponseType());
+	}
+
+	/**
+	 * Sends asynchronously the {@link JsonRpcRequest}s of the given Publisher
+	 * using this client, and publishes their responses in the order they arrive.
+	 * The requests are asked from the Publisher as the responses are consumed, so
+	 * that at most {@code maxInFlight} requests are waiting for their response or
+	 * to be consumed: memory use is bounded however fast the requests are
+	 * produced. A request that fails is signalled with {@code onError}, after
+	 * which no more requests are sent.
+	 *
+	 * @param <T>         the type of the result that the responses should include
+	 * @param requests    the Publisher of the requests, each one with a distinct id
+	 * @param resultType  the type of the results
+	 * @param maxInFlight the maximum number of requests sent and not consumed
+	 * @return a Publisher of the responses, which subscribes to the requests for
+	 *         each of its subscribers
+	 * @since 0.6
+	 */
+	public <T> Flow.Publisher<JsonRpcResponse<T>> sendAll(Flow.Publisher<JsonRpcRequest> requests,
+			ResultType<T> resultType, int maxInFlight) {
+		Type responseType = resultType.getResponseType();
+		return new RequestFlow<>(requests, request -> {
 			try {
-				return JsonRpcResponse.of(r, type);
-			} catch (IOException e) {
-				throw new UncheckedIOException(e);
+				return sendAsyncForType(request, responseType);
+			} catch (JsonRpcException e) {
+				return CompletableFuture.failedFuture(e);
 			}
-		});
+		}, maxInFlight);
+	}
+
+	/**
+	 * Creates an implementation of the given interface whose methods send requests
+	 * with this client. Each method is mapped to a JSON-RPC method by its
+	 * {@link JsonRpcMethod} annotation, or by its name, and its arguments become
+	 * the params, positional or {@linkplain ParamsMode#NAMED named}. The ids are
+	 * obtained by the client's {@link IdGenerator}.
+	 *
+	 * <p>
+	 * A method returns the result of the response, read as its return type, or
+	 * throws a {@link JsonRpcException} with the Error of the response. It can
+	 * also return the whole {@link JsonRpcResponse}, and a method that returns a
+	 * {@link CompletableFuture} of either sends its request asynchronously:
+	 *
+	 * <pre>
+	 * {@code
+	 * interface Node {
+	 * 	&#64;JsonRpcMethod("getblock")
+	 * 	Block getBlock(String hash) throws IOException, InterruptedException, JsonRpcException;
+	 *
+	 * 	&#64;JsonRpcMethod(value = "listcustomers", params = ParamsMode.NAMED)
+	 * 	CompletableFuture<List<Customer>> listCustomers(@JsonRpcParam("page") int page, @JsonRpcParam("rows") int rows);
+	 * }
+	 * }
+	 * </pre>
+	 *
+	 * The names, the params and the types of the methods are resolved once, when
+	 * the proxy is created, which fails if a method cannot be mapped. The checked
+	 * exceptions that a method does not declare are thrown wrapped in an
+	 * {@link java.lang.reflect.UndeclaredThrowableException}.
+	 *
+	 * @param <T> the type of the interface
+	 * @param api the interface
+	 * @return the implementation, which can be shared by any number of threads
+	 * @since 0.6
+	 */
+	public <T> T proxy(Class<T> api) {
+		return RpcProxy.create(this, api);
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest}, whose result is an array, using this
+	 * client. Returns a Stream of the elements of the result, each one
+	 * deserialized when the Stream reaches it, so that memory use does not depend
+	 * on the size of the response. The Stream must be closed, for example with a
+	 * try-with-resources statement, to release the connection.
+	 * 
+	 * @param <E>         the type of the elements of the result
+	 * @param request     the request
+	 * @param elementType the type of the elements of the result
+	 * @return a Stream of the elements of the result
+	 * @throws IOException          if an I/O error occurs when sending or receiving
+	 * @throws InterruptedException if the operation is interrupted
+	 * @throws JsonRpcException     if an error occurs in the serialization of the
+	 *                              request or the response has an Error
+	 */
+	public <E> Stream<E> streamResult(JsonRpcRequest request, ResultType<E> elementType)
+			throws IOException, InterruptedException, JsonRpcException {
+		return JsonRpcResponse.streamResult(WireTrace.send(transport, request.getJsonBytes()), elementType);
+	}
+
+	/**
+	 * Sends the given {@link JsonRpcRequest}, whose result is an array, using this
+	 * client, and performs the given action on each element of the result as soon
+	 * as it is deserialized.
+	 * 
+	 * @param <E>         the type of the elements of the result
+	 * @param request     the request
+	 * @param elementType the type of the elements of the result
+	 * @param action      the action to be performed on each element
+	 * @throws IOException          if an I/O error occurs when sending or receiving
+	 * @throws InterruptedException if the operation is interrupted
+	 * @throws JsonRpcException     if an error occurs in the serialization of the
+	 *                              request or the response has an Error
+	 */
+	public <E> void forEachResult(JsonRpcRequest request, ResultType<E> elementType, Consumer<? super E> action)
+			throws IOException, InterruptedException, JsonRpcException {
+		try (Stream<E> elements = streamResult(request, elementType)) {
+			elements.forEach(action);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 	}
 
 	/**
@@ -246,6 +628,27 @@ public class JsonRpcClient {
 		return send(buildRequest(method, params), type);
 	}
 
+	/**
+	 * Creates and sends a JSON-RPC Request, whose method and params are passed as
+	 * arguments, with this client. The id is obtained by the client's
+	 * {@link IdGenerator}. The result is deserialized directly to the given
+	 * {@link ResultType}, generics included.
+	 * 
+	 * @param <T>        the type of the result that the response should include
+	 * @param method     the method
+	 * @param params     a POJO with the method's parameters
+	 * @param resultType the type of the result
+	 * @return the response
+	 * @throws IOException          if an I/O error occurs when sending or receiving
+	 * @throws InterruptedException if the operation is interrupted
+	 * @throws JsonRpcException     if an error occurs in the serialization of the
+	 *                              request
+	 */
+	public <T> JsonRpcResponse<T> sendRequestWithDefaults(String method, Object params, ResultType<T> resultType)
+			throws IOException, InterruptedException, JsonRpcException {
+		return send(buildRequest(method, params), resultType);
+	}
+
 	/**
 	 * Creates and sends asynchronously a JSON-RPC Request, that needs no parameter
 	 * and whose method is passed as an argument, with this client. The id is
@@ -318,8 +721,384 @@ public class JsonRpcClient {
 		return sendAsync(buildRequest(method, params), type);
 	}
 
+	/**
+	 * Creates and sends asynchronously a JSON-RPC Request, whose method and params
+	 * are passed as arguments, with this client. The id is obtained by the client's
+	 * {@link IdGenerator}. The result is deserialized directly to the given
+	 * {@link ResultType}, generics included.
+	 * 
+	 * @param <T>        the type of the result that the response should include
+	 * @param method     the method
+	 * @param params     a POJO with the method's parameters
+	 * @param resultType the type of the result
+	 * @return a {@code CompletableFuture<JsonRpcResponse<T>>}
+	 * @throws JsonRpcException if an error occurs in the serialization of the
+	 *                          request
+	 */
+	public <T> CompletableFuture<JsonRpcResponse<T>> sendRequestWithDefaultsAsync(String method, Object params,
+			ResultType<T> resultType) throws JsonRpcException {
+		return sendAsync(buildRequest(method, params), resultType);
+	}
+
+	<R> R sendForType(JsonRpcRequest request, Type responseType)
+			throws IOException, InterruptedException, JsonRpcException {
+		if (!measured) {
+			return sendUnmeasured(request, responseType);
+		}
+		String method = request.getMethod();
+		long start = System.nanoTime();
+		metrics.requestStarted(method);
+		R response;
+		try {
+			response = sendUnmeasured(request, responseType);
+		} catch (IOException | InterruptedException | JsonRpcException | RuntimeException e) {
+			metrics.requestFailed(method, System.nanoTime() - start, e);
+			throw e;
+		}
+		metrics.requestCompleted(method, System.nanoTime() - start, ((JsonRpcResponse<?>) response).getError());
+		return response;
+	}
+
+	private <R> R sendUnmeasured(JsonRpcRequest request, Type responseType)
+			throws IOException, InterruptedException, JsonRpcException {
+		String method = request.getMethod();
+		if (coalescedMethods.contains(method) || isHedged(method) || retryPolicies.containsKey(method)) {
+			return await(sendAsyncUnmeasured(request, responseType, false));
+		}
+		if (responseCache != null && responseCache.isCached(method)) {
+			RequestKey key = RequestKey.of(request);
+			byte[] response = responseCache.get(key);
+			if (response == null) {
+				try (InputStream input = transportSend(method, serialize(request))) {
+					response = input.readAllBytes();
+				}
+				responseCache.put(key, response);
+			}
+			return readResponse(response, responseType, request);
+		}
+		return readResponse(transportSend(method, serialize(request)), responseType, method);
+	}
+
+	<R> CompletableFuture<R> sendAsyncForType(JsonRpcRequest request, Type responseType)
+			throws JsonRpcException {
+		if (!measured) {
+			return sendAsyncUnmeasured(request, responseType, true);
+		}
+		String method = request.getMethod();
+		long start = System.nanoTime();
+		metrics.requestStarted(method);
+		CompletableFuture<R> response;
+		try {
+			response = sendAsyncUnmeasured(request, responseType, true);
+		} catch (JsonRpcException | RuntimeException e) {
+			metrics.requestFailed(method, System.nanoTime() - start, e);
+			throw e;
+		}
+		return response.whenComplete((r, e) -> {
+			if (e == null) {
+				metrics.requestCompleted(method, System.nanoTime() - start, ((JsonRpcResponse<?>) r).getError());
+			} else {
+				metrics.requestFailed(method, System.nanoTime() - start,
+						e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+			}
+		});
+	}
+
+	/**
+	 * @param batchable whether the request may wait in the micro-batcher, false
+	 *                  when the caller blocks for its response
+	 */
+	private <R> CompletableFuture<R> sendAsyncUnmeasured(JsonRpcRequest request, Type responseType,
+			boolean batchable) throws JsonRpcException {
+		RetryPolicy retryPolicy = retryPolicies.get(request.getMethod());
+		if (retryPolicy == null) {
+			return sendOnceAsync(request, responseType, batchable);
+		}
+		return retryPolicy.execute(sendOnceAsync(request, responseType, batchable), () -> {
+			try {
+				return sendOnceAsync(request, responseType, batchable);
+			} catch (JsonRpcException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		});
+	}
+
+	private <R> CompletableFuture<R> sendOnceAsync(JsonRpcRequest request, Type responseType,
+			boolean batchable) throws JsonRpcException {
+		String method = request.getMethod();
+		boolean cached = responseCache != null && responseCache.isCached(method);
+		boolean coalesced = coalescedMethods.contains(method);
+		if (cached || coalesced) {
+			RequestKey key = RequestKey.of(request);
+			byte[] hit = cached ? responseCache.get(key) : null;
+			CompletableFuture<byte[]> response;
+			if (hit != null) {
+				response = CompletableFuture.completedFuture(hit);
+			} else if (coalesced) {
+				response = singleFlight.execute(key, () -> sendForBytes(request, cached ? key : null));
+			} else {
+				response = sendForBytes(request, key);
+			}
+			return response.thenApply(r -> {
+				try {
+					return this.<R>readResponse(r, responseType, request);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		if (batchable && microBatcher != null && !isHedged(method)) {
+			return microBatcher.submit(request, responseType);
+		}
+		CompletableFuture<InputStream> exchange = exchange(method, serialize(request));
+		return cancelling(exchange, exchange.thenApply(r -> {
+			try {
+				return this.<R>readResponse(r, responseType, method);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}));
+	}
+
+	/**
+	 * @param cacheKey the key the response is cached with, or null if it is not
+	 *                 cached
+	 */
+	private CompletableFuture<byte[]> sendForBytes(JsonRpcRequest request, RequestKey cacheKey) {
+		byte[] json;
+		try {
+			json = serialize(request);
+		} catch (JsonRpcException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return exchange(request.getMethod(), json).thenApply(r -> {
+			try (r) {
+				byte[] bytes = r.readAllBytes();
+				if (cacheKey != null) {
+					responseCache.put(cacheKey, bytes);
+				}
+				return bytes;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	private boolean isHedged(String method) {
+		return hedgingPolicy != null && hedgingPolicy.isHedged(method);
+	}
+
+	private CompletableFuture<InputStream> exchange(String method, byte[] json) {
+		if (isHedged(method)) {
+			return hedgingPolicy.send(method, () -> transportSendAsync(method, json));
+		}
+		return transportSendAsync(method, json);
+	}
+
+	private byte[] serialize(JsonRpcRequest request) throws JsonRpcException {
+		if (!measured) {
+			return request.getJsonBytes();
+		}
+		long start = System.nanoTime();
+		byte[] json = request.getJsonBytes();
+		metrics.requestSerialized(request.getMethod(), json.length, System.nanoTime() - start);
+		return json;
+	}
+
+	private InputStream transportSend(String method, byte[] json) throws IOException, InterruptedException {
+		if (!measured) {
+			return WireTrace.send(transport, json);
+		}
+		long start = System.nanoTime();
+		InputStream response = WireTrace.send(transport, json);
+		metrics.responseReceived(method, System.nanoTime() - start);
+		return response;
+	}
+
+	private CompletableFuture<InputStream> transportSendAsync(String method, byte[] json) {
+		if (!measured) {
+			return WireTrace.sendAsync(transport, json);
+		}
+		long start = System.nanoTime();
+		CompletableFuture<InputStream> response = WireTrace.sendAsync(transport, json);
+		return cancelling(response, response.thenApply(r -> {
+			metrics.responseReceived(method, System.nanoTime() - start);
+			return r;
+		}));
+	}
+
+	/**
+	 * Cancels the source when the future that depends on it is cancelled or timed
+	 * out, which a CompletableFuture does not do, so that an attempt given up by
+	 * the {@link HedgingPolicy} or the {@link RetryPolicy} reaches the Transport.
+	 * A failure of the source itself reaches the dependent wrapped, so it is not
+	 * mistaken for a timeout.
+	 *
+	 * @return the dependent future
+	 */
+	static <T> CompletableFuture<T> cancelling(CompletableFuture<?> source, CompletableFuture<T> dependent) {
+		dependent.whenComplete((r, e) -> {
+			if (e instanceof CancellationException || e instanceof TimeoutException) {
+				source.cancel(true);
+			}
+		});
+		return dependent;
+	}
+
+	private static <R> R await(CompletableFuture<R> response)
+			throws IOException, InterruptedException, JsonRpcException {
+		try {
+			return response.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof JsonRpcException) {
+				throw (JsonRpcException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private <R> R readResponse(InputStream input, Type responseType, String method) throws IOException {
+		if (!measured) {
+			return deserialize(input, responseType);
+		}
+		long start = System.nanoTime();
+		if (input instanceof PooledInputStream) {
+			// Its size is known, and wrapping it would keep the mapper from parsing its
+			// buffer in place
+			int size = input.available();
+			R response = deserialize(input, responseType);
+			metrics.responseRead(method, size, System.nanoTime() - start);
+			return response;
+		}
+		CountingInputStream counted = new CountingInputStream(input);
+		R response = deserialize(counted, responseType);
+		metrics.responseRead(method, counted.getCount(), System.nanoTime() - start);
+		return response;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <R> R deserialize(InputStream input, Type responseType) throws IOException {
+		if (lazyResults) {
+			return (R) JsonRpcResponse.lazy(input, responseType);
+		}
+		return Json.INSTANCE.api().deserialize(input, responseType);
+	}
+
+	/**
+	 * The response may have been received for another request, cached or
+	 * coalesced, so its id is replaced with the id of the request being answered.
+	 */
+	private <R> R readResponse(byte[] response, Type responseType, JsonRpcRequest request) throws IOException {
+		R r = readResponse(new ByteArrayInputStream(response), responseType, request.getMethod());
+		if (request.hasNumericId()) {
+			((JsonRpcResponse<?>) r).setNumericId(request.getNumericId());
+		} else {
+			((JsonRpcResponse<?>) r).setId(request.getId());
+		}
+		return r;
+	}
+
+	private <R extends JsonRpcResponse<?>> List<R> sendBatchForType(List<JsonRpcRequest> requests, Type responseType)
+			throws IOException, InterruptedException, JsonRpcException {
+		byte[] batch = batchJson(requests);
+		return matchById(requests, Json.INSTANCE.api().deserializeList(WireTrace.send(transport, batch), responseType));
+	}
+
+	private <R extends JsonRpcResponse<?>> CompletableFuture<List<R>> sendBatchAsyncForType(
+			List<JsonRpcRequest> requests, Type responseType) throws JsonRpcException {
+		byte[] batch = batchJson(requests);
+		return WireTrace.sendAsync(transport, batch).thenApply(r -> {
+			try {
+				return matchById(requests, Json.INSTANCE.api().<R>deserializeList(r, responseType));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (JsonRpcException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	private static byte[] batchJson(List<JsonRpcRequest> requests) throws JsonRpcException {
+		if (requests.isEmpty()) {
+			throw new JsonRpcException("A batch must contain at least one request");
+		}
+		try (RequestBuffer batch = RequestBuffer.acquire()) {
+			batch.write('[');
+			for (int i = 0; i < requests.size(); i++) {
+				if (i > 0) {
+					batch.write(',');
+				}
+				requests.get(i).writeJson(batch);
+			}
+			batch.write(']');
+			return batch.toByteArray();
+		}
+	}
+
+	/**
+	 * Reorders the responses of a batch so that each one is in the position of the
+	 * request with the same id. A response with no id, which servers send when the
+	 * whole batch is rejected, is reported as the cause of the missing ones.
+	 */
+	private static <R extends JsonRpcResponse<?>> List<R> matchById(List<JsonRpcRequest> requests,
+			List<R> responses) throws JsonRpcException {
+		Map<Object, R> byId = new HashMap<>(responses.size() * 4 / 3 + 1);
+		JsonRpcResponseError batchError = null;
+		for (R response : responses) {
+			if (response.getIdKey() == null) {
+				batchError = response.getError();
+			} else {
+				byId.put(response.getIdKey(), response);
+			}
+		}
+		List<R> ordered = new ArrayList<>(requests.size());
+		for (JsonRpcRequest request : requests) {
+			R response = byId.remove(request.getIdKey());
+			if (response == null) {
+				throw new JsonRpcException("No response for request id " + request.getId()
+						+ (batchError == null ? "" : ": " + batchError.getCode() + " " + batchError.getMessage()));
+			}
+			ordered.add(response);
+		}
+		return ordered;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static <T> Class<JsonRpcResponse<T>> rawResponseType() {
+		return (Class) JsonRpcResponse.class;
+	}
+
+	/**
+	 * @return the number of requests that waited for the response of an identical
+	 *         request in flight, instead of being sent
+	 */
+	public long getCoalescedRequests() {
+		return singleFlight.getCoalesced();
+	}
+
 	private JsonRpcRequest buildRequest(String method, Object params) {
-		return JsonRpcRequest.builder().id("" + idGenerator.getId()).jsonrpc(version).method(method).params(params)
-				.isNamedParams(false).build();
+		return buildRequest(method, params, false);
+	}
+
+	/**
+	 * Integral ids are sent as JSON numbers, any other id as a String.
+	 */
+	JsonRpcRequest buildRequest(String method, Object params, boolean isNamedParams) {
+		JsonRpcRequest.Builder builder = JsonRpcRequest.builder().jsonrpc(version).method(method).params(params)
+				.isNamedParams(isNamedParams);
+		Object id = idGenerator.getId();
+		if (id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte) {
+			builder.id(((Number) id).longValue());
+		} else {
+			builder.id(String.valueOf(id));
+		}
+		return builder.build();
 	}
-}
\ No newline at end of file
+}
@@ -22,11 +22,32 @@ package com.emiperez.repeson.client;
  */
 public class JsonRpcException extends Exception {
 
+	private final JsonRpcResponseError error;
+
 	public JsonRpcException(String message) {
 		super(message);
+		this.error = null;
 	}
 	
 	public JsonRpcException(String message, Throwable cause) {
 		super(message, cause);
+		this.error = null;
+	}
+
+	/**
+	 * @param error the Error returned by the server instead of a result
+	 * @since 0.6
+	 */
+	public JsonRpcException(JsonRpcResponseError error) {
+		super(error.getCode() + ": " + error.getMessage());
+		this.error = error;
+	}
+
+	/**
+	 * @return the Error returned by the server, if this exception was caused by
+	 *         one, null otherwise
+	 */
+	public JsonRpcResponseError getError() {
+		return error;
 	}
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+package com.emiperez.repeson.client;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a method of an interface to a JSON-RPC method, for the proxies created
+ * by {@link JsonRpcClient#proxy(Class)}. The methods without it are mapped to
+ * the JSON-RPC method of the same name, with positional params.
+ *
+ * @since 0.6
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface JsonRpcMethod {
+
+	/**
+	 * @return the name of the JSON-RPC method, by default the name of the Java
+	 *         method
+	 */
+	String value() default "";
+
+	/**
+	 * @return how the arguments are sent as params
+	 */
+	ParamsMode params() default ParamsMode.POSITIONAL;
+}
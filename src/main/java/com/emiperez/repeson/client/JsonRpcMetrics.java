@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+package com.emiperez.repeson.client;
+
+/**
+ * Receives the measures of the requests sent by a {@link JsonRpcClient}, to
+ * record them or to hand them to a metrics library. Every method has an empty
+ * default, so an implementation only overrides the events it needs.
+ *
+ * <p>
+ * The methods are called on the threads that send the requests and receive the
+ * responses, so they must be thread-safe and should not block. The times are in
+ * nanoseconds. The events are emitted for the requests sent one by one with
+ * {@code send}, {@code sendAsync} and their variants, even when the client
+ * gathers them into micro-batches; a request that is retried or hedged is
+ * measured once, from the first attempt to the response used.
+ *
+ * <p>
+ * When a client has no metrics, it uses {@link #NONE}, and measures nothing:
+ * no time is taken and nothing is allocated.
+ *
+ * @see MetricsRecorder
+ * @since 0.6
+ */
+public interface JsonRpcMetrics {
+
+	/**
+	 * The metrics of a client that has none.
+	 */
+	JsonRpcMetrics NONE = new JsonRpcMetrics() {
+	};
+
+	/**
+	 * A request is going to be sent, so it is in flight until it completes or
+	 * fails.
+	 * 
+	 * @param method the method of the request
+	 */
+	default void requestStarted(String method) {
+	}
+
+	/**
+	 * A request was serialized.
+	 * 
+	 * @param method the method of the request
+	 * @param bytes  the size of the request
+	 * @param nanos  the time taken to serialize it
+	 */
+	default void requestSerialized(String method, int bytes, long nanos) {
+	}
+
+	/**
+	 * The Transport returned the response to a request, before its body is read.
+	 * 
+	 * @param method the method of the request
+	 * @param nanos  the time from the request being handed to the Transport
+	 */
+	default void responseReceived(String method, long nanos) {
+	}
+
+	/**
+	 * The body of a response was read and deserialized.
+	 * 
+	 * @param method the method of the request
+	 * @param bytes  the size of the response
+	 * @param nanos  the time taken to read and deserialize it
+	 */
+	default void responseRead(String method, long bytes, long nanos) {
+	}
+
+	/**
+	 * A request got its response, which may have an error.
+	 * 
+	 * @param method the method of the request
+	 * @param nanos  the time from the request being started
+	 * @param error  the error of the response, or null if it has a result
+	 */
+	default void requestCompleted(String method, long nanos, JsonRpcResponseError error) {
+	}
+
+	/**
+	 * A request got no response, because it could not be sent, its response could
+	 * not be read or it timed out.
+	 * 
+	 * @param method  the method of the request
+	 * @param nanos   the time from the request being started
+	 * @param failure the cause
+	 */
+	default void requestFailed(String method, long nanos, Throwable failure) {
+	}
+}
@@ -15,13 +15,16 @@
 
 package com.emiperez.repeson.client;
 
-import java.text.MessageFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 
 import com.emiperez.commons.json.apiselector.Json;
+import com.emiperez.commons.json.apiselector.JsonMapper;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.extern.java.Log;
 
 /**
  * A JSON-RPC request.
@@ -35,15 +38,17 @@ import lombok.extern.java.Log;
  * @since 0.1
  */
 
-@Log
 @Getter
 public class JsonRpcRequest {
 
-	private static final String RPC_JSON_TEMPLATE = "'{'\"jsonrpc\": \"{0}\", \"id\": \"{1}\", \"method\": \"{2}\"{3}'}'";
-
 	private JsonRpcVersion jsonrpc = JsonRpcVersion.v2_0;
 	@NonNull
+	@Getter(AccessLevel.NONE)
 	private String id;
+	@Getter(AccessLevel.NONE)
+	private long numericId;
+	@Getter(AccessLevel.NONE)
+	private boolean hasNumericId;
 	@NonNull
 	private String method;
 	private Object params;
@@ -53,6 +58,8 @@ public class JsonRpcRequest {
 		private JsonRpcVersion jsonrpc = JsonRpcVersion.v2_0;
 		@NonNull
 		private String id;
+		private long numericId;
+		private boolean hasNumericId;
 		@NonNull
 		private String method;
 		private Object params;
@@ -65,6 +72,21 @@ public class JsonRpcRequest {
 
 		public Builder id(String id) {
 			this.id = id;
+			this.hasNumericId = false;
+			return this;
+		}
+
+		/**
+		 * Sets a numeric id, which is sent as a JSON number.
+		 * 
+		 * @param id the id
+		 * @return the Builder
+		 * @since 0.6
+		 */
+		public Builder id(long id) {
+			this.numericId = id;
+			this.hasNumericId = true;
+			this.id = null;
 			return this;
 		}
 
@@ -87,6 +109,8 @@ public class JsonRpcRequest {
 			JsonRpcRequest request = new JsonRpcRequest();
 			request.jsonrpc = jsonrpc;
 			request.id = id;
+			request.numericId = numericId;
+			request.hasNumericId = hasNumericId;
 			request.method = method;
 			request.params = params;
 			request.isNamedParams = isNamedParams;
@@ -114,11 +138,120 @@ public class JsonRpcRequest {
 			
 			paramsJson = ", \"params\": " + paramsJson;
 		}
-		String sRequest = MessageFormat.format(RPC_JSON_TEMPLATE, jsonrpc, id, method, paramsJson);
-		log.info("Request: " + sRequest);
+		String sId = hasNumericId ? Long.toString(numericId) : "\"" + id + "\"";
+		String sRequest = "{\"jsonrpc\": \"" + jsonrpc + "\", \"id\": " + sId + ", \"method\": \"" + method + "\""
+				+ paramsJson + "}";
+		WireTrace.request(sRequest);
 		return sRequest;
 	}
 
+	/**
+	 * Writes the serialized Request object, encoded in UTF-8, to the given stream.
+	 * Unlike {@link #getJson()}, no intermediate String is built: the params are
+	 * written straight to the stream, and the rest of the envelope is copied from
+	 * bytes encoded once per version and method. If isNamedParams is set to false
+	 * it serializes params as an array.
+	 * 
+	 * @param out the stream the request is written to
+	 * @throws JsonRpcException if an error occurs in serialization
+	 */
+	public void writeJson(OutputStream out) throws JsonRpcException {
+		RequestEnvelope envelope = RequestEnvelope.of(jsonrpc, method);
+		try {
+			envelope.writeHead(out);
+			if (hasNumericId) {
+				RequestEnvelope.writeId(numericId, out);
+			} else {
+				RequestEnvelope.writeId(id, out);
+			}
+			envelope.writeMethod(out, params != null);
+			if (params != null) {
+				writeParams(out);
+				out.write('}');
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the params as they are sent in the request. Nothing is written if
+	 * there are none.
+	 */
+	void writeParams(OutputStream out) throws JsonRpcException, IOException {
+		if (params == null) {
+			return;
+		}
+		JsonMapper api = Json.INSTANCE.api();
+		if (params instanceof String || params instanceof Integer) {
+			out.write('[');
+			api.serialize(params, out);
+			out.write(']');
+		} else if (isNamedParams) {
+			api.serialize(params, out);
+		} else {
+			api.serializeAsArray(params, out);
+		}
+	}
+
+	/**
+	 * @return The serialized Request object encoded in UTF-8. If isNamedParams is
+	 *         set to false it serializes params as an array.
+	 * @throws JsonRpcException if an error occurs in serialization
+	 */
+	public byte[] getJsonBytes() throws JsonRpcException {
+		try (RequestBuffer buffer = RequestBuffer.acquire()) {
+			writeJson(buffer);
+			return buffer.toByteArray();
+		}
+	}
+
+	/**
+	 * @return the id of the request. A numeric id is returned as its decimal
+	 *         String.
+	 */
+	public String getId() {
+		return hasNumericId ? Long.toString(numericId) : id;
+	}
+
+	/**
+	 * @return whether the id is numeric, so that it can be read with
+	 *         {@link #getNumericId()}
+	 * @since 0.6
+	 */
+	public boolean hasNumericId() {
+		return hasNumericId;
+	}
+
+	/**
+	 * @return the numeric id, or 0 if the id is not numeric
+	 * @since 0.6
+	 */
+	public long getNumericId() {
+		return numericId;
+	}
+
+	/**
+	 * @return the id as a key to match the responses with
+	 * @see #idKey(String)
+	 */
+	Object getIdKey() {
+		return hasNumericId ? (Object) numericId : idKey(id);
+	}
+
+	/**
+	 * @return a Long if the id is the canonical decimal String of a number, as
+	 *         {@link PendingRequestRegistry} reads it, so that a numeric id and
+	 *         the same id as a String match each other; the id otherwise
+	 */
+	static Object idKey(String id) {
+		if (id == null) {
+			return null;
+		}
+		long numeric = PendingRequestRegistry.parseNumeric(id);
+		return numeric == PendingRequestRegistry.NOT_NUMERIC ? id : (Object) numeric;
+	}
+
 	public static Builder builder() {
 		return new Builder();
 	}
@@ -17,10 +17,22 @@ package com.emiperez.repeson.client;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.emiperez.commons.json.apiselector.Json;
+import com.emiperez.commons.json.apiselector.JsonFieldReader;
+import com.emiperez.commons.json.apiselector.RawJson;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -29,6 +41,12 @@ import lombok.Setter;
  * be parsed to an Object of this Class by using the two static methods
  * included.
  *
+ * <p>
+ * Responses read {@linkplain #lazy(InputStream, ResultType) lazily} keep their
+ * result as raw JSON, which is only deserialized the first time it is
+ * accessed. Reading the id or checking the error of a large response then only
+ * costs a scan of its bytes.
+ *
  * @param <T> The Type of the result of the JSON-RPC response.
  */
 @Getter
@@ -37,7 +55,21 @@ public class JsonRpcResponse<T> {
 
 	private T result;
 	private JsonRpcResponseError error;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
 	private String id;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private long numericId;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private boolean hasNumericId;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private volatile RawJson rawResult;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private Type resultType;
 
 	/**
 	 * Static method for parsing JSON-RPC Response messages whose result classes do
@@ -68,13 +100,241 @@ public class JsonRpcResponse<T> {
 	public static <R extends JsonRpcResponse<C>, C> R of(InputStream input, Class<R> type) throws IOException {
 		return Json.INSTANCE.api().deserialize(input, type);
 	}
+
+	/**
+	 * Static method for parsing JSON-RPC Response messages whose result is bound
+	 * directly to the given {@link ResultType}, generics included, so that no
+	 * subclass of JsonRpcResponse is needed.
+	 * 
+	 * @param <C>        The Type of the Result
+	 * @param input      The InputStream of a JSON-RPC Response message
+	 * @param resultType The Type of the Result
+	 * @return The parsed JSON-RPC response
+	 * @throws IOException if an error occurs in deserialization
+	 */
+	public static <C> JsonRpcResponse<C> of(InputStream input, ResultType<C> resultType) throws IOException {
+		return Json.INSTANCE.api().deserialize(input, resultType.getResponseType());
+	}
 	
+	/**
+	 * Static method for parsing JSON-RPC Response messages whose result is not
+	 * deserialized until it is accessed for the first time.
+	 * 
+	 * @param <C>        The Type of the Result
+	 * @param input      The InputStream of a JSON-RPC Response message
+	 * @param resultType The Type of the Result
+	 * @return The parsed JSON-RPC response, with its result kept as raw JSON
+	 * @throws IOException if an error occurs in deserialization
+	 */
+	public static <C> JsonRpcResponse<C> lazy(InputStream input, ResultType<C> resultType) throws IOException {
+		return lazy(input, resultType.getResponseType());
+	}
+
+	/**
+	 * Static method for parsing JSON-RPC Response messages whose result is an
+	 * array, element by element. Each element is deserialized when the Stream
+	 * reaches it, so memory use does not depend on the size of the result. The
+	 * Stream must be closed to release the input.
+	 * 
+	 * @param <E>         The Type of the elements of the Result
+	 * @param input       The InputStream of a JSON-RPC Response message
+	 * @param elementType The Type of the elements of the Result
+	 * @return A Stream of the elements of the Result, empty if it is null or
+	 *         missing
+	 * @throws IOException      if an error occurs in deserialization
+	 * @throws JsonRpcException if the response has an Error instead of a result
+	 */
+	public static <E> Stream<E> streamResult(InputStream input, ResultType<E> elementType)
+			throws IOException, JsonRpcException {
+		JsonFieldReader reader = Json.INSTANCE.api().readFields(input);
+		try {
+			for (String field = reader.nextField(); field != null; field = reader.nextField()) {
+				if ("result".equals(field) && !reader.isNullValue()) {
+					Iterator<E> elements = reader.readElements(elementType.getType());
+					return StreamSupport.stream(Spliterators.spliteratorUnknownSize(elements, Spliterator.ORDERED), false)
+							.onClose(() -> {
+								try {
+									reader.close();
+								} catch (IOException e) {
+									throw new UncheckedIOException(e);
+								}
+							});
+				} else if ("error".equals(field)) {
+					JsonRpcResponseError error = reader.readValue(JsonRpcResponseError.class);
+					if (error != null) {
+						throw new JsonRpcException(error);
+					}
+				} else {
+					reader.skipValue();
+				}
+			}
+		} catch (IOException | JsonRpcException | RuntimeException e) {
+			reader.close();
+			throw e;
+		}
+		reader.close();
+		return Stream.empty();
+	}
+
+	/**
+	 * Parses a response lazily into the given response type, which may be a
+	 * subclass of JsonRpcResponse or a parameterized JsonRpcResponse.
+	 */
+	static <R extends JsonRpcResponse<?>> R lazy(InputStream input, Type responseType) throws IOException {
+		Map<String, RawJson> fields;
+		// The raw values are slices of these bytes, so the input can be closed
+		try (input) {
+			fields = Json.INSTANCE.api().readFields(input.readAllBytes());
+		}
+		return lazy(fields, responseType);
+	}
+
+	/**
+	 * Builds a lazy response from the fields of a response already scanned, such
+	 * as an element of a batch.
+	 */
+	@SuppressWarnings("unchecked")
+	static <R extends JsonRpcResponse<?>> R lazy(Map<String, RawJson> fields, Type responseType) throws IOException {
+		JsonRpcResponse<Object> response;
+		Type resultType;
+		if (responseType instanceof Class) {
+			try {
+				response = (JsonRpcResponse<Object>) ((Class<?>) responseType).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IOException("Cannot instantiate " + responseType.getTypeName(), e);
+			}
+			resultType = resultTypeOf((Class<?>) responseType);
+		} else {
+			response = new JsonRpcResponse<>();
+			resultType = ((ParameterizedType) responseType).getActualTypeArguments()[0];
+		}
+		RawJson id = fields.get("id");
+		if (id != null && id.isLong()) {
+			response.setNumericId(id.asLong());
+		} else {
+			response.id = id == null ? null : id.as(String.class);
+		}
+		RawJson error = fields.get("error");
+		response.error = error == null ? null : error.as(JsonRpcResponseError.class);
+		response.resultType = resultType;
+		response.rawResult = fields.get("result");
+		return (R) response;
+	}
+
+	/**
+	 * @return the type argument given to JsonRpcResponse by a subclass, Object if
+	 *         none
+	 */
+	private static Type resultTypeOf(Class<?> responseClass) {
+		for (Class<?> c = responseClass; c != JsonRpcResponse.class && c != null; c = c.getSuperclass()) {
+			Type superclass = c.getGenericSuperclass();
+			if (superclass instanceof ParameterizedType
+					&& ((ParameterizedType) superclass).getRawType() == JsonRpcResponse.class) {
+				Type argument = ((ParameterizedType) superclass).getActualTypeArguments()[0];
+				return argument instanceof Class || argument instanceof ParameterizedType ? argument : Object.class;
+			}
+		}
+		return Object.class;
+	}
+
+	/**
+	 * @return the id of the response. A numeric id is returned as its decimal
+	 *         String.
+	 */
+	public String getId() {
+		return hasNumericId ? Long.toString(numericId) : id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+		this.hasNumericId = false;
+	}
+
+	/**
+	 * @return whether the id is numeric, so that it can be read with
+	 *         {@link #getNumericId()}
+	 * @since 0.6
+	 */
+	public boolean hasNumericId() {
+		return hasNumericId;
+	}
+
+	/**
+	 * @return the numeric id, or 0 if the id is not numeric
+	 * @since 0.6
+	 */
+	public long getNumericId() {
+		return numericId;
+	}
+
+	/**
+	 * @param id the numeric id
+	 * @since 0.6
+	 */
+	public void setNumericId(long id) {
+		this.numericId = id;
+		this.hasNumericId = true;
+		this.id = null;
+	}
+
+	/**
+	 * @return the id as it is written in JSON: a Long if it is numeric, the
+	 *         String otherwise
+	 */
+	Object getJsonId() {
+		return hasNumericId ? (Object) numericId : id;
+	}
+
+	/**
+	 * @return the id as a key to match the response with its request
+	 * @see JsonRpcRequest#idKey(String)
+	 */
+	Object getIdKey() {
+		return hasNumericId ? (Object) numericId : JsonRpcRequest.idKey(id);
+	}
+
+	/**
+	 * Sets the id as it is read from JSON: integers are kept as numeric ids,
+	 * anything else as a String.
+	 */
+	void setJsonId(Object id) {
+		if (id instanceof Long || id instanceof Integer) {
+			setNumericId(((Number) id).longValue());
+		} else {
+			setId(id == null ? null : id.toString());
+		}
+	}
+
+	/**
+	 * @return the result, which is deserialized first if this response was read
+	 *         lazily
+	 * @throws UncheckedIOException if the raw result cannot be deserialized
+	 */
+	public T getResult() {
+		RawJson raw = rawResult;
+		if (raw != null) {
+			try {
+				result = raw.as(resultType);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			rawResult = null;
+		}
+		return result;
+	}
+
+	public void setResult(T result) {
+		this.result = result;
+		this.rawResult = null;
+	}
+
 	/**
 	 * 
 	 * @return true if this response has a result object. False otherwise.
 	 */
 	public boolean hasResult() {
-		return result != null;
+		RawJson raw = rawResult;
+		return raw != null ? !raw.isNull() : result != null;
 	}
 	
 	/**
@@ -94,8 +354,8 @@ public class JsonRpcResponse<T> {
      *         {@code null}
      */
     public void ifHasResult(Consumer<? super T> action) {
-        if (result != null) {
-            action.accept(result);
+        if (hasResult()) {
+            action.accept(getResult());
         }
     }
     
@@ -111,8 +371,8 @@ public class JsonRpcResponse<T> {
      *         action is {@code null}.
      */
     public void ifHasResultOrElse(Consumer<? super T> action, Runnable emptyAction) {
-        if (result != null) {
-            action.accept(result);
+        if (hasResult()) {
+            action.accept(getResult());
         } else {
             emptyAction.run();
         }
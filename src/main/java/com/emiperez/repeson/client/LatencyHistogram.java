@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+package com.emiperez.repeson.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of times, in nanoseconds, with buckets whose width grows with the
+ * value, as in HdrHistogram: the values under 64 have a bucket each, and the
+ * rest are counted with a precision of 1/32, whatever their magnitude. It keeps
+ * less than 16 KB whatever the number and the range of the values.
+ *
+ * <p>
+ * Recording a value increments a counter, with no lock and no allocation, so it
+ * can be done by many threads at once. The percentiles are read from the
+ * counters at the time, without stopping the recording.
+ *
+ * @since 0.6
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS / 2;
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a time. A negative one is recorded as zero.
+	 * 
+	 * @param nanos the time in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(indexOf(value));
+		count.increment();
+		total.add(value);
+		if (value > max.get()) {
+			max.accumulateAndGet(value, Math::max);
+		}
+	}
+
+	/**
+	 * @return the number of times recorded
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the mean of the times, in nanoseconds, or 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+
+	/**
+	 * @return the highest time, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the time that the given fraction of the times recorded do not
+	 * exceed, rounded up to the highest value of its bucket.
+	 * 
+	 * @param percentile the fraction, between 0 and 1, for example 0.99
+	 * @return the time in nanoseconds, or 0 if there are none
+	 */
+	public long getPercentile(double percentile) {
+		if (!(percentile >= 0 && percentile <= 1)) {
+			throw new IllegalArgumentException("percentile must be between 0 and 1: " + percentile);
+		}
+		long n = count.sum();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * The values under {@value #SUB_BUCKETS} have their own bucket. Above, the
+	 * {@value #SUB_BUCKET_BITS} highest bits of the value select one of the
+	 * {@value #HALF} buckets of its power of two.
+	 */
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	static long highestValueOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+package com.emiperez.repeson.client;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link JsonRpcMetrics} that keeps the measures of each method in memory:
+ * a histogram of the latencies, the bytes sent and received, the requests in
+ * flight, the failures, the errors by code, and the time spent in serialization,
+ * in the network and in reading the responses.
+ *
+ * <pre>
+ * {@code
+ * MetricsRecorder metrics = new MetricsRecorder();
+ * JsonRpcClient client = JsonRpcClient.builder().transport(transport).metrics(metrics).build();
+ * long p99 = metrics.get("getblock").getLatency().getPercentile(0.99);
+ * }
+ * </pre>
+ *
+ * The measures can also be exported periodically to a monitoring system, by
+ * reading them or by implementing {@link JsonRpcMetrics} in an adapter.
+ *
+ * @since 0.6
+ */
+public final class MetricsRecorder implements JsonRpcMetrics {
+
+	private final ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+	/**
+	 * @param method the name of the method
+	 * @return the measures of the method, empty if no request of it was sent
+	 */
+	public MethodMetrics get(String method) {
+		MethodMetrics metrics = methods.get(method);
+		return metrics != null ? metrics : new MethodMetrics();
+	}
+
+	/**
+	 * @return the names of the methods with measures
+	 */
+	public Set<String> getMethods() {
+		return Collections.unmodifiableSet(methods.keySet());
+	}
+
+	private MethodMetrics of(String method) {
+		MethodMetrics metrics = methods.get(method);
+		return metrics != null ? metrics : methods.computeIfAbsent(method, m -> new MethodMetrics());
+	}
+
+	@Override
+	public void requestStarted(String method) {
+		of(method).inFlight.incrementAndGet();
+	}
+
+	@Override
+	public void requestSerialized(String method, int bytes, long nanos) {
+		MethodMetrics metrics = of(method);
+		metrics.requestBytes.add(bytes);
+		metrics.serializationNanos.add(nanos);
+	}
+
+	@Override
+	public void responseReceived(String method, long nanos) {
+		of(method).networkNanos.add(nanos);
+	}
+
+	@Override
+	public void responseRead(String method, long bytes, long nanos) {
+		MethodMetrics metrics = of(method);
+		metrics.responseBytes.add(bytes);
+		metrics.readNanos.add(nanos);
+	}
+
+	@Override
+	public void requestCompleted(String method, long nanos, JsonRpcResponseError error) {
+		MethodMetrics metrics = of(method);
+		metrics.inFlight.decrementAndGet();
+		metrics.latency.record(nanos);
+		if (error != null) {
+			LongAdder errors = metrics.errors.get(error.getCode());
+			if (errors == null) {
+				errors = metrics.errors.computeIfAbsent(error.getCode(), c -> new LongAdder());
+			}
+			errors.increment();
+		}
+	}
+
+	@Override
+	public void requestFailed(String method, long nanos, Throwable failure) {
+		MethodMetrics metrics = of(method);
+		metrics.inFlight.decrementAndGet();
+		metrics.latency.record(nanos);
+		metrics.failures.increment();
+	}
+
+	/**
+	 * The measures of the requests of a method.
+	 */
+	public static final class MethodMetrics {
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final LongAdder failures = new LongAdder();
+		private final ConcurrentHashMap<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+		private final LongAdder requestBytes = new LongAdder();
+		private final LongAdder responseBytes = new LongAdder();
+		private final LongAdder serializationNanos = new LongAdder();
+		private final LongAdder networkNanos = new LongAdder();
+		private final LongAdder readNanos = new LongAdder();
+
+		private MethodMetrics() {
+		}
+
+		/**
+		 * @return the histogram of the times from the start of the requests to their
+		 *         response or failure
+		 */
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @return the requests started and not completed nor failed
+		 */
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * @return the requests that got no response
+		 */
+		public long getFailures() {
+			return failures.sum();
+		}
+
+		/**
+		 * @return the number of responses with an error, by its code
+		 */
+		public Map<Integer, Long> getErrors() {
+			Map<Integer, Long> counts = new HashMap<>();
+			errors.forEach((code, count) -> counts.put(code, count.sum()));
+			return counts;
+		}
+
+		/**
+		 * @return the bytes of the requests serialized
+		 */
+		public long getRequestBytes() {
+			return requestBytes.sum();
+		}
+
+		/**
+		 * @return the bytes of the responses read
+		 */
+		public long getResponseBytes() {
+			return responseBytes.sum();
+		}
+
+		/**
+		 * @return the total time spent serializing the requests
+		 */
+		public long getSerializationNanos() {
+			return serializationNanos.sum();
+		}
+
+		/**
+		 * @return the total time from the requests being handed to the Transport to
+		 *         their responses being returned by it
+		 */
+		public long getNetworkNanos() {
+			return networkNanos.sum();
+		}
+
+		/**
+		 * @return the total time spent reading and deserializing the responses
+		 */
+		public long getReadNanos() {
+			return readNanos.sum();
+		}
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.emiperez.commons.json.apiselector.Json;
+import com.emiperez.commons.json.apiselector.RawJson;
+import com.emiperez.repeson.transport.PooledInputStream;
+import com.emiperez.repeson.transport.Transport;
+
+/**
+ * Gathers the requests sent asynchronously by a {@link JsonRpcClient} into
+ * JSON-RPC batches. A batch is sent when it reaches its maximum size or when
+ * its time window, started by its first request, expires. The responses are
+ * routed back to the future of each request by {@code id}.
+ *
+ * <p>
+ * Each request is measured as if it had been sent alone: its own size and
+ * serialization time, the round trip of its batch, and the size and binding
+ * time of its own response, plus an even share of the scan of the batch.
+ */
+class MicroBatcher {
+
+	private final Transport transport;
+	private final int maxRequests;
+	private final long windowMicros;
+	private final boolean lazyResults;
+	private final JsonRpcMetrics metrics;
+	private final boolean measured;
+	private final ReentrantLock lock = new ReentrantLock();
+	private Batch current = new Batch();
+
+	/**
+	 * @param lazyResults true to keep the results as raw JSON until they are read,
+	 *                    as the client does with the responses it reads itself
+	 * @param metrics     the metrics of the client, or {@link JsonRpcMetrics#NONE}
+	 */
+	MicroBatcher(Transport transport, int maxRequests, long windowMicros, boolean lazyResults,
+			JsonRpcMetrics metrics) {
+		this.transport = transport;
+		this.maxRequests = maxRequests;
+		this.windowMicros = windowMicros;
+		this.lazyResults = lazyResults;
+		this.metrics = metrics;
+		this.measured = metrics != JsonRpcMetrics.NONE;
+	}
+
+	/**
+	 * Adds the request to the current batch. The request is serialized in the
+	 * calling thread, so that serialization errors are thrown to the caller.
+	 */
+	<R> CompletableFuture<R> submit(JsonRpcRequest request, Type responseType) throws JsonRpcException {
+		long start = measured ? System.nanoTime() : 0;
+		byte[] json = request.getJsonBytes();
+		if (measured) {
+			metrics.requestSerialized(request.getMethod(), json.length, System.nanoTime() - start);
+		}
+		Pending<R> pending = new Pending<>(request.getIdKey(), request.getMethod(), json, responseType);
+		Batch full = null;
+		Batch started = null;
+		lock.lock();
+		try {
+			if (current.ids.contains(pending.id)) {
+				// The same id twice in a batch could not be told apart
+				full = current;
+				current = new Batch();
+			}
+			current.add(pending);
+			if (current.size() >= maxRequests) {
+				full = current;
+				current = new Batch();
+			} else if (current.size() == 1) {
+				started = current;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (full != null) {
+			send(full);
+		}
+		if (started != null) {
+			Batch batch = started;
+			CompletableFuture.delayedExecutor(windowMicros, TimeUnit.MICROSECONDS).execute(() -> expire(batch));
+		}
+		return pending.future;
+	}
+
+	private void expire(Batch batch) {
+		lock.lock();
+		try {
+			if (current != batch) {
+				return;
+			}
+			current = new Batch();
+		} finally {
+			lock.unlock();
+		}
+		send(batch);
+	}
+
+	private void send(Batch batch) {
+		long start = measured ? System.nanoTime() : 0;
+		if (batch.size() == 1) {
+			Pending<?> single = batch.items.get(0);
+			WireTrace.sendAsync(transport, single.json).whenComplete((r, e) -> {
+				if (e != null) {
+					single.future.completeExceptionally(e);
+				} else {
+					received(batch, start);
+					read(single, r);
+				}
+			});
+			return;
+		}
+		byte[] json;
+		try (RequestBuffer buffer = RequestBuffer.acquire()) {
+			buffer.write('[');
+			for (int i = 0; i < batch.size(); i++) {
+				if (i > 0) {
+					buffer.write(',');
+				}
+				buffer.write(batch.items.get(i).json);
+			}
+			buffer.write(']');
+			json = buffer.toByteArray();
+		}
+		WireTrace.sendAsync(transport, json).whenComplete((r, e) -> {
+			if (e != null) {
+				batch.items.forEach(p -> p.future.completeExceptionally(e));
+			} else {
+				received(batch, start);
+				dispatch(batch, r);
+			}
+		});
+	}
+
+	/**
+	 * Scans the elements of the batch and binds each one straight to the type of
+	 * its request, so that no generic tree of the results is built first.
+	 */
+	private void dispatch(Batch batch, InputStream input) {
+		long start = measured ? System.nanoTime() : 0;
+		List<RawJson> responses;
+		List<Map<String, RawJson>> fields;
+		Map<Object, Integer> byId;
+		JsonRpcResponseError batchError = null;
+		// The elements are slices of these bytes, so the input can be closed
+		try (input) {
+			byte[] bytes = input.readAllBytes();
+			// A server that rejects the whole batch, or does not support batches, may
+			// answer with a single error
+			responses = isArray(bytes) ? Json.INSTANCE.api().readElements(bytes)
+					: List.of(new RawJson(bytes, 0, bytes.length));
+			fields = new ArrayList<>(responses.size());
+			byId = new HashMap<>(responses.size() * 4 / 3 + 1);
+			for (int i = 0; i < responses.size(); i++) {
+				Map<String, RawJson> f = responses.get(i).fields();
+				fields.add(f);
+				RawJson id = f.get("id");
+				if (id == null || id.isNull()) {
+					RawJson error = f.get("error");
+					batchError = error == null ? batchError : error.as(JsonRpcResponseError.class);
+				} else {
+					byId.put(idKey(id), i);
+				}
+			}
+		} catch (IOException e) {
+			batch.items.forEach(p -> p.future.completeExceptionally(e));
+			return;
+		}
+		long scanShare = measured ? (System.nanoTime() - start) / batch.size() : 0;
+		for (Pending<?> pending : batch.items) {
+			Integer i = byId.get(pending.id);
+			if (i == null) {
+				pending.future.completeExceptionally(batchError == null
+						? new JsonRpcException("No response for request id " + pending.id)
+						: new JsonRpcException(batchError));
+			} else {
+				read(pending, responses.get(i), fields.get(i), scanShare);
+			}
+		}
+	}
+
+	private void received(Batch batch, long start) {
+		if (measured) {
+			long nanos = System.nanoTime() - start;
+			batch.items.forEach(p -> metrics.responseReceived(p.method, nanos));
+		}
+	}
+
+	/**
+	 * Measured before the future is completed, so that the metrics are up to date
+	 * when the caller gets the response.
+	 */
+	private <R> void read(Pending<R> pending, RawJson response, Map<String, RawJson> fields, long scanShare) {
+		long start = measured ? System.nanoTime() : 0;
+		R bound;
+		try {
+			bound = pending.bind(response, fields, lazyResults);
+		} catch (IOException | IllegalArgumentException e) {
+			pending.future.completeExceptionally(e);
+			return;
+		}
+		if (measured) {
+			metrics.responseRead(pending.method, response.length(), scanShare + System.nanoTime() - start);
+		}
+		pending.future.complete(bound);
+	}
+
+	private <R> void read(Pending<R> single, InputStream input) {
+		long start = measured ? System.nanoTime() : 0;
+		long size = 0;
+		R bound;
+		try {
+			if (!measured) {
+				bound = single.bind(input, lazyResults);
+			} else if (input instanceof PooledInputStream) {
+				// Its size is known, and wrapping it would keep the mapper from parsing its
+				// buffer in place
+				size = input.available();
+				bound = single.bind(input, lazyResults);
+			} else {
+				CountingInputStream counted = new CountingInputStream(input);
+				bound = single.bind(counted, lazyResults);
+				size = counted.getCount();
+			}
+		} catch (IOException e) {
+			single.future.completeExceptionally(e);
+			return;
+		}
+		if (measured) {
+			metrics.responseRead(single.method, size, System.nanoTime() - start);
+		}
+		single.future.complete(bound);
+	}
+
+	private static boolean isArray(byte[] json) {
+		for (byte b : json) {
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				return b == '[';
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the id of a response as a key to match its request with
+	 * @see JsonRpcRequest#getIdKey()
+	 */
+	private static Object idKey(RawJson id) throws IOException {
+		return id.isLong() ? (Object) id.asLong() : JsonRpcRequest.idKey(id.as(String.class));
+	}
+
+	private static class Batch {
+		private final List<Pending<?>> items = new ArrayList<>();
+		private final Set<Object> ids = new HashSet<>();
+
+		void add(Pending<?> pending) {
+			items.add(pending);
+			ids.add(pending.id);
+		}
+
+		int size() {
+			return items.size();
+		}
+	}
+
+	private static class Pending<R> {
+		private final Object id;
+		private final String method;
+		private final byte[] json;
+		private final Type responseType;
+		private final CompletableFuture<R> future = new CompletableFuture<>();
+
+		Pending(Object id, String method, byte[] json, Type responseType) {
+			this.id = id;
+			this.method = method;
+			this.json = json;
+			this.responseType = responseType;
+		}
+
+		@SuppressWarnings("unchecked")
+		R bind(InputStream input, boolean lazy) throws IOException {
+			return lazy ? (R) JsonRpcResponse.lazy(input, responseType)
+					: Json.INSTANCE.api().deserialize(input, responseType);
+		}
+
+		@SuppressWarnings("unchecked")
+		R bind(RawJson response, Map<String, RawJson> fields, boolean lazy) throws IOException {
+			return lazy ? (R) JsonRpcResponse.lazy(fields, responseType) : response.as(responseType);
+		}
+	}
+}
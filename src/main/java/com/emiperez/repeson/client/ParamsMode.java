@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+package com.emiperez.repeson.client;
+
+/**
+ * How the arguments of a method of a proxy are sent as the params of its
+ * requests.
+ *
+ * @see JsonRpcMethod
+ * @since 0.6
+ */
+public enum ParamsMode {
+
+	/**
+	 * The arguments, in order, in an array.
+	 */
+	POSITIONAL,
+
+	/**
+	 * The arguments in an object, by the names of the parameters. A single
+	 * argument without a name, such as a POJO or a Map, is the object itself.
+	 */
+	NAMED
+}
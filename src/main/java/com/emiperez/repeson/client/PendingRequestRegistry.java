@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The requests in flight over a connection that multiplexes them, each waiting
+ * for the response with its JSON-RPC id. It is lock-free and meant to be shared
+ * by every caller of a transport.
+ *
+ * <p>
+ * Numeric ids, as produced by sequential {@code IdGenerator}s, are kept in an
+ * array indexed by the id itself, so neither a String nor a boxed key is
+ * created. An id whose slot is taken, and any other id, is kept in a
+ * ConcurrentHashMap.
+ *
+ * <p>
+ * A request leaves the registry when its future completes, whether with the
+ * response, a timeout, a cancellation or a failure.
+ *
+ * @param <T> the type of the responses
+ * @since 0.6
+ */
+public final class PendingRequestRegistry<T> {
+
+	static final long NOT_NUMERIC = Long.MIN_VALUE;
+
+	private final AtomicReferenceArray<Entry<T>> slots;
+	private final int mask;
+	private final ConcurrentHashMap<Object, Entry<T>> others = new ConcurrentHashMap<>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger highWaterMark = new AtomicInteger();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder cancellations = new LongAdder();
+
+	public PendingRequestRegistry() {
+		this(1024);
+	}
+
+	/**
+	 * @param numericSlots the number of numeric ids that can be kept without
+	 *                     hashing. Rounded up to a power of two, it should be
+	 *                     larger than the usual number of requests in flight.
+	 */
+	public PendingRequestRegistry(int numericSlots) {
+		if (numericSlots < 1 || numericSlots > 1 << 30) {
+			throw new IllegalArgumentException("numericSlots out of range: " + numericSlots);
+		}
+		int size = Integer.highestOneBit(numericSlots);
+		size = size < numericSlots ? size << 1 : size;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @param id the id of the request
+	 * @return the future to be completed with the response
+	 * @throws IllegalStateException if a request with the same id is in flight
+	 */
+	public CompletableFuture<T> register(String id) {
+		return register(id, null);
+	}
+
+	/**
+	 * @param id      the id of the request
+	 * @param timeout the time to wait for the response, or null to wait
+	 *                indefinitely
+	 * @return the future to be completed with the response. It fails with a
+	 *         TimeoutException if the timeout expires.
+	 * @throws IllegalStateException if a request with the same id is in flight
+	 */
+	public CompletableFuture<T> register(String id, Duration timeout) {
+		long numeric = parseNumeric(id);
+		if (numeric != NOT_NUMERIC) {
+			return register(numeric, timeout);
+		}
+		Entry<T> entry = new Entry<>(NOT_NUMERIC, id);
+		if (others.putIfAbsent(id, entry) != null) {
+			throw new IllegalStateException("A request with id " + id + " is already in flight");
+		}
+		return added(entry, timeout);
+	}
+
+	/**
+	 * @param id      the numeric id of the request
+	 * @param timeout the time to wait for the response, or null to wait
+	 *                indefinitely
+	 * @return the future to be completed with the response. It fails with a
+	 *         TimeoutException if the timeout expires.
+	 * @throws IllegalStateException if a request with the same id is in flight
+	 */
+	public CompletableFuture<T> register(long id, Duration timeout) {
+		Entry<T> entry = new Entry<>(id, null);
+		int slot = (int) id & mask;
+		// The id may have gone to the map while its slot was taken by another one that
+		// has completed since
+		if (!others.isEmpty() && others.containsKey(id)) {
+			throw new IllegalStateException("A request with id " + id + " is already in flight");
+		}
+		if (!slots.compareAndSet(slot, null, entry)) {
+			Entry<T> current = slots.get(slot);
+			if ((current != null && current.id == id) || others.putIfAbsent(id, entry) != null) {
+				throw new IllegalStateException("A request with id " + id + " is already in flight");
+			}
+		}
+		return added(entry, timeout);
+	}
+
+	/**
+	 * Completes the request with the given id, if it is in flight.
+	 *
+	 * @param id       the id of the response
+	 * @param response the response
+	 * @return true if a request was waiting for it
+	 */
+	public boolean complete(String id, T response) {
+		long numeric = parseNumeric(id);
+		if (numeric != NOT_NUMERIC) {
+			return complete(numeric, response);
+		}
+		return complete(others.get(id), response);
+	}
+
+	/**
+	 * Completes the request with the given id, if it is in flight.
+	 *
+	 * @param id       the numeric id of the response
+	 * @param response the response
+	 * @return true if a request was waiting for it
+	 */
+	public boolean complete(long id, T response) {
+		Entry<T> entry = slots.get((int) id & mask);
+		if (entry == null || entry.id != id) {
+			entry = others.get(id);
+		}
+		return complete(entry, response);
+	}
+
+	/**
+	 * Fails every request in flight, for example when the connection they were
+	 * sent over is lost.
+	 *
+	 * @param cause the exception the requests fail with
+	 * @return the number of requests failed
+	 */
+	public int failAll(Throwable cause) {
+		int failed = 0;
+		for (int i = 0; i < slots.length(); i++) {
+			Entry<T> entry = slots.get(i);
+			if (entry != null && remove(entry) && entry.future.completeExceptionally(cause)) {
+				failed++;
+			}
+		}
+		for (Entry<T> entry : others.values()) {
+			if (remove(entry) && entry.future.completeExceptionally(cause)) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Completes every request in flight, for example with an error response that
+	 * names none of them.
+	 *
+	 * @param response the supplier of the response of each request
+	 * @return the number of requests completed
+	 */
+	public int completeAll(Supplier<T> response) {
+		int completed = 0;
+		for (int i = 0; i < slots.length(); i++) {
+			Entry<T> entry = slots.get(i);
+			if (entry != null && complete(entry, response.get())) {
+				completed++;
+			}
+		}
+		for (Entry<T> entry : others.values()) {
+			if (complete(entry, response.get())) {
+				completed++;
+			}
+		}
+		return completed;
+	}
+
+	/**
+	 * @return the number of requests waiting for their response
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the highest number of requests that have been in flight at the same
+	 *         time
+	 */
+	public int getHighWaterMark() {
+		return highWaterMark.get();
+	}
+
+	/**
+	 * @return the number of requests whose timeout expired
+	 */
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	/**
+	 * @return the number of requests cancelled by their caller
+	 */
+	public long getCancellations() {
+		return cancellations.sum();
+	}
+
+	private CompletableFuture<T> added(Entry<T> entry, Duration timeout) {
+		int current = inFlight.incrementAndGet();
+		highWaterMark.accumulateAndGet(current, Math::max);
+		entry.future.whenComplete((r, e) -> removed(entry, e));
+		if (timeout != null) {
+			entry.future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		}
+		return entry.future;
+	}
+
+	/**
+	 * Removed before the future is completed, so that the callers see the request
+	 * out of the registry as soon as they get the response.
+	 */
+	private boolean complete(Entry<T> entry, T response) {
+		return entry != null && remove(entry) && entry.future.complete(response);
+	}
+
+	/**
+	 * @return true if the entry was in the registry. Only one caller removes it.
+	 */
+	private boolean remove(Entry<T> entry) {
+		boolean removed = entry.key == null && slots.compareAndSet((int) entry.id & mask, entry, null);
+		if (removed || others.remove(entry.key == null ? (Object) entry.id : entry.key, entry)) {
+			inFlight.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	private void removed(Entry<T> entry, Throwable cause) {
+		// Timed out or cancelled
+		remove(entry);
+		if (cause instanceof TimeoutException) {
+			timeouts.increment();
+		} else if (cause instanceof CancellationException) {
+			cancellations.increment();
+		}
+	}
+
+	/**
+	 * @return the value of the id if it is the canonical decimal representation of
+	 *         a number that fits in a long, else NOT_NUMERIC. "01" or "+1" are
+	 *         other ids than "1".
+	 */
+	static long parseNumeric(String id) {
+		int length = id.length();
+		int start = length > 1 && id.charAt(0) == '-' ? 1 : 0;
+		// Up to 18 digits cannot overflow
+		if (length == start || length - start > 18 || (id.charAt(start) == '0' && length - start > 1)) {
+			return NOT_NUMERIC;
+		}
+		long value = 0;
+		for (int i = start; i < length; i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9') {
+				return NOT_NUMERIC;
+			}
+			value = value * 10 + (c - '0');
+		}
+		if (start == 1 && value == 0) {
+			// "-0"
+			return NOT_NUMERIC;
+		}
+		return start == 1 ? -value : value;
+	}
+
+	private static final class Entry<T> {
+
+		private final long id;
+		private final String key;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private Entry(long id, String key) {
+			this.id = id;
+			this.key = key;
+		}
+	}
+}
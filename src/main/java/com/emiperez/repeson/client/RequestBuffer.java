@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.emiperez.repeson.transport.BufferPool;
+
+/**
+ * A growable, unsynchronized byte array where requests are serialized. Its
+ * array is taken from the shared heap {@link BufferPool} and given back when
+ * the buffer is closed, so that requests reuse a few arrays however many threads
+ * send them, unlike a buffer per thread, which virtual threads would allocate
+ * each time.
+ */
+class RequestBuffer extends OutputStream {
+
+	private ByteBuffer buffer;
+	private byte[] bytes;
+	private int count;
+
+	private RequestBuffer(int capacity) {
+		buffer = BufferPool.heap().acquire(capacity);
+		bytes = buffer.array();
+	}
+
+	/**
+	 * @return an empty buffer, to be closed once its bytes have been copied
+	 */
+	static RequestBuffer acquire() {
+		return new RequestBuffer(BufferPool.MIN_SIZE);
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		bytes[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, bytes, count, len);
+		count += len;
+	}
+
+	@Override
+	public void write(byte[] b) {
+		write(b, 0, b.length);
+	}
+
+	/**
+	 * Writes a String of ASCII characters, one byte each, without encoding it.
+	 */
+	void writeAscii(String s) {
+		int length = s.length();
+		ensureCapacity(count + length);
+		for (int i = 0; i < length; i++) {
+			bytes[count++] = (byte) s.charAt(i);
+		}
+	}
+
+	/**
+	 * Writes the decimal digits of a number, without creating a String.
+	 */
+	void writeLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			writeAscii(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			write('-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value; rest >= 10; rest /= 10) {
+			digits++;
+		}
+		ensureCapacity(count + digits);
+		count += digits;
+		for (int i = count - 1; i >= count - digits; i--) {
+			bytes[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * The bytes are copied, as a request outlives the buffer: a retry or a hedge
+	 * sends it again, and a cancelled HttpClient exchange may still be reading
+	 * its body when the request is given up, so the array could not go back to
+	 * the pool then.
+	 *
+	 * @return a copy of the bytes written since the buffer was acquired
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(bytes, count);
+	}
+
+	/**
+	 * Gives the array back to the pool. The buffer must not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		if (buffer != null) {
+			BufferPool.heap().release(buffer);
+			buffer = null;
+			bytes = null;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			ByteBuffer larger = BufferPool.heap().acquire(Math.max(capacity, bytes.length << 1));
+			System.arraycopy(bytes, 0, larger.array(), 0, count);
+			BufferPool.heap().release(buffer);
+			buffer = larger;
+			bytes = larger.array();
+		}
+	}
+}
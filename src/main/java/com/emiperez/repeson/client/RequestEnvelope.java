@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+package com.emiperez.repeson.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.emiperez.commons.json.apiselector.Json;
+
+/**
+ * The constant parts of the requests of a method, encoded once: everything but
+ * the id and the params. A request is written as
+ * 
+ * <pre>
+ * {"jsonrpc":"2.0","id":  id  ,"method":"name","params":  params  }
+ * </pre>
+ * 
+ * so that writing its envelope takes a few array copies, with no formatting and
+ * no charset encoding. The envelopes are kept for the first
+ * {@value #MAX_METHODS} methods of each version; the rest are encoded on each
+ * request.
+ */
+final class RequestEnvelope {
+
+	private static final int MAX_METHODS = 1024;
+	private static final Map<JsonRpcVersion, ConcurrentHashMap<String, RequestEnvelope>> ENVELOPES = new EnumMap<>(
+			JsonRpcVersion.class);
+
+	static {
+		for (JsonRpcVersion version : JsonRpcVersion.values()) {
+			ENVELOPES.put(version, new ConcurrentHashMap<>());
+		}
+	}
+
+	// {"jsonrpc":"2.0","id":
+	private final byte[] head;
+	// ,"method":"name","params":
+	private final byte[] methodAndParams;
+	// ,"method":"name"}
+	private final byte[] methodOnly;
+
+	private RequestEnvelope(JsonRpcVersion version, String method) throws JsonRpcException {
+		head = ("{\"jsonrpc\":\"" + version + "\",\"id\":").getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream name = new ByteArrayOutputStream();
+		Json.INSTANCE.api().serialize(method, name);
+		String field = ",\"method\":" + name.toString(StandardCharsets.UTF_8);
+		methodAndParams = (field + ",\"params\":").getBytes(StandardCharsets.UTF_8);
+		methodOnly = (field + "}").getBytes(StandardCharsets.UTF_8);
+	}
+
+	static RequestEnvelope of(JsonRpcVersion version, String method) throws JsonRpcException {
+		if (method == null) {
+			return new RequestEnvelope(version, null);
+		}
+		ConcurrentHashMap<String, RequestEnvelope> envelopes = ENVELOPES.get(version);
+		RequestEnvelope envelope = envelopes.get(method);
+		if (envelope == null) {
+			envelope = new RequestEnvelope(version, method);
+			if (envelopes.size() < MAX_METHODS) {
+				RequestEnvelope previous = envelopes.putIfAbsent(method, envelope);
+				if (previous != null) {
+					envelope = previous;
+				}
+			}
+		}
+		return envelope;
+	}
+
+	/**
+	 * Writes everything up to the id.
+	 */
+	void writeHead(OutputStream out) throws IOException {
+		out.write(head);
+	}
+
+	/**
+	 * Writes everything after the id, up to the params, or to the end if there are
+	 * none, in which case nothing else must be written.
+	 */
+	void writeMethod(OutputStream out, boolean hasParams) throws IOException {
+		out.write(hasParams ? methodAndParams : methodOnly);
+	}
+
+	/**
+	 * Writes a String id. The ids that need no escaping, such as numbers or UUIDs,
+	 * are copied as they are.
+	 */
+	static void writeId(String id, OutputStream out) throws IOException, JsonRpcException {
+		if (id == null || !isPlainAscii(id)) {
+			Json.INSTANCE.api().serialize(id, out);
+			return;
+		}
+		out.write('"');
+		if (out instanceof RequestBuffer) {
+			((RequestBuffer) out).writeAscii(id);
+		} else {
+			out.write(id.getBytes(StandardCharsets.US_ASCII));
+		}
+		out.write('"');
+	}
+
+	/**
+	 * Writes a numeric id, as a JSON number.
+	 */
+	static void writeId(long id, OutputStream out) throws IOException {
+		if (out instanceof RequestBuffer) {
+			((RequestBuffer) out).writeLong(id);
+		} else {
+			out.write(Long.toString(id).getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	private static boolean isPlainAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x20 || c > 0x7e || c == '"' || c == '\\') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
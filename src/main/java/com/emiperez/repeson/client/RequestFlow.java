@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Sends the requests of a Publisher and publishes their responses, in the order
+ * they arrive. Each subscriber subscribes to the requests on its own.
+ *
+ * <p>
+ * A request is only asked from the Publisher of requests when there is room
+ * for it: at most {@code maxInFlight} requests are sent and not answered, or
+ * answered and not delivered to the subscriber, so memory use is bounded
+ * whatever the pace of the producer and the consumer. A request that fails
+ * fails the flow.
+ *
+ * @param <R> the type of the responses
+ */
+final class RequestFlow<R> implements Flow.Publisher<R> {
+
+	private final Flow.Publisher<JsonRpcRequest> requests;
+	private final Function<JsonRpcRequest, CompletableFuture<R>> send;
+	private final int maxInFlight;
+
+	RequestFlow(Flow.Publisher<JsonRpcRequest> requests, Function<JsonRpcRequest, CompletableFuture<R>> send,
+			int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		}
+		this.requests = requests;
+		this.send = send;
+		this.maxInFlight = maxInFlight;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super R> subscriber) {
+		Exchange exchange = new Exchange(subscriber);
+		subscriber.onSubscribe(exchange);
+		requests.subscribe(exchange);
+	}
+
+	/**
+	 * Subscribed to the requests, and subscription of the responses. The signals
+	 * to the subscriber are serialized by a drain loop.
+	 */
+	private final class Exchange implements Flow.Subscriber<JsonRpcRequest>, Flow.Subscription {
+
+		private final Flow.Subscriber<? super R> subscriber;
+		private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+		private final Queue<R> ready = new ConcurrentLinkedQueue<>();
+		private final AtomicLong demand = new AtomicLong();
+		// The requests sent and not answered
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger wip = new AtomicInteger();
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+		private volatile boolean requestsDone;
+		private volatile boolean cancelled;
+		// Only accessed in the drain loop
+		private boolean terminated;
+
+		private Exchange(Flow.Subscriber<? super R> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			if (!upstream.compareAndSet(null, subscription) || cancelled) {
+				subscription.cancel();
+				return;
+			}
+			subscription.request(maxInFlight);
+		}
+
+		@Override
+		public void onNext(JsonRpcRequest request) {
+			if (cancelled || failure.get() != null) {
+				return;
+			}
+			inFlight.incrementAndGet();
+			CompletableFuture<R> response;
+			try {
+				response = send.apply(request);
+			} catch (RuntimeException e) {
+				response = CompletableFuture.failedFuture(e);
+			}
+			response.whenComplete((r, e) -> {
+				if (e != null) {
+					fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+				} else {
+					ready.add(r);
+				}
+				inFlight.decrementAndGet();
+				drain();
+			});
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			fail(throwable);
+			drain();
+		}
+
+		@Override
+		public void onComplete() {
+			requestsDone = true;
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				onError(new IllegalArgumentException("Non-positive request: " + n));
+				return;
+			}
+			demand.accumulateAndGet(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			cancelUpstream();
+			drain();
+		}
+
+		private void fail(Throwable e) {
+			if (failure.compareAndSet(null, e)) {
+				cancelUpstream();
+			}
+		}
+
+		private void cancelUpstream() {
+			Flow.Subscription subscription = upstream.getAndSet(CANCELLED);
+			if (subscription != null && subscription != CANCELLED) {
+				subscription.cancel();
+			}
+		}
+
+		private void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				if (terminated || cancelled) {
+					ready.clear();
+				} else if (failure.get() != null) {
+					terminated = true;
+					ready.clear();
+					subscriber.onError(failure.get());
+				} else {
+					long requested = demand.get();
+					long emitted = 0;
+					R response;
+					while (emitted != requested && (response = ready.poll()) != null) {
+						subscriber.onNext(response);
+						emitted++;
+					}
+					if (emitted > 0) {
+						if (requested != Long.MAX_VALUE) {
+							demand.addAndGet(-emitted);
+						}
+						// The delivered responses leave room for as many requests
+						Flow.Subscription subscription = upstream.get();
+						if (subscription != null && subscription != CANCELLED) {
+							subscription.request(emitted);
+						}
+					}
+					if (requestsDone && inFlight.get() == 0 && ready.isEmpty() && failure.get() == null) {
+						terminated = true;
+						subscriber.onComplete();
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	}
+
+	private static final Flow.Subscription CANCELLED = new Flow.Subscription() {
+		@Override
+		public void request(long n) {
+		}
+
+		@Override
+		public void cancel() {
+		}
+	};
+}
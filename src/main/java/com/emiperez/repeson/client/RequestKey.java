@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import com.emiperez.commons.json.apiselector.Json;
+
+/**
+ * Identifies the requests that have the same effect: the same method and the
+ * same params, whatever the order of their fields or the whitespace.
+ */
+final class RequestKey {
+
+	private final String method;
+	private final byte[] params;
+	private final int hash;
+
+	private RequestKey(String method, byte[] params) {
+		this.method = method;
+		this.params = params;
+		this.hash = 31 * method.hashCode() + Arrays.hashCode(params);
+	}
+
+	static RequestKey of(JsonRpcRequest request) throws JsonRpcException {
+		if (request.getParams() == null) {
+			return new RequestKey(request.getMethod(), new byte[0]);
+		}
+		try (RequestBuffer buffer = RequestBuffer.acquire()) {
+			request.writeParams(buffer);
+			return new RequestKey(request.getMethod(),
+					Json.INSTANCE.api().canonicalize(buffer.toByteArray()));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return the approximate number of bytes the key takes
+	 */
+	int size() {
+		return method.length() + params.length;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof RequestKey)) {
+			return false;
+		}
+		RequestKey other = (RequestKey) o;
+		return hash == other.hash && method.equals(other.method) && Arrays.equals(params, other.params);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.emiperez.commons.json.apiselector.Json;
+import com.emiperez.commons.json.apiselector.RawJson;
+
+/**
+ * Keeps the responses of idempotent methods, so that a request equal to a
+ * previous one, same method and same params, is answered without using the
+ * {@link com.emiperez.repeson.transport.Transport Transport}. The params are
+ * compared as JSON values: the order of the fields does not matter.
+ *
+ * <p>
+ * Only the methods configured in the {@link Builder} are cached, each with its
+ * own time to live. Responses with an error are not cached. The responses are
+ * kept as the bytes received, and the least recently used are evicted when the
+ * maximum number of entries or bytes is exceeded.
+ *
+ * <pre>
+ * {@code
+ * ResponseCache cache = ResponseCache.builder()
+ *                         .method("getblock", Duration.ofMinutes(10))
+ *                         .method("getchainconstants")
+ *                         .maximumBytes(64 * 1024 * 1024)
+ *                         .build();
+ * JsonRpcClient client = JsonRpcClient.builder().transport(transport).responseCache(cache).build();
+ * }
+ * </pre>
+ *
+ * @since 0.6
+ */
+public final class ResponseCache {
+
+	private static final long NEVER = Long.MAX_VALUE;
+
+	private final Map<String, Long> timeToLiveNanos;
+	private final long maximumSize;
+	private final long maximumBytes;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// Guarded by lock. In access order, the least recently used first
+	private final LinkedHashMap<RequestKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	// Guarded by lock
+	private long bytes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public static class Builder {
+
+		private final Map<String, Long> timeToLiveNanos = new HashMap<>();
+		private long maximumSize = 10_000;
+		private long maximumBytes = Long.MAX_VALUE;
+
+		private Builder() {
+		}
+
+		/**
+		 * Caches the responses of the method until they are evicted.
+		 *
+		 * @param method the name of an idempotent method
+		 * @return the Builder
+		 */
+		public Builder method(String method) {
+			timeToLiveNanos.put(method, NEVER);
+			return this;
+		}
+
+		/**
+		 * Caches the responses of the method for the given time.
+		 *
+		 * @param method     the name of an idempotent method
+		 * @param timeToLive the time each response is kept
+		 * @return the Builder
+		 */
+		public Builder method(String method, Duration timeToLive) {
+			timeToLiveNanos.put(method, timeToLive.toNanos());
+			return this;
+		}
+
+		/**
+		 * @param maximumSize the maximum number of responses kept. The default is
+		 *                    10000.
+		 * @return the Builder
+		 */
+		public Builder maximumSize(long maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		/**
+		 * @param maximumBytes the maximum number of bytes of the responses and their
+		 *                     keys. Unbounded by default.
+		 * @return the Builder
+		 */
+		public Builder maximumBytes(long maximumBytes) {
+			this.maximumBytes = maximumBytes;
+			return this;
+		}
+
+		public ResponseCache build() {
+			return new ResponseCache(this);
+		}
+	}
+
+	private ResponseCache(Builder builder) {
+		this.timeToLiveNanos = Map.copyOf(builder.timeToLiveNanos);
+		this.maximumSize = builder.maximumSize;
+		this.maximumBytes = builder.maximumBytes;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param method the name of a method
+	 * @return true if the responses of the method are cached
+	 */
+	boolean isCached(String method) {
+		return timeToLiveNanos.containsKey(method);
+	}
+
+	/**
+	 * @return the bytes of the response, or null if there is none or it expired
+	 */
+	byte[] get(RequestKey key) {
+		Entry entry;
+		lock.lock();
+		try {
+			entry = entries.get(key);
+			if (entry != null && System.nanoTime() - entry.expiresAt > 0) {
+				remove(key);
+				evictions.increment();
+				entry = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.response;
+	}
+
+	/**
+	 * Keeps the response if it has no error.
+	 */
+	void put(RequestKey key, byte[] response) {
+		try {
+			RawJson error = Json.INSTANCE.api().readFields(response).get("error");
+			if (error != null && !error.isNull()) {
+				return;
+			}
+		} catch (IOException e) {
+			return;
+		}
+		long timeToLive = timeToLiveNanos.get(key.getMethod());
+		long now = System.nanoTime();
+		Entry entry = new Entry(response, key.size() + response.length,
+				timeToLive == NEVER ? now + (Long.MAX_VALUE >> 1) : now + timeToLive);
+		lock.lock();
+		try {
+			remove(key);
+			entries.put(key, entry);
+			bytes += entry.size;
+			Iterator<Entry> eldest = entries.values().iterator();
+			while ((entries.size() > maximumSize || bytes > maximumBytes) && eldest.hasNext()) {
+				bytes -= eldest.next().size;
+				eldest.remove();
+				evictions.increment();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes every response.
+	 */
+	public void invalidateAll() {
+		lock.lock();
+		try {
+			entries.clear();
+			bytes = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of responses kept
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of requests of cached methods that had to be sent
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of responses removed because they expired or to make
+	 *         room for others
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the fraction of the requests of cached methods answered from the
+	 *         cache, or 0 if there has been none
+	 */
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	// Guarded by lock
+	private void remove(RequestKey key) {
+		Entry removed = entries.remove(key);
+		if (removed != null) {
+			bytes -= removed.size;
+		}
+	}
+
+	private static final class Entry {
+
+		private final byte[] response;
+		private final long size;
+		private final long expiresAt;
+
+		private Entry(byte[] response, long size, long expiresAt) {
+			this.response = response;
+			this.size = size;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
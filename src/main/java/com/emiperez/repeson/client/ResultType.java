@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+
+/**
+ * The type of the result of a JSON-RPC response, generics included. It avoids
+ * declaring a subclass of {@link JsonRpcResponse} to prevent the Type Erasure.
+ *
+ * <p>
+ * If the type uses generics, it is captured by an anonymous subclass:
+ *
+ * <pre>
+ * {@code
+ * ResultType<List<Customer>> customers = new ResultType<List<Customer>>() {};
+ * JsonRpcResponse<List<Customer>> r = jsonRpcClient.send(request, customers);
+ * }
+ * </pre>
+ *
+ * Otherwise, it can be obtained with {@link ResultType#of(Class)}. Instances
+ * are immutable and meant to be kept in constants and reused.
+ *
+ * @param <T> the type of the result
+ * @since 0.6
+ */
+public abstract class ResultType<T> {
+
+	private final Type type;
+	private final Type responseType;
+
+	/**
+	 * Captures the type argument of the anonymous subclass being instantiated.
+	 */
+	protected ResultType() {
+		Type superclass = getClass().getGenericSuperclass();
+		if (!(superclass instanceof ParameterizedType)) {
+			throw new IllegalArgumentException("ResultType must be created with its actual type argument");
+		}
+		this.type = ((ParameterizedType) superclass).getActualTypeArguments()[0];
+		this.responseType = new ResponseType(type);
+	}
+
+	private ResultType(Type type) {
+		this.type = type;
+		this.responseType = new ResponseType(type);
+	}
+
+	/**
+	 * @param <T>  the type of the result
+	 * @param type the class of the result
+	 * @return the ResultType of the given class
+	 */
+	public static <T> ResultType<T> of(Class<T> type) {
+		return new ResultType<T>(type) {
+		};
+	}
+
+	/**
+	 * @param <T>  the type of the result
+	 * @param type the type of the result, usually obtained by reflection
+	 * @return the ResultType of the given type
+	 */
+	public static <T> ResultType<T> of(Type type) {
+		return new ResultType<T>(type) {
+		};
+	}
+
+	/**
+	 * @return the type of the result
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the type {@code JsonRpcResponse<T>}
+	 */
+	Type getResponseType() {
+		return responseType;
+	}
+
+	@Override
+	public String toString() {
+		return type.getTypeName();
+	}
+
+	/**
+	 * {@code JsonRpcResponse<T>}, with equals and hashCode so that it can be a
+	 * cache key.
+	 */
+	private static class ResponseType implements ParameterizedType {
+
+		private final Type[] arguments;
+
+		ResponseType(Type result) {
+			this.arguments = new Type[] { result };
+		}
+
+		@Override
+		public Type[] getActualTypeArguments() {
+			return arguments.clone();
+		}
+
+		@Override
+		public Type getRawType() {
+			return JsonRpcResponse.class;
+		}
+
+		@Override
+		public Type getOwnerType() {
+			return null;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ParameterizedType)) {
+				return false;
+			}
+			ParameterizedType other = (ParameterizedType) o;
+			return other.getRawType() == JsonRpcResponse.class && other.getOwnerType() == null
+					&& Arrays.equals(arguments, other.getActualTypeArguments());
+		}
+
+		@Override
+		public int hashCode() {
+			// Same as the JDK's ParameterizedType implementation
+			return Arrays.hashCode(arguments) ^ JsonRpcResponse.class.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return JsonRpcResponse.class.getName() + "<" + arguments[0].getTypeName() + ">";
+		}
+	}
+}
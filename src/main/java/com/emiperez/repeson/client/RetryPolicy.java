@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * The deadline and the retries of the requests of a method. It is set for each
+ * method in the {@link JsonRpcClient.JsonRpcClientBuilder#retryPolicy(String,
+ * RetryPolicy) JsonRpcClient builder}, and can be shared by several methods.
+ *
+ * <p>
+ * A request is retried when the {@link com.emiperez.repeson.transport.Transport
+ * Transport} fails, its response cannot be read or an attempt times out, which
+ * can be turned off for methods that are not idempotent, or when the response
+ * has an error with one of the given codes. The retries wait an exponential
+ * backoff with full jitter, without blocking any thread, and are limited by a
+ * budget, a fraction of the requests sent, so that they cannot overload a
+ * server that is failing.
+ *
+ * <pre>
+ * {@code
+ * RetryPolicy retry = RetryPolicy.builder()
+ *                         .deadline(Duration.ofSeconds(5))
+ *                         .attemptTimeout(Duration.ofSeconds(1))
+ *                         .maxAttempts(4)
+ *                         .retryOnErrorCodes(-32000)
+ *                         .build();
+ * JsonRpcClient client = JsonRpcClient.builder().transport(transport).retryPolicy("getblock", retry).build();
+ * }
+ * </pre>
+ *
+ * @since 0.6
+ */
+public final class RetryPolicy {
+
+	private static final long TOKEN = 1_000_000;
+
+	private final Duration deadline;
+	private final Duration attemptTimeout;
+	private final int maxAttempts;
+	private final long initialBackoffNanos;
+	private final long maxBackoffNanos;
+	private final boolean retryOnTransportFailure;
+	private final Set<Integer> retryableErrorCodes;
+	private final long tokensPerRequest;
+	private final long maximumTokens;
+
+	private final AtomicLong tokens;
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder budgetExhausted = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	public static class Builder {
+
+		private Duration deadline;
+		private Duration attemptTimeout;
+		private int maxAttempts = 3;
+		private Duration initialBackoff = Duration.ofMillis(100);
+		private Duration maxBackoff = Duration.ofSeconds(5);
+		private boolean retryOnTransportFailure = true;
+		private Set<Integer> retryableErrorCodes = Set.of();
+		private double budget = 0.1;
+		private int maximumBurst = 10;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param deadline the time to get the response, retries included. The
+		 *                 request fails with a TimeoutException when it expires. None
+		 *                 by default.
+		 * @return the Builder
+		 */
+		public Builder deadline(Duration deadline) {
+			this.deadline = deadline;
+			return this;
+		}
+
+		/**
+		 * @param attemptTimeout the time to wait for the response of each attempt.
+		 *                       None by default.
+		 * @return the Builder
+		 */
+		public Builder attemptTimeout(Duration attemptTimeout) {
+			this.attemptTimeout = attemptTimeout;
+			return this;
+		}
+
+		/**
+		 * @param maxAttempts the number of times the request is sent at most, the
+		 *                    first one included. The default is 3.
+		 * @return the Builder
+		 */
+		public Builder maxAttempts(int maxAttempts) {
+			if (maxAttempts < 1) {
+				throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+			}
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		/**
+		 * The wait before each retry is random, up to the double of the previous
+		 * maximum. The defaults are 100 milliseconds and 5 seconds.
+		 *
+		 * @param initial the maximum wait before the first retry
+		 * @param max     the maximum wait before any retry
+		 * @return the Builder
+		 */
+		public Builder backoff(Duration initial, Duration max) {
+			this.initialBackoff = initial;
+			this.maxBackoff = max;
+			return this;
+		}
+
+		/**
+		 * @param retryOnTransportFailure whether the request is retried when the
+		 *                                Transport fails, its response cannot be
+		 *                                parsed or an attempt times out. A response
+		 *                                that cannot be bound to the result type is
+		 *                                never retried. The request may have
+		 *                                reached the server, so it must be false for
+		 *                                methods that are not idempotent. True by
+		 *                                default.
+		 * @return the Builder
+		 */
+		public Builder retryOnTransportFailure(boolean retryOnTransportFailure) {
+			this.retryOnTransportFailure = retryOnTransportFailure;
+			return this;
+		}
+
+		/**
+		 * @param codes the codes of the JSON-RPC errors that are retried. None by
+		 *              default.
+		 * @return the Builder
+		 */
+		public Builder retryOnErrorCodes(int... codes) {
+			this.retryableErrorCodes = Arrays.stream(codes).boxed().collect(Collectors.toUnmodifiableSet());
+			return this;
+		}
+
+		/**
+		 * @param budget       the maximum number of retries, as a fraction of the
+		 *                     requests sent. The default is 0.1.
+		 * @param maximumBurst the number of retries that can be sent in a row when
+		 *                     the budget has been saved. The default is 10.
+		 * @return the Builder
+		 */
+		public Builder budget(double budget, int maximumBurst) {
+			if (!(budget >= 0) || maximumBurst < 1) {
+				throw new IllegalArgumentException("Invalid budget: " + budget + ", " + maximumBurst);
+			}
+			this.budget = budget;
+			this.maximumBurst = maximumBurst;
+			return this;
+		}
+
+		public RetryPolicy build() {
+			return new RetryPolicy(this);
+		}
+	}
+
+	private RetryPolicy(Builder builder) {
+		this.deadline = builder.deadline;
+		this.attemptTimeout = builder.attemptTimeout;
+		this.maxAttempts = builder.maxAttempts;
+		this.initialBackoffNanos = builder.initialBackoff.toNanos();
+		this.maxBackoffNanos = builder.maxBackoff.toNanos();
+		this.retryOnTransportFailure = builder.retryOnTransportFailure;
+		this.retryableErrorCodes = builder.retryableErrorCodes;
+		this.tokensPerRequest = (long) (builder.budget * TOKEN);
+		this.maximumTokens = builder.maximumBurst * TOKEN;
+		this.tokens = new AtomicLong(maximumTokens);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Runs the attempts until one succeeds, is not retryable, or the attempts, the
+	 * deadline or the budget are exhausted.
+	 *
+	 * @param first   the first attempt, already sent
+	 * @param attempt sends the request again each time it is called
+	 * @return the response of the last attempt. Cancelling it cancels the attempt
+	 *         in flight.
+	 */
+	<R> CompletableFuture<R> execute(CompletableFuture<R> first, Supplier<CompletableFuture<R>> attempt) {
+		deposit();
+		CompletableFuture<R> result = new CompletableFuture<>();
+		AtomicReference<CompletableFuture<R>> current = new AtomicReference<>();
+		long deadlineAt = deadline == null ? 0 : System.nanoTime() + deadline.toNanos();
+		if (deadline != null) {
+			CompletableFuture.delayedExecutor(deadline.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+				if (!result.isDone()) {
+					timeouts.increment();
+					result.completeExceptionally(new TimeoutException("Deadline of " + deadline + " expired"));
+				}
+			});
+		}
+		result.whenComplete((r, e) -> {
+			CompletableFuture<R> inFlight = current.get();
+			if (e != null && inFlight != null) {
+				inFlight.cancel(true);
+			}
+		});
+		attempted(result, current, first, attempt, 1, deadlineAt);
+		return result;
+	}
+
+	private <R> void attempted(CompletableFuture<R> result, AtomicReference<CompletableFuture<R>> current,
+			CompletableFuture<R> sent, Supplier<CompletableFuture<R>> attempt, int attempts, long deadlineAt) {
+		// The client cancels the request in the Transport when its attempt times out,
+		// so that a multiplexed Transport frees the id for the retry
+		CompletableFuture<R> timed = attemptTimeout == null ? sent
+				: sent.orTimeout(attemptTimeout.toNanos(), TimeUnit.NANOSECONDS);
+		current.set(timed);
+		if (result.isDone()) {
+			timed.cancel(true);
+			return;
+		}
+		timed.whenComplete((r, e) -> {
+			if (result.isDone()) {
+				return;
+			}
+			Throwable cause = unwrap(e);
+			if (cause instanceof TimeoutException) {
+				timeouts.increment();
+			}
+			boolean retryable = e == null ? isRetryable(r) : isRetryable(cause);
+			long backoff = backoffNanos(attempts);
+			if (!retryable || attempts >= maxAttempts
+					|| (deadlineAt != 0 && System.nanoTime() + backoff - deadlineAt >= 0)) {
+				complete(result, r, e);
+			} else if (!withdraw()) {
+				budgetExhausted.increment();
+				complete(result, r, e);
+			} else {
+				retries.increment();
+				CompletableFuture.delayedExecutor(backoff, TimeUnit.NANOSECONDS).execute(() -> {
+					if (!result.isDone()) {
+						attempted(result, current, send(attempt), attempt, attempts + 1, deadlineAt);
+					}
+				});
+			}
+		});
+	}
+
+	private static <R> CompletableFuture<R> send(Supplier<CompletableFuture<R>> attempt) {
+		try {
+			return attempt.get();
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private static <R> void complete(CompletableFuture<R> result, R response, Throwable e) {
+		if (e == null) {
+			result.complete(response);
+		} else {
+			result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+		}
+	}
+
+	/**
+	 * A failure of the Transport, an unreadable response, as the body of an HTTP
+	 * 503, or a timeout, but never a request that could not be serialized.
+	 */
+	private boolean isRetryable(Throwable cause) {
+		if (cause instanceof JsonRpcException || cause instanceof CancellationException) {
+			return false;
+		}
+		if (cause instanceof JsonProcessingException) {
+			// A response cut short is retried, one that cannot be bound is not
+			return retryOnTransportFailure && cause instanceof JsonParseException;
+		}
+		return retryOnTransportFailure && (cause instanceof IOException || cause instanceof TimeoutException);
+	}
+
+	private boolean isRetryable(Object response) {
+		if (retryableErrorCodes.isEmpty() || !(response instanceof JsonRpcResponse)) {
+			return false;
+		}
+		JsonRpcResponse<?> r = (JsonRpcResponse<?>) response;
+		return r.hasError() && retryableErrorCodes.contains(r.getError().getCode());
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		while ((e instanceof CompletionException || e instanceof UncheckedIOException) && e.getCause() != null) {
+			e = e.getCause();
+		}
+		return e;
+	}
+
+	/**
+	 * @return a random wait up to the exponential backoff of the attempt (full
+	 *         jitter)
+	 */
+	private long backoffNanos(int attempts) {
+		long ceiling = initialBackoffNanos << Math.min(attempts - 1, 30);
+		if (ceiling <= 0 || ceiling > maxBackoffNanos) {
+			ceiling = maxBackoffNanos;
+		}
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	private void deposit() {
+		tokens.accumulateAndGet(tokensPerRequest, (current, add) -> Math.min(current + add, maximumTokens));
+	}
+
+	private boolean withdraw() {
+		long current;
+		do {
+			current = tokens.get();
+			if (current < TOKEN) {
+				return false;
+			}
+		} while (!tokens.compareAndSet(current, current - TOKEN));
+		return true;
+	}
+
+	/**
+	 * @return the number of attempts sent after the first one
+	 */
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	/**
+	 * @return the number of retries not sent because the budget was exhausted
+	 */
+	public long getBudgetExhausted() {
+		return budgetExhausted.sum();
+	}
+
+	/**
+	 * @return the number of attempts and deadlines that timed out
+	 */
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+package com.emiperez.repeson.client;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The handler of the proxies of {@link JsonRpcClient#proxy(Class)}. Everything
+ * that depends only on the method of the interface, its JSON-RPC name, the way
+ * its arguments become params and the type its response is read as, is
+ * resolved once in a {@link Stub}, when the proxy is created, so a call only
+ * builds its params and sends them.
+ */
+final class RpcProxy implements InvocationHandler {
+
+	private final JsonRpcClient client;
+	private final Class<?> api;
+	private final Map<Method, Stub> stubs;
+	private final Map<Method, MethodHandle> defaultMethods = new HashMap<>();
+
+	private RpcProxy(JsonRpcClient client, Class<?> api) {
+		this.client = client;
+		this.api = api;
+		Map<Method, Stub> stubs = new HashMap<>();
+		for (Method method : api.getMethods()) {
+			if (Modifier.isAbstract(method.getModifiers())) {
+				stubs.put(method, new Stub(method));
+			}
+		}
+		this.stubs = Map.copyOf(stubs);
+	}
+
+	static <T> T create(JsonRpcClient client, Class<T> api) {
+		if (!api.isInterface()) {
+			throw new IllegalArgumentException(api.getName() + " is not an interface");
+		}
+		RpcProxy handler = new RpcProxy(client, api);
+		T proxy = api.cast(Proxy.newProxyInstance(api.getClassLoader(), new Class<?>[] { api }, handler));
+		for (Method method : api.getMethods()) {
+			if (method.isDefault()) {
+				handler.defaultMethods.put(method, defaultMethod(api, method).bindTo(proxy));
+			}
+		}
+		return proxy;
+	}
+
+	private static MethodHandle defaultMethod(Class<?> api, Method method) {
+		try {
+			return MethodHandles.privateLookupIn(api, MethodHandles.lookup()).unreflectSpecial(method, api);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Cannot call the default method " + method, e);
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Stub stub = stubs.get(method);
+		if (stub != null) {
+			return stub.invoke(args);
+		}
+		MethodHandle defaultMethod = defaultMethods.get(method);
+		if (defaultMethod != null) {
+			return defaultMethod.invokeWithArguments(args == null ? new Object[0] : args);
+		}
+		switch (method.getName()) {
+		case "equals":
+			return proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "toString":
+			return "JsonRpcClient proxy of " + api.getName();
+		default:
+			throw new UnsupportedOperationException(method.toString());
+		}
+	}
+
+	/**
+	 * What a method of the interface returns.
+	 */
+	private enum Returns {
+		RESULT, RESPONSE, NOTHING, FUTURE_RESULT, FUTURE_RESPONSE
+	}
+
+	/**
+	 * A method of the interface, resolved.
+	 */
+	private final class Stub {
+
+		private final String name;
+		private final ParamsMode paramsMode;
+		// The names of the params, if they are named one by one
+		private final String[] paramNames;
+		private final Type responseType;
+		private final Returns returns;
+		// The return type if it is a primitive, which a null result cannot be
+		private final Class<?> primitive;
+
+		private Stub(Method method) {
+			JsonRpcMethod annotation = method.getAnnotation(JsonRpcMethod.class);
+			name = annotation == null || annotation.value().isEmpty() ? method.getName() : annotation.value();
+			paramsMode = annotation == null ? ParamsMode.POSITIONAL : annotation.params();
+			paramNames = paramsMode == ParamsMode.NAMED ? paramNames(method) : null;
+
+			Type type = method.getGenericReturnType();
+			boolean async = rawType(type) == CompletableFuture.class || rawType(type) == CompletionStage.class;
+			if (async) {
+				type = typeArgument(type, method);
+			}
+			boolean response = rawType(type) == JsonRpcResponse.class;
+			if (response) {
+				type = typeArgument(type, method);
+			}
+			if (type == void.class || type == Void.class) {
+				returns = async ? Returns.FUTURE_RESULT : Returns.NOTHING;
+				type = Object.class;
+			} else if (async) {
+				returns = response ? Returns.FUTURE_RESPONSE : Returns.FUTURE_RESULT;
+			} else {
+				returns = response ? Returns.RESPONSE : Returns.RESULT;
+			}
+			primitive = returns == Returns.RESULT && type instanceof Class && ((Class<?>) type).isPrimitive()
+					? (Class<?>) type
+					: null;
+			responseType = ResultType.of(boxed(type)).getResponseType();
+		}
+
+		private Object invoke(Object[] args) throws Exception {
+			JsonRpcRequest request = client.buildRequest(name, params(args), true);
+			switch (returns) {
+			case FUTURE_RESPONSE:
+				return client.sendAsyncForType(request, responseType);
+			case FUTURE_RESULT:
+				return client.<JsonRpcResponse<?>>sendAsyncForType(request, responseType).thenApply(r -> {
+					if (r.hasError()) {
+						throw new CompletionException(new JsonRpcException(r.getError()));
+					}
+					return r.getResult();
+				});
+			case RESPONSE:
+				return client.sendForType(request, responseType);
+			default:
+				JsonRpcResponse<?> response = client.sendForType(request, responseType);
+				if (response.hasError()) {
+					throw new JsonRpcException(response.getError());
+				}
+				if (returns == Returns.NOTHING) {
+					return null;
+				}
+				Object result = response.getResult();
+				if (result == null && primitive != null) {
+					throw new JsonRpcException(
+							"The result of " + name + " is null, which cannot be returned as " + primitive);
+				}
+				return result;
+			}
+		}
+
+		/**
+		 * The params are serialized as they are: a List becomes an array and a Map
+		 * or a POJO an object.
+		 */
+		private Object params(Object[] args) {
+			if (args == null || args.length == 0) {
+				return null;
+			}
+			if (paramsMode == ParamsMode.POSITIONAL) {
+				return Arrays.asList(args);
+			}
+			if (paramNames == null) {
+				return args[0];
+			}
+			Map<String, Object> params = new LinkedHashMap<>(args.length * 4 / 3 + 1);
+			for (int i = 0; i < args.length; i++) {
+				params.put(paramNames[i], args[i]);
+			}
+			return params;
+		}
+	}
+
+	/**
+	 * @return the names of the params, or null if the single argument is the
+	 *         params object
+	 */
+	private static String[] paramNames(Method method) {
+		Parameter[] parameters = method.getParameters();
+		if (parameters.length == 1 && !parameters[0].isAnnotationPresent(JsonRpcParam.class)) {
+			return null;
+		}
+		String[] names = new String[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			JsonRpcParam param = parameters[i].getAnnotation(JsonRpcParam.class);
+			if (param != null) {
+				names[i] = param.value();
+			} else if (parameters[i].isNamePresent()) {
+				names[i] = parameters[i].getName();
+			} else {
+				throw new IllegalArgumentException("The parameters of " + method
+						+ " need a @JsonRpcParam name, or to be compiled with -parameters");
+			}
+		}
+		return names;
+	}
+
+	private static Class<?> rawType(Type type) {
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		}
+		if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		return Object.class;
+	}
+
+	private static Type typeArgument(Type type, Method method) {
+		if (!(type instanceof ParameterizedType)) {
+			throw new IllegalArgumentException("The return type of " + method + " needs its type argument");
+		}
+		return ((ParameterizedType) type).getActualTypeArguments()[0];
+	}
+
+	private static Type boxed(Type type) {
+		if (!(type instanceof Class) || !((Class<?>) type).isPrimitive()) {
+			return type;
+		}
+		return MethodType.methodType((Class<?>) type).wrap().returnType();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs a single call at a time for each key. The callers that ask for a key
+ * while its call is in flight wait for the same result instead of starting
+ * another call.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the results
+ */
+final class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * @param key  identifies the call
+	 * @param call starts the call, if none is in flight for the key
+	 * @return the result of the call. Each caller gets its own future, so that
+	 *         cancelling it does not affect the others.
+	 */
+	CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+		CompletableFuture<V> result = new CompletableFuture<>();
+		CompletableFuture<V> leader = inFlight.putIfAbsent(key, result);
+		if (leader != null) {
+			coalesced.increment();
+			return leader.copy();
+		}
+		try {
+			call.get().whenComplete((v, e) -> {
+				// Removed first, so that the callers that come later start a new call
+				inFlight.remove(key, result);
+				if (e != null) {
+					result.completeExceptionally(e);
+				} else {
+					result.complete(v);
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlight.remove(key, result);
+			result.completeExceptionally(e);
+		}
+		return result.copy();
+	}
+
+	/**
+	 * @return the number of calls that waited for another one
+	 */
+	long getCoalesced() {
+		return coalesced.sum();
+	}
+}
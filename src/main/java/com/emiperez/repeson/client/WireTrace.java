@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import com.emiperez.repeson.transport.PooledInputStream;
+import com.emiperez.repeson.transport.Transport;
+
+/**
+ * Traces the JSON-RPC messages sent and received, through the
+ * {@value #LOGGER_NAME} logger at level {@code FINE}. It is off by default. To
+ * turn it on:
+ *
+ * <pre>
+ * {@code
+ * Logger.getLogger(WireTrace.LOGGER_NAME).setLevel(Level.FINE);
+ * }
+ * </pre>
+ *
+ * Each record has the direction of the message, its size in bytes and its
+ * payload, cut to {@link #setMaxPayloadBytes(int) a maximum size}, as
+ * parameters. A response is only read ahead up to that size, so the size of a
+ * longer one is given as the bytes it is known to exceed. Only a
+ * {@link #setSampleRate(double) sample} of the exchanges is traced, the
+ * request and its response together.
+ *
+ * <p>
+ * When the logger is off, tracing costs a level check per exchange: no message
+ * is built or copied.
+ *
+ * @since 0.6
+ */
+public final class WireTrace {
+
+	public static final String LOGGER_NAME = "com.emiperez.repeson.wire";
+
+	private static final Logger LOG = Logger.getLogger(LOGGER_NAME);
+
+	private static volatile double sampleRate = 1.0;
+	private static volatile int maxPayloadBytes = 2048;
+
+	private WireTrace() {
+	}
+
+	/**
+	 * @param sampleRate the fraction of the exchanges traced, from 0 to 1. By
+	 *                   default all of them are.
+	 */
+	public static void setSampleRate(double sampleRate) {
+		if (!(sampleRate >= 0 && sampleRate <= 1)) {
+			throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+		}
+		WireTrace.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @param maxPayloadBytes the maximum number of bytes of each message that are
+	 *                        traced. The default is 2048.
+	 */
+	public static void setMaxPayloadBytes(int maxPayloadBytes) {
+		if (maxPayloadBytes < 0) {
+			throw new IllegalArgumentException("maxPayloadBytes must not be negative: " + maxPayloadBytes);
+		}
+		WireTrace.maxPayloadBytes = maxPayloadBytes;
+	}
+
+	private static boolean sample() {
+		if (!LOG.isLoggable(Level.FINE)) {
+			return false;
+		}
+		double rate = sampleRate;
+		return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+	}
+
+	/**
+	 * Sends the request through the transport, tracing both messages if the
+	 * exchange is sampled.
+	 */
+	static InputStream send(Transport transport, byte[] json) throws IOException, InterruptedException {
+		if (!sample()) {
+			return transport.send(json);
+		}
+		log("request", json);
+		return response(transport.send(json));
+	}
+
+	/**
+	 * Sends the request through the transport, tracing both messages if the
+	 * exchange is sampled.
+	 */
+	static CompletableFuture<InputStream> sendAsync(Transport transport, byte[] json) {
+		if (!sample()) {
+			return transport.sendAsync(json);
+		}
+		log("request", json);
+		CompletableFuture<InputStream> response = transport.sendAsync(json);
+		return JsonRpcClient.cancelling(response, response.thenApply(r -> {
+			try {
+				return response(r);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}));
+	}
+
+	static void request(String json) {
+		if (sample()) {
+			log("request", json.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Traces the beginning of the response and returns it to be read whole. Only
+	 * the bytes traced are read ahead, and a pooled response is traced in its
+	 * buffer, so that a large response is not copied.
+	 */
+	private static InputStream response(InputStream input) throws IOException {
+		if (input instanceof PooledInputStream) {
+			ByteBuffer buffer = ((PooledInputStream) input).buffer();
+			log("response", buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+					buffer.remaining());
+			return input;
+		}
+		int max = maxPayloadBytes;
+		byte[] head;
+		try {
+			// One more byte tells whether the response is longer than the trace
+			head = input.readNBytes(max == Integer.MAX_VALUE ? max : max + 1);
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		if (head.length <= max) {
+			input.close();
+			log("response", head);
+			return new ByteArrayInputStream(head);
+		}
+		log("response", head, 0, max, -1);
+		return new SequenceInputStream(new ByteArrayInputStream(head), input);
+	}
+
+	private static void log(String direction, byte[] json) {
+		log(direction, json, 0, json.length, json.length);
+	}
+
+	/**
+	 * @param size the size of the whole message, or -1 if it is only known to be
+	 *             longer than the bytes given
+	 */
+	private static void log(String direction, byte[] json, int offset, int length, int size) {
+		int max = maxPayloadBytes;
+		String payload = new String(json, offset, Math.min(length, max), StandardCharsets.UTF_8);
+		if (size < 0 || size > max) {
+			payload += "...";
+		}
+		LogRecord record = new LogRecord(Level.FINE, size < 0 ? "{0} (over {1} bytes): {2}" : "{0} ({1} bytes): {2}");
+		record.setLoggerName(LOGGER_NAME);
+		record.setParameters(new Object[] { direction, size < 0 ? length : size, payload });
+		LOG.log(record);
+	}
+}
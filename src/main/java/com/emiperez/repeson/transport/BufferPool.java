@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of ByteBuffers, either on the heap or direct, so that the bodies of
+ * the requests and responses do not allocate a new array each time.
+ *
+ * <p>
+ * The buffers are kept in size classes, the powers of two from
+ * {@link #MIN_SIZE} to {@link #MAX_SIZE}; larger buffers are allocated and
+ * left to the garbage collector. Each class holds a few buffers per stripe, and
+ * each thread uses the stripe of its id, so that threads rarely contend for the
+ * same slots. Unlike a ThreadLocal, the number of buffers kept does not grow
+ * with the number of threads, which matters with virtual threads. A buffer
+ * released to a full class is dropped.
+ *
+ * <p>
+ * A pool with leak detection remembers where each buffer was acquired until it
+ * is released, which is meant for tests. The shared pools detect leaks if the
+ * system property {@value #LEAK_DETECTION_PROPERTY} is {@code true}.
+ *
+ * @since 0.6
+ */
+public final class BufferPool {
+
+	/**
+	 * The system property that enables the leak detection of the shared pools
+	 */
+	public static final String LEAK_DETECTION_PROPERTY = "com.emiperez.repeson.bufferPool.leakDetection";
+	/**
+	 * The capacity of the smallest buffers kept
+	 */
+	public static final int MIN_SIZE = 1024;
+	/**
+	 * The capacity of the largest buffers kept
+	 */
+	public static final int MAX_SIZE = 1024 * 1024;
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+	private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+	// The buffers of each class in a stripe take up to this many bytes, but
+	// there is always at least one and never more than MAX_SLOTS
+	private static final int CLASS_BYTES = 256 * 1024;
+	private static final int MAX_SLOTS = 8;
+	private static final int MAX_STRIPES = 16;
+
+	private static final BufferPool HEAP = builder().leakDetection(Boolean.getBoolean(LEAK_DETECTION_PROPERTY))
+			.build();
+	private static final BufferPool DIRECT = builder().direct(true)
+			.leakDetection(Boolean.getBoolean(LEAK_DETECTION_PROPERTY)).build();
+
+	private final boolean direct;
+	private final int stripeMask;
+	private final int[] classOffsets = new int[CLASSES];
+	private final int[] classSlots = new int[CLASSES];
+	private final int stripeSlots;
+	private final AtomicReferenceArray<ByteBuffer> slots;
+	private final LongAdder allocations = new LongAdder();
+	// Null without leak detection, guarded by outstandingLock
+	private final Map<ByteBuffer, Throwable> outstanding;
+	private final ReentrantLock outstandingLock = new ReentrantLock();
+
+	public static class Builder {
+
+		private boolean direct;
+		private boolean leakDetection;
+		private int stripes = Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors());
+
+		private Builder() {
+		}
+
+		/**
+		 * Set whether the buffers are allocated outside the heap, which suits the
+		 * channels that write and read them directly. By default they are on the
+		 * heap, backed by an array.
+		 *
+		 * @param direct true for direct buffers
+		 * @return the Builder
+		 */
+		public Builder direct(boolean direct) {
+			this.direct = direct;
+			return this;
+		}
+
+		/**
+		 * Set whether the pool remembers where each buffer not yet released was
+		 * acquired, to be reported by {@link BufferPool#getLeaks()}. It costs a lock
+		 * and a stack trace per buffer, so it should only be enabled in tests.
+		 *
+		 * @param leakDetection true to detect leaks
+		 * @return the Builder
+		 */
+		public Builder leakDetection(boolean leakDetection) {
+			this.leakDetection = leakDetection;
+			return this;
+		}
+
+		/**
+		 * Set the number of stripes, rounded up to a power of two. By default, one
+		 * per processor up to 16.
+		 *
+		 * @param stripes the number of stripes
+		 * @return the Builder
+		 */
+		public Builder stripes(int stripes) {
+			if (stripes < 1 || stripes > 1024) {
+				throw new IllegalArgumentException("stripes out of range: " + stripes);
+			}
+			this.stripes = stripes;
+			return this;
+		}
+
+		public BufferPool build() {
+			return new BufferPool(this);
+		}
+	}
+
+	private BufferPool(Builder builder) {
+		this.direct = builder.direct;
+		int stripes = Integer.highestOneBit(builder.stripes);
+		stripes = stripes < builder.stripes ? stripes << 1 : stripes;
+		this.stripeMask = stripes - 1;
+		int offset = 0;
+		for (int c = 0; c < CLASSES; c++) {
+			classOffsets[c] = offset;
+			classSlots[c] = Math.max(1, Math.min(MAX_SLOTS, CLASS_BYTES / (MIN_SIZE << c)));
+			offset += classSlots[c];
+		}
+		this.stripeSlots = offset;
+		this.slots = new AtomicReferenceArray<>(stripes * stripeSlots);
+		this.outstanding = builder.leakDetection ? new IdentityHashMap<>() : null;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return the pool of heap buffers shared by the Transports and the JSON
+	 *         mapper
+	 */
+	public static BufferPool heap() {
+		return HEAP;
+	}
+
+	/**
+	 * @return the pool of direct buffers shared by the Transports that use
+	 *         channels
+	 */
+	public static BufferPool direct() {
+		return DIRECT;
+	}
+
+	/**
+	 * Takes a buffer from the pool, or allocates one if there is none of its size
+	 * class. It must be given back with {@link #release(ByteBuffer)} once it is
+	 * no longer used.
+	 *
+	 * @param size the number of bytes needed
+	 * @return a buffer whose position is 0 and whose limit is size. Its capacity
+	 *         may be larger.
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size must not be negative: " + size);
+		}
+		int sizeClass = sizeClass(size);
+		ByteBuffer buffer = null;
+		if (sizeClass < CLASSES) {
+			int first = stripe() * stripeSlots + classOffsets[sizeClass];
+			for (int i = first; i < first + classSlots[sizeClass] && buffer == null; i++) {
+				if (slots.get(i) != null) {
+					buffer = slots.getAndSet(i, null);
+				}
+			}
+		}
+		if (buffer == null) {
+			int capacity = sizeClass < CLASSES ? MIN_SIZE << sizeClass : size;
+			buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+			allocations.increment();
+		}
+		buffer.clear().limit(size);
+		if (outstanding != null) {
+			Throwable acquired = new Throwable("Buffer of " + buffer.capacity() + " bytes acquired here");
+			outstandingLock.lock();
+			try {
+				outstanding.put(buffer, acquired);
+			} finally {
+				outstandingLock.unlock();
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool, so that it can be acquired again. It must
+	 * not be used afterwards.
+	 *
+	 * @param buffer a buffer acquired from this pool
+	 * @throws IllegalStateException if leaks are detected and the buffer was
+	 *                               already released, or not acquired from this
+	 *                               pool
+	 */
+	public void release(ByteBuffer buffer) {
+		if (outstanding != null) {
+			Throwable acquired;
+			outstandingLock.lock();
+			try {
+				acquired = outstanding.remove(buffer);
+			} finally {
+				outstandingLock.unlock();
+			}
+			if (acquired == null) {
+				throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+			}
+		}
+		int capacity = buffer.capacity();
+		if (buffer.isDirect() != direct || Integer.bitCount(capacity) != 1 || capacity < MIN_SIZE
+				|| capacity > MAX_SIZE) {
+			return;
+		}
+		int sizeClass = Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT;
+		int first = stripe() * stripeSlots + classOffsets[sizeClass];
+		for (int i = first; i < first + classSlots[sizeClass]; i++) {
+			if (slots.get(i) == null && slots.compareAndSet(i, null, buffer)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return whether the buffers are direct
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return the number of buffers that had to be allocated, because none of
+	 *         their size class was in the pool or they were too large
+	 */
+	public long getAllocations() {
+		return allocations.sum();
+	}
+
+	/**
+	 * @return where each buffer that has not been released yet was acquired, as
+	 *         the stack trace of a Throwable. Empty without leak detection.
+	 */
+	public List<Throwable> getLeaks() {
+		if (outstanding == null) {
+			return List.of();
+		}
+		outstandingLock.lock();
+		try {
+			return new ArrayList<>(outstanding.values());
+		} finally {
+			outstandingLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the index of the smallest class that fits size, CLASSES or more if
+	 *         none does
+	 */
+	private static int sizeClass(int size) {
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	private int stripe() {
+		// Spreads the sequential ids of the threads over the stripes
+		long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return (int) (id >>> 32) & stripeMask;
+	}
+}
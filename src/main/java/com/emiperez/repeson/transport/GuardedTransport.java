@@ -0,0 +1,578 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import lombok.extern.java.Log;
+
+/**
+ * A Transport that protects an endpoint, reached through another Transport,
+ * from overload, so that its latency stays stable instead of collapsing:
+ * <ul>
+ * <li>A circuit breaker stops sending requests for a while when too many of the
+ * last ones failed. Then a single trial request is sent, and the circuit closes
+ * again if it succeeds. The circuit opening is logged at WARNING, and its
+ * closing at INFO.</li>
+ * <li>An adaptive limit caps the requests in flight. It grows by one request
+ * per round trip while the response times stay close to the lowest ones seen,
+ * and it is cut by a tenth when they grow or a request fails (AIMD).</li>
+ * </ul>
+ * The requests over the limit wait in a bounded queue, for a bounded time, or
+ * are rejected at once. Rejected requests fail with a
+ * {@link RejectedRequestException} without reaching the endpoint.
+ *
+ * <p>
+ * Each endpoint of a {@link LoadBalancingTransport} can be guarded, so that the
+ * load shed by one goes to the others.
+ */
+@Log
+public class GuardedTransport implements Transport {
+
+	/**
+	 * The state of the circuit breaker.
+	 */
+	public enum CircuitState {
+		/**
+		 * The requests are sent.
+		 */
+		CLOSED,
+		/**
+		 * The requests are rejected.
+		 */
+		OPEN,
+		/**
+		 * A trial request is sent, the others are rejected.
+		 */
+		HALF_OPEN
+	}
+
+	private static final double DECREASE_RATIO = 0.9;
+	private static final int MIN_LATENCY_SAMPLES = 500;
+
+	private Transport transport;
+	private double failureRate;
+	private long openNanos;
+	private double minLimit;
+	private double maxLimit;
+	private double latencyTolerance;
+	private int maxQueued;
+	private long maxQueueWaitNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile CircuitState state = CircuitState.CLOSED;
+	// Guarded by lock. The outcomes of the last calls, true if failed
+	private boolean[] outcomes;
+	// Guarded by lock
+	private int calls;
+	// Guarded by lock
+	private int failures;
+	// Guarded by lock
+	private long openedAt;
+	// Guarded by lock
+	private boolean trialInFlight;
+
+	private final AtomicLong limit = new AtomicLong();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final ConcurrentLinkedQueue<CompletableFuture<Void>> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger();
+	// The lowest response time of the current period, the baseline of the latency
+	private final AtomicLong minLatencyNanos = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicInteger latencySamples = new AtomicInteger();
+	private volatile long baselineNanos = Long.MAX_VALUE;
+	private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+	private final LongAdder rejected = new LongAdder();
+
+	public static class Builder {
+
+		private final Transport transport;
+		private double failureRate = 0.5;
+		private int minimumCalls = 20;
+		private Duration openDuration = Duration.ofSeconds(10);
+		private int initialLimit = 20;
+		private int minLimit = 1;
+		private int maxLimit = 1000;
+		private double latencyTolerance = 2;
+		private int maxQueued = 0;
+		private Duration maxQueueWait = Duration.ZERO;
+
+		private Builder(Transport transport) {
+			this.transport = transport;
+		}
+
+		/**
+		 * The circuit opens when at least the given rate of the last
+		 * {@code minimumCalls} requests failed. The defaults are 0.5, 20 requests and
+		 * 10 seconds.
+		 *
+		 * @param failureRate  the rate of failed requests, from 0 to 1
+		 * @param minimumCalls the number of requests the rate is computed from
+		 * @param openDuration the time the circuit stays open before a trial
+		 * @return the Builder
+		 */
+		public Builder circuitBreaker(double failureRate, int minimumCalls, Duration openDuration) {
+			if (!(failureRate > 0 && failureRate <= 1) || minimumCalls < 1) {
+				throw new IllegalArgumentException("Invalid circuit breaker: " + failureRate + ", " + minimumCalls);
+			}
+			this.failureRate = failureRate;
+			this.minimumCalls = minimumCalls;
+			this.openDuration = openDuration;
+			return this;
+		}
+
+		/**
+		 * The limit of requests in flight. The defaults are 20, 1 and 1000.
+		 *
+		 * @param initial the limit until it adapts
+		 * @param min     the lowest limit
+		 * @param max     the highest limit
+		 * @return the Builder
+		 */
+		public Builder concurrencyLimit(int initial, int min, int max) {
+			if (min < 1 || initial < min || max < initial) {
+				throw new IllegalArgumentException("Invalid limit: " + initial + ", " + min + ", " + max);
+			}
+			this.initialLimit = initial;
+			this.minLimit = min;
+			this.maxLimit = max;
+			return this;
+		}
+
+		/**
+		 * @param latencyTolerance how many times the lowest response time can a
+		 *                         response take before the limit is cut. The default
+		 *                         is 2.
+		 * @return the Builder
+		 */
+		public Builder latencyTolerance(double latencyTolerance) {
+			if (!(latencyTolerance > 1)) {
+				throw new IllegalArgumentException("latencyTolerance must be greater than 1: " + latencyTolerance);
+			}
+			this.latencyTolerance = latencyTolerance;
+			return this;
+		}
+
+		/**
+		 * Lets the requests over the limit wait for another one to finish. By
+		 * default they are rejected at once.
+		 *
+		 * @param maxQueued the maximum number of requests waiting
+		 * @param maxWait   the maximum time a request waits
+		 * @return the Builder
+		 */
+		public Builder queue(int maxQueued, Duration maxWait) {
+			this.maxQueued = maxQueued;
+			this.maxQueueWait = maxWait;
+			return this;
+		}
+
+		public GuardedTransport build() {
+			GuardedTransport guarded = new GuardedTransport();
+			guarded.transport = transport;
+			guarded.failureRate = failureRate;
+			guarded.outcomes = new boolean[minimumCalls];
+			guarded.openNanos = openDuration.toNanos();
+			guarded.limit.set(Double.doubleToLongBits(initialLimit));
+			guarded.minLimit = minLimit;
+			guarded.maxLimit = maxLimit;
+			guarded.latencyTolerance = latencyTolerance;
+			guarded.maxQueued = maxQueued;
+			guarded.maxQueueWaitNanos = maxQueueWait.toNanos();
+			return guarded;
+		}
+	}
+
+	/**
+	 * @param transport the Transport that reaches the endpoint
+	 * @return the Builder
+	 */
+	public static Builder builder(Transport transport) {
+		return new Builder(transport);
+	}
+
+	@Override
+	public InputStream send(String jsonRpcRequest) throws IOException, InterruptedException {
+		return send(t -> t.send(jsonRpcRequest));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> sendAsync(String jsonRpcRequest) {
+		return sendAsync(t -> t.sendAsync(jsonRpcRequest));
+	}
+
+	@Override
+	public InputStream send(byte[] jsonRpcRequest) throws IOException, InterruptedException {
+		return send(t -> t.send(jsonRpcRequest));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> sendAsync(byte[] jsonRpcRequest) {
+		return sendAsync(t -> t.sendAsync(jsonRpcRequest));
+	}
+
+	private InputStream send(Call call) throws IOException, InterruptedException {
+		boolean trial = admit();
+		CompletableFuture<Void> admitted = acquire();
+		try {
+			admitted.get();
+		} catch (ExecutionException e) {
+			abandon(trial);
+			throw (IOException) e.getCause();
+		} catch (InterruptedException e) {
+			if (admitted.cancel(false)) {
+				if (queue.remove(admitted)) {
+					queued.decrementAndGet();
+				}
+			} else if (!admitted.isCompletedExceptionally()) {
+				// The place was given to this request while it was interrupted
+				release();
+			}
+			abandon(trial);
+			throw e;
+		}
+		long start = System.nanoTime();
+		try {
+			InputStream response = call.send(transport);
+			completed(start, trial, false);
+			return response;
+		} catch (IOException | RuntimeException e) {
+			completed(start, trial, true);
+			throw e;
+		} catch (InterruptedException e) {
+			// Says nothing about the endpoint, so it is neither a success nor a
+			// failure, but its place and the trial are freed
+			release();
+			abandon(trial);
+			throw e;
+		}
+	}
+
+	private CompletableFuture<InputStream> sendAsync(Function<Transport, CompletableFuture<InputStream>> call) {
+		boolean trial;
+		try {
+			trial = admit();
+		} catch (RejectedRequestException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		CompletableFuture<InputStream> result = new CompletableFuture<>();
+		CompletableFuture<Void> admitted = acquire();
+		admitted.whenComplete((v, e) -> {
+			if (e != null) {
+				abandon(trial);
+				result.completeExceptionally(e);
+				return;
+			}
+			if (result.isDone()) {
+				// Cancelled while it waited for its place
+				release();
+				abandon(trial);
+				return;
+			}
+			long start = System.nanoTime();
+			CompletableFuture<InputStream> response;
+			try {
+				response = call.apply(transport);
+			} catch (RuntimeException x) {
+				completed(start, trial, true);
+				result.completeExceptionally(x);
+				return;
+			}
+			response.whenComplete((r, x) -> {
+				if (x instanceof CancellationException) {
+					// Like an interrupted send, it says nothing about the endpoint
+					release();
+					abandon(trial);
+				} else {
+					completed(start, trial, x != null);
+				}
+				if (x != null) {
+					result.completeExceptionally(x);
+				} else if (!result.complete(r)) {
+					closeQuietly(r);
+				}
+			});
+			// Cancelling the result, as a HedgingPolicy does with the slower copy, reaches
+			// the request of the transport
+			result.whenComplete((r, x) -> {
+				if (x instanceof CancellationException) {
+					response.cancel(true);
+				}
+			});
+		});
+		result.whenComplete((r, x) -> {
+			if (x instanceof CancellationException && admitted.cancel(false) && queue.remove(admitted)) {
+				queued.decrementAndGet();
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Lets the request through the circuit breaker.
+	 *
+	 * @return true if the request is the trial of a half open circuit
+	 * @throws RejectedRequestException if the circuit is open
+	 */
+	private boolean admit() throws RejectedRequestException {
+		if (state == CircuitState.CLOSED) {
+			return false;
+		}
+		lock.lock();
+		try {
+			if (state == CircuitState.OPEN && System.nanoTime() - openedAt >= openNanos) {
+				state = CircuitState.HALF_OPEN;
+			}
+			if (state == CircuitState.HALF_OPEN && !trialInFlight) {
+				trialInFlight = true;
+				return true;
+			}
+			if (state == CircuitState.CLOSED) {
+				return false;
+			}
+		} finally {
+			lock.unlock();
+		}
+		rejected.increment();
+		throw new RejectedRequestException("Circuit open");
+	}
+
+	/**
+	 * @return a future completed when the request may be sent, or failed with a
+	 *         RejectedRequestException if it may not
+	 */
+	private CompletableFuture<Void> acquire() {
+		if (tryAcquire()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (queued.incrementAndGet() > maxQueued) {
+			queued.decrementAndGet();
+			return reject();
+		}
+		CompletableFuture<Void> waiter = new CompletableFuture<>();
+		queue.add(waiter);
+		// A request may have finished before the waiter was queued
+		if (tryAcquire()) {
+			if (!waiter.complete(null)) {
+				release();
+			} else if (queue.remove(waiter)) {
+				queued.decrementAndGet();
+			}
+			return waiter;
+		}
+		CompletableFuture.delayedExecutor(maxQueueWaitNanos, TimeUnit.NANOSECONDS).execute(() -> {
+			// Removed before it fails, so that its callers see it out of the queue
+			if (queue.remove(waiter)) {
+				queued.decrementAndGet();
+				if (waiter.completeExceptionally(new RejectedRequestException("Timed out waiting in the queue"))) {
+					rejected.increment();
+				}
+			}
+		});
+		return waiter;
+	}
+
+	private CompletableFuture<Void> reject() {
+		rejected.increment();
+		return CompletableFuture.failedFuture(new RejectedRequestException(
+				"Too many requests in flight: " + inFlight.get() + ", limit " + getLimit()));
+	}
+
+	private boolean tryAcquire() {
+		int current;
+		do {
+			current = inFlight.get();
+			if (current >= getLimit()) {
+				return false;
+			}
+		} while (!inFlight.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	/**
+	 * Passes the place of a finished request to a waiting one, or frees it.
+	 */
+	private void release() {
+		if (inFlight.get() <= getLimit()) {
+			CompletableFuture<Void> waiter;
+			while ((waiter = queue.poll()) != null) {
+				queued.decrementAndGet();
+				if (waiter.complete(null)) {
+					return;
+				}
+			}
+		}
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * The request was rejected by the limit after being admitted by the circuit
+	 * breaker.
+	 */
+	private void abandon(boolean trial) {
+		if (trial) {
+			lock.lock();
+			try {
+				trialInFlight = false;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void completed(long start, boolean trial, boolean failed) {
+		long latency = System.nanoTime() - start;
+		release();
+		adaptLimit(latency, failed);
+		lock.lock();
+		try {
+			if (trial) {
+				trialInFlight = false;
+				if (failed) {
+					open();
+				} else {
+					log.info(() -> "Circuit of " + transport + " closed");
+					state = CircuitState.CLOSED;
+					calls = 0;
+					failures = 0;
+				}
+			} else if (state == CircuitState.CLOSED) {
+				record(failed);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Guarded by lock.
+	 */
+	private void record(boolean failed) {
+		int slot = calls++ % outcomes.length;
+		if (calls > outcomes.length && outcomes[slot]) {
+			failures--;
+		}
+		outcomes[slot] = failed;
+		if (failed) {
+			failures++;
+		}
+		if (calls >= outcomes.length && failures >= failureRate * outcomes.length) {
+			open();
+		}
+	}
+
+	/**
+	 * Guarded by lock.
+	 */
+	private void open() {
+		log.warning(() -> "Circuit of " + transport + " opened");
+		state = CircuitState.OPEN;
+		openedAt = System.nanoTime();
+		calls = 0;
+		failures = 0;
+	}
+
+	/**
+	 * Increases the limit by one per round trip, that is by 1/limit per response,
+	 * while the response time is within the tolerance of the baseline, and
+	 * decreases it by a tenth, at most once per round trip, otherwise. The
+	 * baseline is the lowest response time of the previous period of responses,
+	 * so that it follows lasting changes.
+	 */
+	private void adaptLimit(long latency, boolean failed) {
+		if (!failed) {
+			minLatencyNanos.accumulateAndGet(latency, Math::min);
+			if (latencySamples.incrementAndGet() % MIN_LATENCY_SAMPLES == 0 || baselineNanos == Long.MAX_VALUE) {
+				baselineNanos = minLatencyNanos.getAndSet(Long.MAX_VALUE);
+			}
+		}
+		boolean decrease = failed || latency > baselineNanos * latencyTolerance;
+		if (decrease) {
+			// Once per round trip, as the requests in flight saw the same overload
+			long now = System.nanoTime();
+			long last = lastDecrease.get();
+			if (now - last < latency || !lastDecrease.compareAndSet(last, now)) {
+				return;
+			}
+		}
+		long current;
+		long updated;
+		do {
+			current = limit.get();
+			double value = Double.longBitsToDouble(current);
+			double next = decrease ? Math.max(minLimit, value * DECREASE_RATIO)
+					: Math.min(maxLimit, value + 1 / value);
+			updated = Double.doubleToLongBits(next);
+		} while (!limit.compareAndSet(current, updated));
+	}
+
+	private static void closeQuietly(InputStream response) {
+		try {
+			response.close();
+		} catch (IOException e) {
+			// The response is discarded anyway
+		}
+	}
+
+	/**
+	 * @return the number of requests that can be in flight
+	 */
+	public int getLimit() {
+		return (int) Double.longBitsToDouble(limit.get());
+	}
+
+	/**
+	 * @return the number of requests in flight
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the number of requests waiting to be sent
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the number of requests rejected because the circuit was open or too
+	 *         many were in flight
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	public CircuitState getCircuitState() {
+		return state;
+	}
+
+	@FunctionalInterface
+	private interface Call {
+		InputStream send(Transport transport) throws IOException, InterruptedException;
+	}
+}
@@ -21,19 +21,55 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
+/**
+ * A Transport that sends each request in an HTTP POST through an
+ * {@link HttpClient}.
+ *
+ * <p>
+ * Its blocking methods can be called from virtual threads on Java 21 or later,
+ * as it takes no monitor: a virtual thread waiting for a response frees its
+ * carrier thread. An {@link Builder#executor(Executor) executor} of virtual
+ * threads, as returned by {@link VirtualThreads#newExecutor()}, can also run the
+ * work of the asynchronous methods.
+ *
+ * <p>
+ * A response whose length is known and at most {@link BufferPool#MAX_SIZE} is
+ * read whole into a buffer of a {@link BufferPool}, and returned as a
+ * {@link PooledInputStream} that gives the buffer back when it is closed. Any
+ * other response is streamed as it arrives.
+ *
+ * <p>
+ * A response with the status 502, 503 or 504, which a proxy or the node sends
+ * when it cannot serve the request, fails with an {@link IOException}, as does
+ * any other status but 2xx without a JSON body. A
+ * {@link LoadBalancingTransport} or a {@link GuardedTransport} counts them as
+ * failures of the endpoint. Other responses are returned whatever their
+ * status, as a JSON-RPC error may come with one.
+ */
 public class HttpTransport implements Transport {
 
 	private HttpClient httpClient;
 	private URI uri = URI.create("http://127.0.0.1:8080");
 	private String contentType = "application/json";
+	private Executor executor;
+	private BufferPool bufferPool = BufferPool.heap();
+	private final HttpResponse.BodyHandler<InputStream> bodyHandler = this::bodySubscriber;
 
 	public static class Builder {
 
 		private HttpClient httpClient;
 		private URI uri = URI.create("http://127.0.0.1:8080");
 		private String contentType = "application/json";
+		private Executor executor;
+		private BufferPool bufferPool = BufferPool.heap();
 
 		private Builder() {
 		}
@@ -59,11 +95,53 @@ public class HttpTransport implements Transport {
 			return this;
 		}
 
+		/**
+		 * Set the Executor that completes the responses of the asynchronous requests,
+		 * so that the stages that depend on them run on it instead of the threads of
+		 * the HttpClient. If the Builder was created without an HttpClient, the one
+		 * built also runs its tasks on it.
+		 * 
+		 * @param executor the Executor, for example one of virtual threads
+		 * @return the Builder
+		 * @since 0.6
+		 */
+		public Builder executor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * Set the pool of the buffers the responses are read into. By default, the
+		 * shared {@link BufferPool#heap()}.
+		 * 
+		 * @param bufferPool a pool of heap buffers, or null to stream every response
+		 *                   as it arrives
+		 * @return the Builder
+		 * @since 0.6
+		 */
+		public Builder bufferPool(BufferPool bufferPool) {
+			if (bufferPool != null && bufferPool.isDirect()) {
+				throw new IllegalArgumentException("The responses are read into heap buffers");
+			}
+			this.bufferPool = bufferPool;
+			return this;
+		}
+
 		public HttpTransport build() {
 			HttpTransport transport = new HttpTransport();
-			transport.httpClient = httpClient;
+			if (httpClient == null) {
+				HttpClient.Builder client = HttpClient.newBuilder();
+				if (executor != null) {
+					client.executor(executor);
+				}
+				transport.httpClient = client.build();
+			} else {
+				transport.httpClient = httpClient;
+			}
 			transport.uri = uri;
 			transport.contentType = contentType;
+			transport.executor = executor;
+			transport.bufferPool = bufferPool;
 			return transport;
 		}
 
@@ -73,23 +151,159 @@ public class HttpTransport implements Transport {
 		return new Builder(httpClient);
 	}
 
+	/**
+	 * @return a Builder of a Transport with its own HttpClient, with the default
+	 *         configuration
+	 * @since 0.6
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
 	@Override
 	public InputStream send(String rpcJsonRequest) throws IOException, InterruptedException {
 		HttpRequest request = buildHttpRequest(rpcJsonRequest);
-		HttpResponse<InputStream> response;
-		response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
-		return response.body();
+		return body(httpClient.send(request, bodyHandler));
 	}
 
 	@Override
 	public CompletableFuture<InputStream> sendAsync(String rpcJsonRequest) {
-		return httpClient.sendAsync(buildHttpRequest(rpcJsonRequest), HttpResponse.BodyHandlers.ofInputStream())
-				.thenApply(r -> r.body());
+		return body(httpClient.sendAsync(buildHttpRequest(rpcJsonRequest), bodyHandler));
+	}
+
+	@Override
+	public InputStream send(byte[] rpcJsonRequest) throws IOException, InterruptedException {
+		HttpRequest request = buildHttpRequest(HttpRequest.BodyPublishers.ofByteArray(rpcJsonRequest));
+		return body(httpClient.send(request, bodyHandler));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> sendAsync(byte[] rpcJsonRequest) {
+		return body(httpClient.sendAsync(buildHttpRequest(HttpRequest.BodyPublishers.ofByteArray(rpcJsonRequest)),
+				bodyHandler));
+	}
+
+	private CompletableFuture<InputStream> body(CompletableFuture<HttpResponse<InputStream>> response) {
+		CompletableFuture<InputStream> body = executor == null ? response.thenCompose(this::bodyAsync)
+				: response.thenComposeAsync(this::bodyAsync, executor);
+		// A response that arrives after its request was cancelled or timed out is
+		// still closed, to give its buffer back
+		response.thenAccept(r -> {
+			if (body.isCompletedExceptionally()) {
+				closeQuietly(r.body());
+			}
+		});
+		// A dependent future does not cancel its source, so the exchange is cancelled
+		// explicitly, as a HedgingPolicy does with the slower copy
+		body.whenComplete((r, e) -> {
+			if (e instanceof CancellationException) {
+				response.cancel(true);
+			}
+		});
+		return body;
+	}
+
+	private CompletableFuture<InputStream> bodyAsync(HttpResponse<InputStream> response) {
+		try {
+			return CompletableFuture.completedFuture(body(response));
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * @throws IOException if the status says the endpoint did not serve the
+	 *                     request
+	 */
+	private InputStream body(HttpResponse<InputStream> response) throws IOException {
+		int status = response.statusCode();
+		boolean unavailable = status == 502 || status == 503 || status == 504;
+		if (unavailable || ((status < 200 || status > 299) && !response.headers().firstValue("Content-Type")
+				.map(type -> type.contains("json")).orElse(false))) {
+			closeQuietly(response.body());
+			throw new IOException("HTTP status " + status + " from " + uri);
+		}
+		return response.body();
+	}
+
+	private HttpResponse.BodySubscriber<InputStream> bodySubscriber(HttpResponse.ResponseInfo info) {
+		long length = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+		if (bufferPool == null || length < 0 || length > BufferPool.MAX_SIZE) {
+			return HttpResponse.BodySubscribers.ofInputStream();
+		}
+		return new PooledBodySubscriber(bufferPool, (int) length);
+	}
+
+	private static void closeQuietly(InputStream body) {
+		try {
+			body.close();
+		} catch (IOException e) {
+			// The response is discarded anyway
+		}
 	}
 
 	private HttpRequest buildHttpRequest(String rpcJsonRequest) {
-		return HttpRequest.newBuilder().POST(HttpRequest.BodyPublishers.ofString(rpcJsonRequest)).uri(uri)
-				.header("Content-Type", contentType).build();
+		return buildHttpRequest(HttpRequest.BodyPublishers.ofString(rpcJsonRequest));
+	}
+
+	private HttpRequest buildHttpRequest(HttpRequest.BodyPublisher body) {
+		return HttpRequest.newBuilder().POST(body).uri(uri).header("Content-Type", contentType).build();
+	}
+
+	/**
+	 * Copies the body into a pooled buffer of its Content-Length, and completes
+	 * once all of it has arrived.
+	 */
+	private static final class PooledBodySubscriber implements HttpResponse.BodySubscriber<InputStream> {
+
+		private final BufferPool pool;
+		private final CompletableFuture<InputStream> body = new CompletableFuture<>();
+		private ByteBuffer buffer;
+
+		private PooledBodySubscriber(BufferPool pool, int length) {
+			this.pool = pool;
+			this.buffer = pool.acquire(length);
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			for (ByteBuffer item : items) {
+				if (item.remaining() > buffer.remaining()) {
+					// More than the Content-Length, which the HttpClient should not allow
+					ByteBuffer larger = pool.acquire(Math.max(buffer.position() + item.remaining(), buffer.limit() * 2));
+					buffer.flip();
+					larger.put(buffer);
+					pool.release(buffer);
+					buffer = larger;
+				}
+				buffer.put(item);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			pool.release(buffer);
+			buffer = null;
+			body.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			buffer.flip();
+			PooledInputStream stream = new PooledInputStream(pool, buffer);
+			buffer = null;
+			body.complete(stream);
+		}
+
+		@Override
+		public CompletionStage<InputStream> getBody() {
+			return body;
+		}
 	}
 
 }
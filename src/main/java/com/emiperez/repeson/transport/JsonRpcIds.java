@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.emiperez.commons.json.apiselector.Json;
+import com.emiperez.commons.json.apiselector.RawJson;
+
+/**
+ * Reads the ids of JSON-RPC messages, so that transports that multiplex several
+ * requests over one connection can route each response to its caller. The
+ * messages are scanned, not deserialized. An id that is a JSON integer is read
+ * as a Long, without creating a String, and any other id as a String, so that
+ * the ids {@code 1} and {@code "1"} belong to different requests.
+ */
+final class JsonRpcIds {
+
+	private JsonRpcIds() {
+	}
+
+	/**
+	 * @param message a request or a batch of requests
+	 * @return the id of the request, or the first id of the batch, as its first
+	 *         requests may be notifications. Null if it has none.
+	 */
+	static Object requestId(byte[] message) throws IOException {
+		if (isArray(message)) {
+			for (RawJson request : Json.INSTANCE.api().readElements(message)) {
+				Object id = idOf(request.fields());
+				if (id != null) {
+					return id;
+				}
+			}
+			return null;
+		}
+		return idOf(Json.INSTANCE.api().readFields(message));
+	}
+
+	/**
+	 * @param message a request or a batch of requests
+	 * @return true if the message is a batch
+	 */
+	static boolean isBatch(byte[] message) {
+		return isArray(message);
+	}
+
+	/**
+	 * @param message a response or a batch of responses
+	 * @return the ids of the responses, in the order they were sent. Empty if
+	 *         they have none, as the error a server sends for a whole batch.
+	 */
+	static List<Object> responseIds(byte[] message) throws IOException {
+		List<Object> ids = new ArrayList<>(1);
+		if (isArray(message)) {
+			for (RawJson response : Json.INSTANCE.api().readElements(message)) {
+				Object id = idOf(response.fields());
+				if (id != null) {
+					ids.add(id);
+				}
+			}
+		} else {
+			Object id = idOf(Json.INSTANCE.api().readFields(message));
+			if (id != null) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return a Long if the id is a JSON integer that fits in a long, else a
+	 *         String. Null if there is no id.
+	 */
+	private static Object idOf(Map<String, RawJson> fields) throws IOException {
+		RawJson id = fields.get("id");
+		if (id == null || id.isNull()) {
+			return null;
+		}
+		return id.isLong() ? (Object) id.asLong() : id.as(String.class);
+	}
+
+	private static boolean isArray(byte[] message) {
+		for (byte b : message) {
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				return b == '[';
+			}
+		}
+		return false;
+	}
+}
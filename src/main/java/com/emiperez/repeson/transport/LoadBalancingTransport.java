@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import lombok.extern.java.Log;
+
+/**
+ * A Transport that spreads the requests across several equivalent endpoints,
+ * each one reached through its own Transport, according to a {@link Policy}.
+ *
+ * <p>
+ * An endpoint that fails a number of consecutive requests, that is, its
+ * Transport throws or completes exceptionally, is ejected for a while. Once
+ * that time has passed, a single request is sent to it as a probe: if it
+ * succeeds the endpoint is used again, else it is ejected for twice the time,
+ * up to a maximum. If every endpoint is ejected, they are used anyway.
+ *
+ * <p>
+ * Requests are never resent to another endpoint, as they may not be
+ * idempotent, except the ones rejected with a
+ * {@link RejectedRequestException}, which never left the client. They go to
+ * another endpoint, and the rejection does not count as a failure of the one
+ * that shed them.
+ */
+@Log
+public class LoadBalancingTransport implements Transport {
+
+	/**
+	 * How the endpoint of each request is chosen among the ones not ejected.
+	 */
+	public enum Policy {
+		/**
+		 * Each endpoint in turn.
+		 */
+		ROUND_ROBIN,
+		/**
+		 * The endpoint with the fewest requests waiting for their response.
+		 */
+		LEAST_OUTSTANDING,
+		/**
+		 * The better of two endpoints chosen at random, comparing their moving
+		 * average of the response time weighted by their outstanding requests
+		 * (power of two choices). It adapts to slow endpoints without sending every
+		 * request to the fastest one.
+		 */
+		EWMA
+	}
+
+	private static final double EWMA_WEIGHT = 0.3;
+
+	private Endpoint[] endpoints;
+	private Policy policy = Policy.ROUND_ROBIN;
+	private int failuresToEject = 5;
+	private long ejectionNanos = Duration.ofSeconds(1).toNanos();
+	private long maxEjectionNanos = Duration.ofSeconds(30).toNanos();
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	public static class Builder {
+
+		private final List<Transport> transports = new ArrayList<>();
+		private Policy policy = Policy.ROUND_ROBIN;
+		private int failuresToEject = 5;
+		private Duration ejection = Duration.ofSeconds(1);
+		private Duration maxEjection = Duration.ofSeconds(30);
+
+		private Builder() {
+		}
+
+		/**
+		 * Adds an endpoint.
+		 *
+		 * @param transport the Transport that reaches the endpoint
+		 * @return the Builder
+		 */
+		public Builder endpoint(Transport transport) {
+			transports.add(transport);
+			return this;
+		}
+
+		/**
+		 * @param policy how the endpoint of each request is chosen. ROUND_ROBIN by
+		 *               default.
+		 * @return the Builder
+		 */
+		public Builder policy(Policy policy) {
+			this.policy = policy;
+			return this;
+		}
+
+		/**
+		 * Set when an endpoint is ejected and for how long. The defaults are 5
+		 * failures, 1 second and 30 seconds.
+		 *
+		 * @param failuresToEject the number of consecutive failures that eject an
+		 *                        endpoint
+		 * @param ejection        the time an endpoint is ejected the first time
+		 * @param maxEjection     the maximum time an endpoint is ejected, as it
+		 *                        doubles each time the probe fails
+		 * @return the Builder
+		 */
+		public Builder ejection(int failuresToEject, Duration ejection, Duration maxEjection) {
+			if (failuresToEject < 1) {
+				throw new IllegalArgumentException("failuresToEject must be positive: " + failuresToEject);
+			}
+			this.failuresToEject = failuresToEject;
+			this.ejection = ejection;
+			this.maxEjection = maxEjection;
+			return this;
+		}
+
+		public LoadBalancingTransport build() {
+			if (transports.isEmpty()) {
+				throw new IllegalStateException("At least one endpoint is required");
+			}
+			LoadBalancingTransport transport = new LoadBalancingTransport();
+			transport.endpoints = transports.stream().map(Endpoint::new).toArray(Endpoint[]::new);
+			transport.policy = policy;
+			transport.failuresToEject = failuresToEject;
+			transport.ejectionNanos = ejection.toNanos();
+			transport.maxEjectionNanos = maxEjection.toNanos();
+			return transport;
+		}
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public InputStream send(String jsonRpcRequest) throws IOException, InterruptedException {
+		return send(t -> t.send(jsonRpcRequest));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> sendAsync(String jsonRpcRequest) {
+		return sendAsync(t -> t.sendAsync(jsonRpcRequest));
+	}
+
+	@Override
+	public InputStream send(byte[] jsonRpcRequest) throws IOException, InterruptedException {
+		return send(t -> t.send(jsonRpcRequest));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> sendAsync(byte[] jsonRpcRequest) {
+		return sendAsync(t -> t.sendAsync(jsonRpcRequest));
+	}
+
+	/**
+	 * @return the endpoints, in the order they were added, with their state
+	 */
+	public List<Endpoint> getEndpoints() {
+		return List.of(endpoints);
+	}
+
+	private InputStream send(Call call) throws IOException, InterruptedException {
+		boolean[] probe = new boolean[1];
+		Endpoint endpoint = choose(probe);
+		List<Endpoint> rejecting = null;
+		while (true) {
+			long start = endpoint.started();
+			try {
+				InputStream response = call.send(endpoint.transport);
+				succeeded(endpoint, start, probe[0]);
+				return response;
+			} catch (RejectedRequestException e) {
+				abandoned(endpoint, probe[0]);
+				rejecting = rejecting == null ? new ArrayList<>(endpoints.length) : rejecting;
+				rejecting.add(endpoint);
+				endpoint = reroute(rejecting);
+				if (endpoint == null) {
+					throw e;
+				}
+				probe[0] = false;
+			} catch (IOException | RuntimeException e) {
+				failed(endpoint, probe[0]);
+				throw e;
+			} catch (InterruptedException e) {
+				abandoned(endpoint, probe[0]);
+				throw e;
+			}
+		}
+	}
+
+	private CompletableFuture<InputStream> sendAsync(Function<Transport, CompletableFuture<InputStream>> call) {
+		boolean[] probe = new boolean[1];
+		Endpoint endpoint = choose(probe);
+		// Not a dependent of the response, whose action would not run once the result
+		// is cancelled
+		CompletableFuture<InputStream> result = new CompletableFuture<>();
+		sendAsync(call, endpoint, probe[0], null, result);
+		return result;
+	}
+
+	/**
+	 * @param rejecting the endpoints that rejected the request before, or null
+	 */
+	private void sendAsync(Function<Transport, CompletableFuture<InputStream>> call, Endpoint endpoint,
+			boolean probe, List<Endpoint> rejecting, CompletableFuture<InputStream> result) {
+		long start = endpoint.started();
+		CompletableFuture<InputStream> response;
+		try {
+			response = call.apply(endpoint.transport);
+		} catch (RuntimeException e) {
+			failed(endpoint, probe);
+			throw e;
+		}
+		response.whenComplete((r, e) -> {
+			if (e == null) {
+				succeeded(endpoint, start, probe);
+				if (!result.complete(r)) {
+					closeQuietly(r);
+				}
+			} else if (isRejected(e) && !result.isDone()) {
+				abandoned(endpoint, probe);
+				List<Endpoint> rejected = rejecting == null ? new ArrayList<>(endpoints.length) : rejecting;
+				rejected.add(endpoint);
+				Endpoint other = reroute(rejected);
+				if (other == null) {
+					result.completeExceptionally(e);
+					return;
+				}
+				try {
+					sendAsync(call, other, false, rejected, result);
+				} catch (RuntimeException x) {
+					result.completeExceptionally(x);
+				}
+			} else {
+				if (e instanceof CancellationException || isRejected(e)) {
+					abandoned(endpoint, probe);
+				} else {
+					failed(endpoint, probe);
+				}
+				result.completeExceptionally(e);
+			}
+		});
+		// Cancelling the result, as a HedgingPolicy does with the slower copy, reaches
+		// the request of the endpoint
+		result.whenComplete((r, e) -> {
+			if (e instanceof CancellationException) {
+				response.cancel(true);
+			}
+		});
+	}
+
+	private static boolean isRejected(Throwable e) {
+		return e instanceof RejectedRequestException || e.getCause() instanceof RejectedRequestException;
+	}
+
+	/**
+	 * @param rejecting the endpoints that rejected the request
+	 * @return the endpoint with the fewest outstanding requests among the others,
+	 *         preferring the ones not ejected, or null if there is none
+	 */
+	private Endpoint reroute(List<Endpoint> rejecting) {
+		Endpoint best = null;
+		for (Endpoint e : endpoints) {
+			if (!rejecting.contains(e) && (best == null || (best.ejected && !e.ejected)
+					|| (best.ejected == e.ejected && e.outstanding.get() < best.outstanding.get()))) {
+				best = e;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param probe set to true if the request is the probe of an ejected endpoint
+	 */
+	private Endpoint choose(boolean[] probe) {
+		long now = System.nanoTime();
+		int available = 0;
+		for (Endpoint e : endpoints) {
+			if (!e.ejected) {
+				available++;
+			} else if (now - e.ejectedUntil >= 0 && e.probing.compareAndSet(false, true)) {
+				probe[0] = true;
+				return e;
+			}
+		}
+		// If every endpoint is ejected, they are used anyway
+		boolean all = available == 0;
+		int n = endpoints.length;
+		switch (policy) {
+		case LEAST_OUTSTANDING: {
+			Endpoint best = null;
+			int offset = ThreadLocalRandom.current().nextInt(n);
+			for (int i = 0; i < n; i++) {
+				Endpoint e = endpoints[(offset + i) % n];
+				if ((all || !e.ejected) && (best == null || e.outstanding.get() < best.outstanding.get())) {
+					best = e;
+				}
+			}
+			return best;
+		}
+		case EWMA: {
+			int candidates = all ? n : available;
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int first = random.nextInt(candidates);
+			// Two different endpoints, if there are
+			int second = candidates == 1 ? first : (first + 1 + random.nextInt(candidates - 1)) % candidates;
+			Endpoint a = candidate(all, first);
+			Endpoint b = candidate(all, second);
+			return a.cost() <= b.cost() ? a : b;
+		}
+		default: {
+			int start = next.getAndIncrement();
+			for (int i = 0; i < n; i++) {
+				Endpoint e = endpoints[Math.floorMod(start + i, n)];
+				if (all || !e.ejected) {
+					return e;
+				}
+			}
+			return endpoints[Math.floorMod(start, n)];
+		}
+		}
+	}
+
+	/**
+	 * @return the endpoint in the given position among the candidates
+	 */
+	private Endpoint candidate(boolean all, int skip) {
+		for (Endpoint e : endpoints) {
+			if ((all || !e.ejected) && skip-- == 0) {
+				return e;
+			}
+		}
+		return endpoints[0];
+	}
+
+	private void succeeded(Endpoint endpoint, long start, boolean probe) {
+		endpoint.outstanding.decrementAndGet();
+		endpoint.recordLatency(System.nanoTime() - start);
+		endpoint.consecutiveFailures.set(0);
+		if (probe) {
+			log.fine(() -> "Endpoint " + endpoint.transport + " is used again");
+			endpoint.ejections = 0;
+			endpoint.ejected = false;
+			endpoint.probing.set(false);
+		}
+	}
+
+	private void failed(Endpoint endpoint, boolean probe) {
+		endpoint.outstanding.decrementAndGet();
+		endpoint.failures.increment();
+		if (probe) {
+			eject(endpoint);
+			endpoint.probing.set(false);
+		} else if (!endpoint.ejected && endpoint.consecutiveFailures.incrementAndGet() >= failuresToEject) {
+			eject(endpoint);
+		}
+	}
+
+	/**
+	 * The request was interrupted, cancelled or shed, which says nothing about
+	 * the health of the endpoint. A probe is left to the next request.
+	 */
+	private void abandoned(Endpoint endpoint, boolean probe) {
+		endpoint.outstanding.decrementAndGet();
+		if (probe) {
+			endpoint.probing.set(false);
+		}
+	}
+
+	private static void closeQuietly(InputStream response) {
+		try {
+			response.close();
+		} catch (IOException e) {
+			// The response is discarded anyway
+		}
+	}
+
+	private void eject(Endpoint endpoint) {
+		int ejections = Math.min(endpoint.ejections, 30);
+		long time = Math.min(ejectionNanos << ejections, maxEjectionNanos);
+		endpoint.ejections = ejections + 1;
+		endpoint.consecutiveFailures.set(0);
+		endpoint.ejectedUntil = System.nanoTime() + (time < 0 ? maxEjectionNanos : time);
+		endpoint.ejected = true;
+		log.fine(() -> "Endpoint " + endpoint.transport + " ejected for " + Duration.ofNanos(time));
+	}
+
+	@FunctionalInterface
+	private interface Call {
+		InputStream send(Transport transport) throws IOException, InterruptedException;
+	}
+
+	/**
+	 * An endpoint and its state, which is updated without locks and so only
+	 * approximate while requests are in flight.
+	 */
+	public static final class Endpoint {
+
+		private final Transport transport;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+		private final AtomicLong latencyEwma = new AtomicLong(Double.doubleToLongBits(0));
+		private final AtomicBoolean probing = new AtomicBoolean();
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private volatile boolean ejected;
+		private volatile long ejectedUntil;
+		private volatile int ejections;
+
+		private Endpoint(Transport transport) {
+			this.transport = transport;
+		}
+
+		public Transport getTransport() {
+			return transport;
+		}
+
+		/**
+		 * @return the number of requests waiting for their response
+		 */
+		public int getOutstanding() {
+			return outstanding.get();
+		}
+
+		/**
+		 * @return the moving average of the response time
+		 */
+		public Duration getLatencyEwma() {
+			return Duration.ofNanos((long) Double.longBitsToDouble(latencyEwma.get()));
+		}
+
+		/**
+		 * @return true if the endpoint is not being used because it failed
+		 */
+		public boolean isEjected() {
+			return ejected;
+		}
+
+		/**
+		 * @return the number of requests sent to the endpoint
+		 */
+		public long getRequests() {
+			return requests.sum();
+		}
+
+		/**
+		 * @return the number of requests that failed
+		 */
+		public long getFailures() {
+			return failures.sum();
+		}
+
+		private long started() {
+			requests.increment();
+			outstanding.incrementAndGet();
+			return System.nanoTime();
+		}
+
+		private void recordLatency(long nanos) {
+			long current;
+			long updated;
+			do {
+				current = latencyEwma.get();
+				double average = Double.longBitsToDouble(current);
+				// The first sample is taken as is
+				double next = average == 0 ? nanos : average + EWMA_WEIGHT * (nanos - average);
+				updated = Double.doubleToLongBits(next);
+			} while (!latencyEwma.compareAndSet(current, updated));
+		}
+
+		/**
+		 * An endpoint never measured costs nothing, so that it is tried.
+		 */
+		private double cost() {
+			return Double.longBitsToDouble(latencyEwma.get()) * (outstanding.get() + 1);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.emiperez.repeson.client.PendingRequestRegistry;
+
+import lombok.extern.java.Log;
+
+/**
+ * The requests sent over a multiplexed connection that wait for their
+ * response. It reads the ids of the messages and keeps the requests in a
+ * {@link PendingRequestRegistry}. Numeric ids and String ids are kept apart,
+ * so that {@code 1} and {@code "1"} are different requests, as the registry
+ * would otherwise read a numeric String as a number. A batch waits under the
+ * first id of its requests. A response with no id, which a server sends when it
+ * rejects a whole batch or a request it cannot read, is given to the oldest
+ * batch waiting or, if there is none, to every request waiting.
+ */
+@Log
+class PendingRequests {
+
+	private final PendingRequestRegistry<InputStream> numericIds = new PendingRequestRegistry<>();
+	private final PendingRequestRegistry<InputStream> stringIds = new PendingRequestRegistry<>();
+	private final AtomicInteger highWaterMark = new AtomicInteger();
+	private final Duration timeout;
+	private final Queue<CompletableFuture<InputStream>> batches = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param timeout the time to wait for each response, or null to wait
+	 *                indefinitely
+	 */
+	PendingRequests(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param request a request or a batch of requests
+	 * @return the future to be completed with the response. It is already
+	 *         completed if the request is a notification, and failed if its id
+	 *         cannot be read or another request with the same id is pending.
+	 */
+	CompletableFuture<InputStream> register(byte[] request) {
+		try {
+			Object id = JsonRpcIds.requestId(request);
+			if (id == null) {
+				// A notification, no response will come
+				return CompletableFuture.completedFuture(InputStream.nullInputStream());
+			}
+			CompletableFuture<InputStream> response = id instanceof Long
+					? numericIds.register((Long) id, timeout)
+					: stringIds.register((String) id, timeout);
+			highWaterMark.accumulateAndGet(size(), Math::max);
+			if (JsonRpcIds.isBatch(request)) {
+				batches.add(response);
+				response.whenComplete((r, e) -> batches.remove(response));
+			}
+			return response;
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		} catch (IllegalStateException e) {
+			return CompletableFuture.failedFuture(new IOException(e.getMessage()));
+		}
+	}
+
+	/**
+	 * Completes the request the response belongs to.
+	 *
+	 * @param response a response or a batch of responses
+	 */
+	void complete(byte[] response) {
+		try {
+			List<Object> ids = JsonRpcIds.responseIds(response);
+			for (Object id : ids) {
+				if (id instanceof Long ? numericIds.complete((Long) id, new ByteArrayInputStream(response))
+						: stringIds.complete((String) id, new ByteArrayInputStream(response))) {
+					return;
+				}
+			}
+			if (ids.isEmpty()) {
+				for (CompletableFuture<InputStream> batch = batches.poll(); batch != null; batch = batches.poll()) {
+					if (batch.complete(new ByteArrayInputStream(response))) {
+						return;
+					}
+				}
+				// The request it rejects cannot be told apart, so each one gets it rather
+				// than waiting for a response that will not come
+				int completed = numericIds.completeAll(() -> new ByteArrayInputStream(response))
+						+ stringIds.completeAll(() -> new ByteArrayInputStream(response));
+				if (completed > 0) {
+					log.fine(() -> "Response without id given to " + completed + " requests");
+					return;
+				}
+			}
+			log.fine(() -> "Response for no pending request: " + new String(response));
+		} catch (IOException e) {
+			log.warning("Unreadable message: " + e.getMessage());
+		}
+	}
+
+	void failAll(IOException cause) {
+		numericIds.failAll(cause);
+		stringIds.failAll(cause);
+	}
+
+	int size() {
+		return numericIds.getInFlight() + stringIds.getInFlight();
+	}
+
+	int highWaterMark() {
+		return highWaterMark.get();
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A response read whole into a heap buffer of a {@link BufferPool}. Closing the
+ * stream gives the buffer back to the pool, so it must be closed once read.
+ *
+ * <p>
+ * A reader that accepts an array, such as a JSON parser, can read the
+ * {@link #buffer() buffer} in place instead of copying it through the stream.
+ *
+ * @since 0.6
+ */
+public final class PooledInputStream extends InputStream {
+
+	private final BufferPool pool;
+	private ByteBuffer buffer;
+
+	/**
+	 * @param pool   the pool the buffer was acquired from
+	 * @param buffer a heap buffer whose unread bytes are between its position and
+	 *               its limit
+	 */
+	public PooledInputStream(BufferPool pool, ByteBuffer buffer) {
+		if (!buffer.hasArray()) {
+			throw new IllegalArgumentException("A heap buffer is required");
+		}
+		this.pool = pool;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return the buffer, whose unread bytes are between its position and its
+	 *         limit. It is valid until the stream is closed.
+	 * @throws IOException if the stream is closed
+	 */
+	public ByteBuffer buffer() throws IOException {
+		return open();
+	}
+
+	@Override
+	public int read() throws IOException {
+		ByteBuffer b = open();
+		return b.hasRemaining() ? b.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		ByteBuffer in = open();
+		if (len == 0) {
+			return 0;
+		}
+		if (!in.hasRemaining()) {
+			return -1;
+		}
+		int n = Math.min(len, in.remaining());
+		in.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public byte[] readAllBytes() throws IOException {
+		ByteBuffer in = open();
+		int start = in.arrayOffset() + in.position();
+		byte[] bytes = Arrays.copyOfRange(in.array(), start, start + in.remaining());
+		in.position(in.limit());
+		return bytes;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		ByteBuffer in = open();
+		int skipped = (int) Math.max(0, Math.min(n, in.remaining()));
+		in.position(in.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return open().remaining();
+	}
+
+	/**
+	 * Gives the buffer back to the pool. Closing it again has no effect.
+	 */
+	@Override
+	public void close() {
+		ByteBuffer b = buffer;
+		if (b != null) {
+			buffer = null;
+			pool.release(b);
+		}
+	}
+
+	private ByteBuffer open() throws IOException {
+		ByteBuffer b = buffer;
+		if (b == null) {
+			throw new IOException("Stream closed");
+		}
+		return b;
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a {@link GuardedTransport} does not send a request, because its
+ * circuit is open or too many requests are in flight. The request never left the
+ * client, so it is safe to send it again, through another endpoint or later.
+ */
+public class RejectedRequestException extends IOException {
+
+	public RejectedRequestException(String message) {
+		super(message);
+	}
+}
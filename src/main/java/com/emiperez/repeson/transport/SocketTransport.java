@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.java.Log;
+
+/**
+ * A Transport for JSON-RPC servers on the same host, that exchange one message
+ * per line over a plain TCP connection or a Unix domain socket, as the IPC mode
+ * of many nodes does. No HTTP is involved.
+ *
+ * <p>
+ * The connection is kept open and the requests are written without waiting for
+ * the previous responses, which are routed back by their {@code id}. If the
+ * connection is lost, the requests waiting for a response fail with an
+ * {@link IOException} and the next request opens a new one.
+ *
+ * <p>
+ * The requests are written from the calling thread, the responses are read by
+ * a daemon thread per connection. Both use a direct buffer, the one of the
+ * reader taken from {@link BufferPool#direct()}. The futures of the
+ * asynchronous requests are completed on an Executor, never on the reader, as
+ * a stage that sends another request would block it writing while the server
+ * may be waiting for it to read.
+ */
+@Log
+public class SocketTransport implements Transport, Closeable {
+
+	private SocketAddress address;
+	private int bufferSize = 64 * 1024;
+	private Executor executor;
+
+	private PendingRequests pending;
+	private final ReentrantLock lock = new ReentrantLock();
+	// Guarded by lock
+	private ByteBuffer writeBuffer;
+	// Guarded by lock
+	private SocketChannel channel;
+	private volatile boolean closed;
+
+	public static class Builder {
+
+		private SocketAddress address;
+		private int bufferSize = 64 * 1024;
+		private Duration requestTimeout;
+		private Executor executor;
+
+		private Builder() {
+		}
+
+		/**
+		 * Set the TCP address of the JSON-RPC server.
+		 *
+		 * @param host the host name or IP address of the server
+		 * @param port the port of the server
+		 * @return the Builder
+		 */
+		public Builder tcp(String host, int port) {
+			this.address = new InetSocketAddress(host, port);
+			return this;
+		}
+
+		/**
+		 * Set the path of the Unix domain socket of the JSON-RPC server. Unix domain
+		 * sockets need Java 16 or later.
+		 *
+		 * @param path the path of the socket file, for example ~/.ethereum/geth.ipc
+		 * @return the Builder
+		 * @throws UnsupportedOperationException if the JDK does not support Unix
+		 *                                       domain sockets
+		 */
+		public Builder unixSocket(Path path) {
+			this.address = unixDomainSocketAddress(path);
+			return this;
+		}
+
+		/**
+		 * Set the size of the direct buffers used to write the requests and read the
+		 * responses. Longer messages are written and read in several steps. The
+		 * default is 64 KiB.
+		 *
+		 * @param bufferSize the size in bytes of each buffer
+		 * @return the Builder
+		 */
+		public Builder bufferSize(int bufferSize) {
+			if (bufferSize < 1) {
+				throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+			}
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		/**
+		 * Set the time to wait for each response. When it expires, the request fails
+		 * with a TimeoutException. By default it waits indefinitely.
+		 *
+		 * @param requestTimeout the time to wait for each response
+		 * @return the Builder
+		 */
+		public Builder requestTimeout(Duration requestTimeout) {
+			this.requestTimeout = requestTimeout;
+			return this;
+		}
+
+		/**
+		 * Set the Executor that completes the responses of the asynchronous requests,
+		 * so that the stages that depend on them run on it. By default, the one of
+		 * the asynchronous methods of CompletableFuture.
+		 * 
+		 * @param executor the Executor, for example one of virtual threads
+		 * @return the Builder
+		 * @since 0.6
+		 */
+		public Builder executor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		public SocketTransport build() {
+			if (address == null) {
+				throw new IllegalStateException("The address of the server is required");
+			}
+			SocketTransport transport = new SocketTransport();
+			transport.address = address;
+			transport.bufferSize = bufferSize;
+			transport.executor = executor;
+			transport.pending = new PendingRequests(requestTimeout);
+			return transport;
+		}
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public InputStream send(String jsonRpcRequest) throws IOException, InterruptedException {
+		return send(jsonRpcRequest.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public InputStream send(byte[] jsonRpcRequest) throws IOException, InterruptedException {
+		try {
+			// Completed on the reader, as nothing depends on it
+			return transmit(jsonRpcRequest).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public CompletableFuture<InputStream> sendAsync(String jsonRpcRequest) {
+		return sendAsync(jsonRpcRequest.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes the request from the calling thread, so the returned future is
+	 * created once the request is on the wire.
+	 */
+	@Override
+	public CompletableFuture<InputStream> sendAsync(byte[] jsonRpcRequest) {
+		CompletableFuture<InputStream> response = transmit(jsonRpcRequest);
+		CompletableFuture<InputStream> completed = executor == null ? response.thenApplyAsync(r -> r)
+				: response.thenApplyAsync(r -> r, executor);
+		// A dependent future does not cancel its source, so the request stops waiting
+		// explicitly
+		completed.whenComplete((r, e) -> {
+			if (e instanceof CancellationException) {
+				response.cancel(true);
+			}
+		});
+		return completed;
+	}
+
+	/**
+	 * @return the future completed by the reader with the response
+	 */
+	private CompletableFuture<InputStream> transmit(byte[] jsonRpcRequest) {
+		lock.lock();
+		try {
+			if (closed) {
+				return CompletableFuture.failedFuture(new IOException("SocketTransport is closed"));
+			}
+			// Registered under the lock, so that a lost connection only fails its own
+			// requests
+			CompletableFuture<InputStream> response = pending.register(jsonRpcRequest);
+			if (response.isCompletedExceptionally()) {
+				return response;
+			}
+			SocketChannel current = null;
+			try {
+				current = channel();
+				write(current, jsonRpcRequest);
+			} catch (IOException e) {
+				response.completeExceptionally(e);
+				if (current != null) {
+					disconnected(current, e);
+				}
+			}
+			return response;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the connection. The requests waiting for a response fail.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			if (channel != null) {
+				closeQuietly(channel);
+				channel = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+		pending.failAll(new IOException("SocketTransport is closed"));
+	}
+
+	/**
+	 * @return the number of requests waiting for their response
+	 */
+	public int getPendingRequests() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the highest number of requests that have waited for their response
+	 *         at the same time
+	 */
+	public int getMaxPendingRequests() {
+		return pending.highWaterMark();
+	}
+
+	private SocketChannel channel() throws IOException {
+		if (channel == null) {
+			// Since Java 16 this also opens Unix domain sockets
+			SocketChannel opened = SocketChannel.open(address);
+			if (writeBuffer == null) {
+				writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+			}
+			Thread reader = new Thread(() -> read(opened), "repeson-socket-reader-" + address);
+			reader.setDaemon(true);
+			reader.start();
+			channel = opened;
+		}
+		return channel;
+	}
+
+	private void write(SocketChannel channel, byte[] request) throws IOException {
+		// Pretty printed JSON has line breaks between tokens. As JSON strings cannot
+		// contain them unescaped, they can be replaced with spaces.
+		for (byte b : request) {
+			if (b == '\n' || b == '\r') {
+				request = withoutLineBreaks(request);
+				break;
+			}
+		}
+		ByteBuffer buffer = writeBuffer;
+		buffer.clear();
+		int written = 0;
+		while (true) {
+			int n = Math.min(buffer.remaining(), request.length - written);
+			buffer.put(request, written, n);
+			written += n;
+			boolean last = written == request.length && buffer.hasRemaining();
+			if (last) {
+				buffer.put((byte) '\n');
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+			if (last) {
+				return;
+			}
+		}
+	}
+
+	private void read(SocketChannel channel) {
+		// Taken from the pool, so that reconnecting does not allocate direct memory
+		ByteBuffer buffer = BufferPool.direct().acquire(bufferSize);
+		byte[] line = new byte[bufferSize];
+		int lineLength = 0;
+		try {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				for (int i = buffer.position(); i < buffer.limit(); i++) {
+					if (buffer.get(i) == '\n') {
+						int length = i - buffer.position();
+						line = append(line, lineLength, buffer, length);
+						lineLength += length;
+						// The line break
+						buffer.get();
+						if (lineLength > 0) {
+							pending.complete(Arrays.copyOf(line, lineLength));
+						}
+						lineLength = 0;
+					}
+				}
+				int rest = buffer.remaining();
+				line = append(line, lineLength, buffer, rest);
+				lineLength += rest;
+				buffer.clear();
+			}
+			disconnected(channel, new IOException("Connection closed by the server: " + address));
+		} catch (IOException e) {
+			disconnected(channel, e);
+		} finally {
+			BufferPool.direct().release(buffer);
+		}
+	}
+
+	/**
+	 * Appends the next length bytes of the buffer to the line, growing it if
+	 * needed.
+	 */
+	private static byte[] append(byte[] line, int lineLength, ByteBuffer buffer, int length) {
+		if (lineLength + length > line.length) {
+			line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+		}
+		buffer.get(line, lineLength, length);
+		return line;
+	}
+
+	private void disconnected(SocketChannel lost, IOException cause) {
+		lock.lock();
+		try {
+			if (channel == lost) {
+				log.fine(() -> "Connection to " + address + " lost: " + cause);
+				channel = null;
+				pending.failAll(cause);
+			}
+		} finally {
+			lock.unlock();
+		}
+		closeQuietly(lost);
+	}
+
+	private static byte[] withoutLineBreaks(byte[] request) {
+		byte[] copy = request.clone();
+		for (int i = 0; i < copy.length; i++) {
+			if (copy[i] == '\n' || copy[i] == '\r') {
+				copy[i] = ' ';
+			}
+		}
+		return copy;
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.fine(() -> "Error closing the connection: " + e);
+		}
+	}
+
+	private static SocketAddress unixDomainSocketAddress(Path path) {
+		try {
+			// java.net.UnixDomainSocketAddress exists since Java 16
+			return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class)
+					.invoke(null, path);
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+			throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later", e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException(e.getCause());
+		}
+	}
+}
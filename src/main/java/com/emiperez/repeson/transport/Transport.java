@@ -17,6 +17,7 @@ package com.emiperez.repeson.transport;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -47,4 +48,30 @@ public interface Transport {
 	 */
 	CompletableFuture<InputStream> sendAsync(String jsonRpcRequest);
 
+	/**
+	 * Send a synchronous JSON-RPC Request, already encoded in UTF-8, and get the
+	 * Response as an InputStream. Transports that write bytes should override
+	 * this method to avoid decoding the request into a String.
+	 * 
+	 * @param jsonRpcRequest the JSON-RPC Request encoded in UTF-8
+	 * @return the JSON-RPC Response
+	 * @throws IOException          if an I/O error occurs when sending or receiving
+	 * @throws InterruptedException if the operation is interrupted
+	 */
+	default InputStream send(byte[] jsonRpcRequest) throws IOException, InterruptedException {
+		return send(new String(jsonRpcRequest, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Send an asynchronous JSON-RPC Request, already encoded in UTF-8, and get the
+	 * Response as an InputStream. Transports that write bytes should override
+	 * this method to avoid decoding the request into a String.
+	 * 
+	 * @param jsonRpcRequest the JSON-RPC Request encoded in UTF-8
+	 * @return the JSON-RPC Response
+	 */
+	default CompletableFuture<InputStream> sendAsync(byte[] jsonRpcRequest) {
+		return sendAsync(new String(jsonRpcRequest, StandardCharsets.UTF_8));
+	}
+
 }
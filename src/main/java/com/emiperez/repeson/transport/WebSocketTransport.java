@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.java.Log;
+
+/**
+ * A Transport that keeps a single WebSocket connection open and sends every
+ * request over it, without waiting for the previous responses. Each incoming
+ * message is routed to the request with the same JSON-RPC {@code id}, so the
+ * server may answer in any order.
+ *
+ * <p>
+ * When the connection is lost, the requests waiting for a response fail with
+ * an {@link IOException} and the connection is opened again, waiting an
+ * exponentially growing, randomized delay between attempts.
+ */
+@Log
+public class WebSocketTransport implements Transport, Closeable {
+
+	private HttpClient httpClient;
+	private URI uri = URI.create("ws://127.0.0.1:8080");
+	private Duration initialBackoff = Duration.ofMillis(100);
+	private Duration maxBackoff = Duration.ofSeconds(10);
+	private int maxReconnectAttempts = 5;
+
+	private PendingRequests pending;
+	private final ReentrantLock lock = new ReentrantLock();
+	// Guarded by lock
+	private CompletableFuture<WebSocket> connection;
+	// Guarded by lock. WebSocket allows only one outstanding send
+	private CompletableFuture<?> lastSend = CompletableFuture.completedFuture(null);
+	private volatile boolean closed;
+
+	public static class Builder {
+
+		private HttpClient httpClient;
+		private URI uri = URI.create("ws://127.0.0.1:8080");
+		private Duration initialBackoff = Duration.ofMillis(100);
+		private Duration maxBackoff = Duration.ofSeconds(10);
+		private int maxReconnectAttempts = 5;
+		private Duration requestTimeout;
+
+		private Builder() {
+		}
+
+		public Builder(HttpClient httpClient) {
+			this();
+			this.httpClient = httpClient;
+		}
+
+		/**
+		 * Set the URL of the JSON-RPC server. For example ws://127.0.0.1:8546
+		 *
+		 * @param uri the URL of the JSON-RPC server
+		 * @return the Builder
+		 */
+		public Builder uri(URI uri) {
+			this.uri = uri;
+			return this;
+		}
+
+		/**
+		 * Set the delays between the attempts to open the connection. The delay
+		 * doubles on each failed attempt, from the initial delay up to the maximum.
+		 *
+		 * @param initialBackoff the delay before the first reconnection attempt
+		 * @param maxBackoff     the maximum delay between attempts
+		 * @return the Builder
+		 */
+		public Builder reconnectBackoff(Duration initialBackoff, Duration maxBackoff) {
+			this.initialBackoff = initialBackoff;
+			this.maxBackoff = maxBackoff;
+			return this;
+		}
+
+		/**
+		 * Set how many times opening the connection is retried before the pending
+		 * requests fail. The next request starts the attempts again.
+		 *
+		 * @param maxReconnectAttempts the maximum number of retries
+		 * @return the Builder
+		 */
+		public Builder maxReconnectAttempts(int maxReconnectAttempts) {
+			this.maxReconnectAttempts = maxReconnectAttempts;
+			return this;
+		}
+
+		/**
+		 * Set the time to wait for each response. When it expires, the request fails
+		 * with a TimeoutException. By default it waits indefinitely.
+		 *
+		 * @param requestTimeout the time to wait for each response
+		 * @return the Builder
+		 */
+		public Builder requestTimeout(Duration requestTimeout) {
+			this.requestTimeout = requestTimeout;
+			return this;
+		}
+
+		public WebSocketTransport build() {
+			WebSocketTransport transport = new WebSocketTransport();
+			transport.httpClient = httpClient;
+			transport.uri = uri;
+			transport.initialBackoff = initialBackoff;
+			transport.maxBackoff = maxBackoff;
+			transport.maxReconnectAttempts = maxReconnectAttempts;
+			transport.pending = new PendingRequests(requestTimeout);
+			return transport;
+		}
+	}
+
+	public static Builder builder(HttpClient httpClient) {
+		return new Builder(httpClient);
+	}
+
+	@Override
+	public InputStream send(String jsonRpcRequest) throws IOException, InterruptedException {
+		return await(sendAsync(jsonRpcRequest));
+	}
+
+	@Override
+	public InputStream send(byte[] jsonRpcRequest) throws IOException, InterruptedException {
+		return await(sendAsync(jsonRpcRequest));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> sendAsync(String jsonRpcRequest) {
+		return sendAsync(jsonRpcRequest, jsonRpcRequest.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> sendAsync(byte[] jsonRpcRequest) {
+		return sendAsync(new String(jsonRpcRequest, StandardCharsets.UTF_8), jsonRpcRequest);
+	}
+
+	private CompletableFuture<InputStream> sendAsync(String text, byte[] bytes) {
+		lock.lock();
+		try {
+			if (closed) {
+				return CompletableFuture.failedFuture(new IOException("WebSocketTransport is closed"));
+			}
+			// Registered under the lock, so that a lost connection only fails its own
+			// requests
+			CompletableFuture<InputStream> response = pending.register(bytes);
+			if (response.isCompletedExceptionally()) {
+				return response;
+			}
+			CompletableFuture<WebSocket> webSocket = connection();
+			CompletableFuture<WebSocket> sent = lastSend.handle((r, e) -> null)
+					.thenCompose(ignored -> webSocket)
+					.thenCompose(ws -> ws.sendText(text, true));
+			sent.whenComplete((ws, e) -> {
+				if (e != null) {
+					response.completeExceptionally(e);
+				}
+			});
+			lastSend = sent;
+			return response;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the connection. The requests waiting for a response fail.
+	 */
+	@Override
+	public void close() {
+		CompletableFuture<WebSocket> current;
+		lock.lock();
+		try {
+			closed = true;
+			current = connection;
+			connection = null;
+		} finally {
+			lock.unlock();
+		}
+		if (current != null) {
+			current.thenAccept(ws -> ws.sendClose(WebSocket.NORMAL_CLOSURE, ""));
+		}
+		pending.failAll(new IOException("WebSocketTransport is closed"));
+	}
+
+	/**
+	 * @return the number of requests waiting for their response
+	 */
+	public int getPendingRequests() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the highest number of requests that have waited for their response
+	 *         at the same time
+	 */
+	public int getMaxPendingRequests() {
+		return pending.highWaterMark();
+	}
+
+	private CompletableFuture<WebSocket> connection() {
+		if (connection == null || connection.isCompletedExceptionally()) {
+			connection = connect(0);
+		}
+		return connection;
+	}
+
+	private CompletableFuture<WebSocket> connect(int attempt) {
+		return httpClient.newWebSocketBuilder().buildAsync(uri, new Listener())
+				.handle((ws, e) -> e == null ? CompletableFuture.completedFuture(ws) : retry(attempt, e))
+				.thenCompose(ws -> ws);
+	}
+
+	private CompletableFuture<WebSocket> retry(int attempt, Throwable cause) {
+		if (closed || attempt >= maxReconnectAttempts) {
+			return CompletableFuture.failedFuture(cause);
+		}
+		long delay = initialBackoff.toMillis() << Math.min(attempt, 30);
+		delay = Math.min(delay <= 0 ? Long.MAX_VALUE : delay, maxBackoff.toMillis());
+		delay = ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+		log.fine(() -> "Connection to " + uri + " failed, retrying: " + cause);
+		return CompletableFuture.runAsync(() -> {
+		}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)).thenCompose(v -> connect(attempt + 1));
+	}
+
+	private void disconnected(WebSocket webSocket, Throwable cause) {
+		IOException e = cause instanceof IOException ? (IOException) cause
+				: new IOException("WebSocket connection to " + uri + " lost", cause);
+		lock.lock();
+		try {
+			if (!closed && connection != null && connection.getNow(null) == webSocket) {
+				// The requests sent from now on go to the new connection
+				connection = connect(0);
+				pending.failAll(e);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static InputStream await(CompletableFuture<InputStream> response)
+			throws IOException, InterruptedException {
+		try {
+			return response.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private class Listener implements WebSocket.Listener {
+
+		private StringBuilder message = new StringBuilder();
+
+		@Override
+		public void onOpen(WebSocket webSocket) {
+			webSocket.request(1);
+		}
+
+		@Override
+		public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+			message.append(data);
+			if (last) {
+				String complete = message.toString();
+				message = new StringBuilder();
+				pending.complete(complete.getBytes(StandardCharsets.UTF_8));
+			}
+			webSocket.request(1);
+			return null;
+		}
+
+		@Override
+		public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+			disconnected(webSocket, new IOException("WebSocket closed by the server: " + statusCode + " " + reason));
+			return null;
+		}
+
+		@Override
+		public void onError(WebSocket webSocket, Throwable error) {
+			disconnected(webSocket, error);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors of virtual threads, to send blocking requests or to run the work of
+ * the asynchronous ones.
+ *
+ * <p>
+ * This is the version of the class for Java 21 or later, in the multi-release
+ * jar.
+ *
+ * @since 0.6
+ */
+public final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return whether virtual threads can be created in this JVM
+	 */
+	public static boolean isAvailable() {
+		return true;
+	}
+
+	/**
+	 * @return an ExecutorService that runs each task in a new virtual thread
+	 */
+	public static ExecutorService newExecutor() {
+		return Executors.newVirtualThreadPerTaskExecutor();
+	}
+}
@@ -1,8 +1,14 @@
 package com.emiperez.commons.json.apiselector;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -10,6 +16,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import com.emiperez.repeson.client.JsonRpcException;
+import com.emiperez.repeson.client.ResultType;
 
 import lombok.extern.java.Log;
 
@@ -41,12 +48,62 @@ class JacksonJsonMapperTest {
 		assertEquals(json, "[1,\"pojo\",[1,2]]");
 	}
 
+	@Test
+	void testSerializeToStream() throws JsonRpcException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		mapper.serialize(pojo, out);
+		out.write(',');
+		mapper.serializeAsArray(pojo, out);
+		assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8),
+				"{\"id\":1,\"name\":\"pojo\",\"list\":[1,2]},[1,\"pojo\",[1,2]]");
+	}
+
+	@Test
+	void testSerializeAsArrayWriterCached() throws JsonRpcException {
+		JacksonJsonMapper cachingMapper = new JacksonJsonMapper(1);
+		cachingMapper.serializeAsArray(pojo);
+		cachingMapper.serializeAsArray(pojo);
+		assertEquals(cachingMapper.getArrayWriterCacheMisses(), 1);
+		assertEquals(cachingMapper.getArrayWriterCacheHits(), 1);
+		assertEquals(cachingMapper.serializeAsArray(List.of(3, 4)), "[3,4]");
+		assertEquals(cachingMapper.getArrayWriterCacheEvictions(), 1);
+		assertEquals(cachingMapper.serializeAsArray(pojo), "[1,\"pojo\",[1,2]]");
+		assertEquals(cachingMapper.getArrayWriterCacheMisses(), 3);
+	}
+
 	@Test
 	void testDeserialize() throws IOException {
 		Pojo dPojo = mapper.deserialize("{\"id\":1,\"name\":\"pojo\",\"list\":[1,2]}", Pojo.class);
 		assertEquals(pojo, dPojo);
 	}
-	
-	
+
+	@Test
+	void testDeserializeGenericType() throws IOException {
+		String json = "[{\"id\":1,\"name\":\"pojo\",\"list\":[1,2]}]";
+		List<Pojo> pojos = mapper.deserialize(new ByteArrayInputStream(json.getBytes()),
+				new ResultType<List<Pojo>>() {
+				}.getType());
+		assertEquals(pojos, List.of(pojo));
+	}
+
+	@Test
+	void testReadFieldsKeepsRawValues() throws IOException {
+		byte[] json = "{\"s\" : \"a\\\"b\" , \"n\":-1.5e3,\"z\":null,\"p\":{\"id\":1,\"name\":\"pojo\",\"list\":[1,2]}}"
+				.getBytes(StandardCharsets.UTF_8);
+		Map<String, RawJson> fields = mapper.readFields(json);
+		assertEquals(fields.get("s").toString(), "\"a\\\"b\"");
+		assertEquals(fields.get("n").toString(), "-1.5e3");
+		assertTrue(fields.get("z").isNull());
+		assertEquals(fields.get("p").<Pojo>as(Pojo.class), pojo);
+	}
+
+	@Test
+	void testCanonicalizeSortsFields() throws IOException {
+		JsonMapper api = new JacksonJsonMapper();
+		byte[] a = api.canonicalize("{ \"b\": [1, {\"y\":2, \"x\":1.50}], \"a\": null }".getBytes(StandardCharsets.UTF_8));
+		byte[] b = api.canonicalize("{\"a\":null,\"b\":[1,{\"x\":1.50,\"y\":2}]}".getBytes(StandardCharsets.UTF_8));
+		assertEquals(new String(a, StandardCharsets.UTF_8), "{\"a\":null,\"b\":[1,{\"x\":1.50,\"y\":2}]}");
+		assertEquals(new String(b, StandardCharsets.UTF_8), new String(a, StandardCharsets.UTF_8));
+	}
 
 }
@@ -6,12 +6,24 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -20,14 +32,20 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
 
+import com.emiperez.repeson.client.HedgingPolicy;
 import com.emiperez.repeson.client.JsonRpcClient;
 import com.emiperez.repeson.client.JsonRpcException;
 import com.emiperez.repeson.client.JsonRpcRequest;
 import com.emiperez.repeson.client.JsonRpcResponse;
 import com.emiperez.repeson.client.JsonRpcResponseError;
 import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.ResponseCache;
+import com.emiperez.repeson.client.ResultType;
+import com.emiperez.repeson.client.RetryPolicy;
 import com.emiperez.repeson.transport.MockTransport;
 import com.emiperez.repeson.transport.Transport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import lombok.Getter;
 import lombok.extern.java.Log;
@@ -36,6 +54,8 @@ import lombok.extern.java.Log;
 @Log
 public class JsonRpcClientTest {
 
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
 	private JsonRpcClient client;
 
 	@BeforeAll
@@ -152,4 +172,597 @@ public class JsonRpcClientTest {
 		assertEquals(response3.getError().getMessage(), "Error Message");
 		assertEquals(response3.getError().getCode(), -1);
 	}
+
+	@Test
+	public void whenBatchResponsesReorderedMatchByIdTest() throws IOException, InterruptedException, JsonRpcException {
+		List<JsonRpcRequest> requests = List.of(
+				JsonRpcRequest.builder().id("1").jsonrpc(JsonRpcVersion.v2_0).method("getinteger").build(),
+				JsonRpcRequest.builder().id("2").jsonrpc(JsonRpcVersion.v2_0).method("getintegers").build(),
+				JsonRpcRequest.builder().id("3").jsonrpc(JsonRpcVersion.v2_0).method("geterror").build());
+		List<JsonRpcResponse<Object>> responses = client.sendBatch(requests);
+		assertEquals(responses.size(), 3);
+		assertEquals(responses.get(0).getId(), "1");
+		assertEquals(responses.get(0).getResult(), 19);
+		assertEquals(responses.get(1).getId(), "2");
+		assertEquals(responses.get(1).getResult(), List.of(19, 4, 7));
+		assertEquals(responses.get(2).getId(), "3");
+		assertTrue(responses.get(2).hasError());
+		assertEquals(responses.get(2).getError().getCode(), -1);
+	}
+
+	@Test
+	public void whenBatchAsyncTest() throws JsonRpcException, InterruptedException, ExecutionException {
+		List<JsonRpcRequest> requests = List.of(
+				JsonRpcRequest.builder().id("2").jsonrpc(JsonRpcVersion.v2_0).method("getintegers").build(),
+				JsonRpcRequest.builder().id("1").jsonrpc(JsonRpcVersion.v2_0).method("getinteger").build());
+		List<JsonRpcResponse<Object>> responses = client.<Object>sendBatchAsync(requests).get();
+		assertEquals(responses.get(0).getId(), "2");
+		assertEquals(responses.get(0).getResult(), List.of(19, 4, 7));
+		assertEquals(responses.get(1).getId(), "1");
+		assertEquals(responses.get(1).getResult(), 19);
+		assertThrows(JsonRpcException.class, () -> client.sendBatch(List.of()));
+	}
+
+	@Test
+	public void whenMicroBatchingFullBatchSentOnceTest() throws JsonRpcException {
+		MockTransport transport = new MockTransport();
+		JsonRpcClient batchingClient = JsonRpcClient.builder().transport(transport).microBatching(3, 10_000_000)
+				.build();
+		CompletableFuture<JsonRpcResponse<Integer>> cresponse1 = batchingClient
+				.sendAsync(JsonRpcRequest.builder().id("1").method("getinteger").build());
+		CompletableFuture<JsonRpcResponse<List<Integer>>> cresponse2 = batchingClient
+				.sendAsync(JsonRpcRequest.builder().id("2").method("getintegers").build());
+		assertFalse(cresponse1.isDone());
+		CompletableFuture<JsonRpcResponse<Integer>> cresponse3 = batchingClient
+				.sendAsync(JsonRpcRequest.builder().id("3").method("geterror").build());
+		CompletableFuture.allOf(cresponse1, cresponse2, cresponse3).join();
+		assertEquals(transport.getCalls(), 1);
+		assertEquals(cresponse1.join().getResult(), 19);
+		assertEquals(cresponse2.join().getResult(), List.of(19, 4, 7));
+		assertEquals(cresponse3.join().getError().getCode(), -1);
+	}
+
+	@Test
+	public void whenMicroBatchingWindowExpiresTest() throws JsonRpcException {
+		MockTransport transport = new MockTransport();
+		JsonRpcClient batchingClient = JsonRpcClient.builder().transport(transport).microBatching(100, 1000).build();
+		CompletableFuture<JsonRpcResponse<Integer>> cresponse1 = batchingClient
+				.sendAsync(JsonRpcRequest.builder().id("1").method("getinteger").build());
+		CompletableFuture<JsonRpcResponse<Integer>> cresponse2 = batchingClient
+				.sendAsync(JsonRpcRequest.builder().id("1").method("getinteger").build());
+		CompletableFuture.allOf(cresponse1, cresponse2).join();
+		assertEquals(transport.getCalls(), 2);
+		assertEquals(cresponse1.join().getResult(), 19);
+		assertEquals(cresponse2.join().getResult(), 19);
+	}
+
+	@Test
+	public void whenMicroBatchingSyncRequestWithRetryNotDelayedTest()
+			throws IOException, InterruptedException, JsonRpcException {
+		MockTransport transport = new MockTransport();
+		JsonRpcClient batchingClient = JsonRpcClient.builder().transport(transport).microBatching(100, 10_000_000)
+				.retryPolicy("getinteger", RetryPolicy.builder().maxAttempts(2).build()).build();
+		long start = System.nanoTime();
+		JsonRpcResponse<Integer> response = batchingClient
+				.send(JsonRpcRequest.builder().id("1").method("getinteger").build());
+		assertEquals(response.getResult(), 19);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(transport.getCalls(), 1);
+	}
+
+	@Test
+	public void whenResultTypeBindsGenericResultTest() throws IOException, InterruptedException, JsonRpcException {
+		ResultType<List<Long>> longs = new ResultType<List<Long>>() {
+		};
+		JsonRpcResponse<List<Long>> response = client
+				.send(JsonRpcRequest.builder().id("2").method("getintegers").build(), longs);
+		assertEquals(response.getResult(), List.of(19L, 4L, 7L));
+		JsonRpcResponse<Long> async = client
+				.sendAsync(JsonRpcRequest.builder().id("1").method("getinteger").build(), ResultType.of(Long.class))
+				.join();
+		assertEquals(async.getResult(), 19L);
+	}
+
+	@Test
+	public void whenMicroBatchingResultTypeTest() throws JsonRpcException {
+		JsonRpcClient batchingClient = JsonRpcClient.builder().transport(new MockTransport())
+				.microBatching(2, 10_000_000).build();
+		CompletableFuture<JsonRpcResponse<List<Long>>> cresponse1 = batchingClient.sendAsync(
+				JsonRpcRequest.builder().id("2").method("getintegers").build(), new ResultType<List<Long>>() {
+				});
+		CompletableFuture<JsonRpcResponse<Long>> cresponse2 = batchingClient
+				.sendAsync(JsonRpcRequest.builder().id("1").method("getinteger").build(), ResultType.of(Long.class));
+		assertEquals(cresponse1.join().getResult(), List.of(19L, 4L, 7L));
+		assertEquals(cresponse2.join().getResult(), 19L);
+	}
+
+	@Test
+	public void whenMicroBatchingLazyResultsTest() throws JsonRpcException {
+		JsonRpcClient batchingClient = JsonRpcClient.builder().transport(new MockTransport())
+				.microBatching(2, 10_000_000).lazyResults(true).build();
+		CompletableFuture<JsonRpcResponse<Integer>> mistyped = batchingClient.sendAsync(
+				JsonRpcRequest.builder().id("2").method("getintegers").build(), ResultType.of(Integer.class));
+		CompletableFuture<JsonRpcResponse<Long>> cresponse = batchingClient
+				.sendAsync(JsonRpcRequest.builder().id("1").method("getinteger").build(), ResultType.of(Long.class));
+		assertEquals(cresponse.join().getResult(), 19L);
+		// The result is only bound when it is read
+		JsonRpcResponse<Integer> lazy = mistyped.join();
+		assertEquals(lazy.getId(), "2");
+		assertThrows(UncheckedIOException.class, lazy::getResult);
+	}
+
+	@Test
+	public void whenMicroBatchRejectedWithSingleErrorThenEachFailsWithItTest() throws JsonRpcException {
+		JsonRpcClient batchingClient = JsonRpcClient.builder().transport(new Transport() {
+
+			@Override
+			public InputStream send(String request) {
+				return new ByteArrayInputStream(
+						"{\"id\":null,\"error\":{\"code\":-32600,\"message\":\"Batches not supported\"}}".getBytes());
+			}
+
+			@Override
+			public CompletableFuture<InputStream> sendAsync(String request) {
+				return CompletableFuture.completedFuture(send(request));
+			}
+		}).microBatching(2, 10_000_000).build();
+		List<CompletableFuture<JsonRpcResponse<Integer>>> responses = List.of(
+				batchingClient.sendAsync(JsonRpcRequest.builder().id("1").method("getinteger").build()),
+				batchingClient.sendAsync(JsonRpcRequest.builder().id("2").method("getinteger").build()));
+		for (CompletableFuture<JsonRpcResponse<Integer>> response : responses) {
+			ExecutionException e = assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+			assertEquals(((JsonRpcException) e.getCause()).getError().getCode(), -32600);
+		}
+	}
+
+	@Test
+	public void whenNumericIdsThenSentAsNumbersAndMatchedTest() throws Exception {
+		List<String> sent = new CopyOnWriteArrayList<>();
+		JsonRpcClient numericClient = JsonRpcClient.builder().transport(new Transport() {
+
+			@Override
+			public InputStream send(String request) throws IOException {
+				sent.add(request);
+				// Answers the batch in reverse order, each request with its id as result
+				ArrayNode responses = MAPPER.createArrayNode();
+				MAPPER.readTree(request).forEach(r -> responses.insertObject(0).setAll(
+						Map.of("id", r.get("id"), "result", r.get("id"))));
+				return new ByteArrayInputStream(MAPPER.writeValueAsBytes(responses));
+			}
+
+			@Override
+			public CompletableFuture<InputStream> sendAsync(String request) {
+				try {
+					return CompletableFuture.completedFuture(send(request));
+				} catch (IOException e) {
+					return CompletableFuture.failedFuture(e);
+				}
+			}
+		}).build();
+		List<JsonRpcRequest> requests = List.of(
+				JsonRpcRequest.builder().id(7L).method("getinteger").build(),
+				JsonRpcRequest.builder().id(-8L).method("getinteger").build(),
+				JsonRpcRequest.builder().id(9L).method("getinteger").build());
+		List<JsonRpcResponse<Object>> responses = numericClient.sendBatch(requests);
+		assertTrue(sent.get(0).startsWith("[{\"jsonrpc\":\"2.0\",\"id\":7,"), sent.get(0));
+		assertEquals(responses.get(0).getNumericId(), 7L);
+		assertEquals(responses.get(1).getNumericId(), -8L);
+		assertEquals(responses.get(2).getNumericId(), 9L);
+		assertTrue(responses.get(2).hasNumericId());
+		assertEquals(responses.get(2).getId(), "9");
+	}
+
+	@Test
+	public void whenNumericIdThenReadAsNumberTest() throws IOException {
+		String json = "{\"id\":12,\"result\":19}";
+		JsonRpcResponse<Integer> eager = JsonRpcResponse.of(new ByteArrayInputStream(json.getBytes()),
+				ResultType.of(Integer.class));
+		assertTrue(eager.hasNumericId());
+		assertEquals(eager.getNumericId(), 12L);
+		assertEquals(eager.getId(), "12");
+		JsonRpcResponse<Integer> lazy = JsonRpcResponse.lazy(new ByteArrayInputStream(json.getBytes()),
+				ResultType.of(Integer.class));
+		assertTrue(lazy.hasNumericId());
+		assertEquals(lazy.getNumericId(), 12L);
+
+		JsonRpcResponse<Integer> stringId = JsonRpcResponse.lazy(
+				new ByteArrayInputStream("{\"id\":\"12\",\"result\":19}".getBytes()), ResultType.of(Integer.class));
+		assertFalse(stringId.hasNumericId());
+		assertEquals(stringId.getId(), "12");
+		stringId.setNumericId(13);
+		assertEquals(stringId.getId(), "13");
+	}
+
+	public static class LongsResponse extends JsonRpcResponse<List<Long>> {
+	}
+
+	@Test
+	public void whenLazyResultsMaterializedOnAccessTest() throws IOException, InterruptedException, JsonRpcException {
+		JsonRpcClient lazyClient = JsonRpcClient.builder().transport(new MockTransport()).lazyResults(true).build();
+		JsonRpcResponse<List<Long>> response = lazyClient
+				.send(JsonRpcRequest.builder().id("2").method("getintegers").build(), new ResultType<List<Long>>() {
+				});
+		assertEquals(response.getId(), "2");
+		assertTrue(response.hasResult());
+		assertFalse(response.hasError());
+		assertEquals(response.getResult(), List.of(19L, 4L, 7L));
+
+		LongsResponse subclassed = lazyClient.send(JsonRpcRequest.builder().id("2").method("getintegers").build(),
+				LongsResponse.class);
+		assertEquals(subclassed.getResult(), List.of(19L, 4L, 7L));
+
+		JsonRpcResponse<Integer> error = lazyClient
+				.<Integer>sendAsync(JsonRpcRequest.builder().id("3").method("geterror").build()).join();
+		assertFalse(error.hasResult());
+		assertNull(error.getResult());
+		assertEquals(error.getError().getCode(), -1);
+		assertEquals(error.getId(), "3");
+	}
+
+	@Test
+	public void whenStreamResultElementsTest() throws IOException, InterruptedException, JsonRpcException {
+		ResultType<Long> longs = ResultType.of(Long.class);
+		try (Stream<Long> elements = client.streamResult(JsonRpcRequest.builder().id("4").method("getintegers")
+				.params(Map.of("page", 1, "rows", 10)).build(), longs)) {
+			assertEquals(elements.mapToLong(Long::longValue).sum(), 55L);
+		}
+		List<Long> consumed = new ArrayList<>();
+		client.forEachResult(JsonRpcRequest.builder().id("2").method("getintegers").build(), longs, consumed::add);
+		assertEquals(consumed, List.of(19L, 4L, 7L));
+		JsonRpcException e = assertThrows(JsonRpcException.class,
+				() -> client.streamResult(JsonRpcRequest.builder().id("3").method("geterror").build(), longs));
+		assertEquals(e.getError().getCode(), -1);
+	}
+
+	@Test
+	public void whenCachedMethodThenTransportSkippedTest() throws IOException, InterruptedException, JsonRpcException {
+		MockTransport transport = new MockTransport();
+		ResponseCache cache = ResponseCache.builder().method("getintegers").method("geterror").build();
+		JsonRpcClient cachingClient = JsonRpcClient.builder().transport(transport).responseCache(cache).build();
+		ResultType<List<Integer>> integers = new ResultType<List<Integer>>() {
+		};
+		Map<String, Integer> params = new LinkedHashMap<>();
+		params.put("page", 1);
+		params.put("rows", 10);
+		JsonRpcResponse<List<Integer>> first = cachingClient
+				.send(JsonRpcRequest.builder().id("4").method("getintegers").params(params).build(), integers);
+		Map<String, Integer> reordered = new LinkedHashMap<>();
+		reordered.put("rows", 10);
+		reordered.put("page", 1);
+		JsonRpcResponse<List<Integer>> second = cachingClient
+				.sendAsync(JsonRpcRequest.builder().id("9").method("getintegers").params(reordered).build(), integers)
+				.join();
+		assertEquals(second.getResult(), first.getResult());
+		assertEquals(second.getId(), "9");
+		assertEquals(transport.getCalls(), 1);
+
+		// Other params, other method and errors are not taken from the cache
+		cachingClient.send(JsonRpcRequest.builder().id("2").method("getintegers").build(), integers);
+		cachingClient.send(JsonRpcRequest.builder().id("1").method("getinteger").build(), ResultType.of(Integer.class));
+		cachingClient.send(JsonRpcRequest.builder().id("3").method("geterror").build(), integers);
+		JsonRpcResponse<List<Integer>> error = cachingClient
+				.send(JsonRpcRequest.builder().id("3").method("geterror").build(), integers);
+		assertTrue(error.hasError());
+		assertEquals(transport.getCalls(), 5);
+		assertEquals(cache.getHits(), 1L);
+		assertEquals(cache.getMisses(), 4L);
+		assertEquals(cache.getHitRate(), 0.2);
+		assertEquals(cache.size(), 2);
+	}
+
+	@Test
+	public void whenCachedResponseExpiresOrEvictedThenSentAgainTest() throws Exception {
+		MockTransport transport = new MockTransport();
+		ResponseCache cache = ResponseCache.builder().method("getinteger", Duration.ofMillis(1))
+				.method("getintegers").maximumSize(1).build();
+		JsonRpcClient cachingClient = JsonRpcClient.builder().transport(transport).responseCache(cache).build();
+		JsonRpcRequest integer = JsonRpcRequest.builder().id("1").method("getinteger").build();
+		JsonRpcRequest integers = JsonRpcRequest.builder().id("2").method("getintegers").build();
+		cachingClient.send(integer, ResultType.of(Integer.class));
+		Thread.sleep(5);
+		cachingClient.send(integer, ResultType.of(Integer.class));
+		assertEquals(transport.getCalls(), 2);
+		cachingClient.send(integers, ResultType.of(Object.class));
+		cachingClient.send(integers, ResultType.of(Object.class));
+		assertEquals(transport.getCalls(), 3);
+		assertEquals(cache.getEvictions(), 2L);
+		assertEquals(cache.size(), 1);
+	}
+
+	@Test
+	public void whenCoalescedThenOneRequestInFlightTest() throws Exception {
+		List<CompletableFuture<InputStream>> sent = new CopyOnWriteArrayList<>();
+		JsonRpcClient coalescingClient = JsonRpcClient.builder().transport(heldTransport(sent)).coalesce("getinteger")
+				.build();
+		ResultType<Integer> integer = ResultType.of(Integer.class);
+		List<CompletableFuture<JsonRpcResponse<Integer>>> responses = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			responses.add(coalescingClient.sendAsync(JsonRpcRequest.builder().id("c" + i).method("getinteger").build(),
+					integer));
+		}
+		responses.get(1).cancel(true);
+		coalescingClient.sendAsync(JsonRpcRequest.builder().id("x").method("getintegers").build(), integer);
+		assertEquals(sent.size(), 2);
+		assertEquals(coalescingClient.getCoalescedRequests(), 49L);
+
+		sent.get(0).complete(new ByteArrayInputStream("{\"id\":\"c0\",\"result\":19}".getBytes()));
+		for (int i = 0; i < 50; i++) {
+			if (i != 1) {
+				JsonRpcResponse<Integer> response = responses.get(i).join();
+				assertEquals(response.getResult(), 19);
+				assertEquals(response.getId(), "c" + i);
+			}
+		}
+		// Once the response has arrived, the next request is sent
+		coalescingClient.sendAsync(JsonRpcRequest.builder().id("y").method("getinteger").build(), integer);
+		assertEquals(sent.size(), 3);
+	}
+
+	@Test
+	public void whenSlowThenHedgedAndLoserCancelledTest() throws Exception {
+		List<CompletableFuture<InputStream>> sent = new CopyOnWriteArrayList<>();
+		HedgingPolicy hedging = HedgingPolicy.builder().method("getinteger")
+				.delay(Duration.ofMillis(20), Duration.ofMillis(1)).budget(0, 1).build();
+		JsonRpcClient hedgingClient = JsonRpcClient.builder().transport(heldTransport(sent)).hedgingPolicy(hedging)
+				.build();
+		ResultType<Integer> integer = ResultType.of(Integer.class);
+		CompletableFuture<JsonRpcResponse<Integer>> first = hedgingClient
+				.sendAsync(JsonRpcRequest.builder().id("h1").method("getinteger").build(), integer);
+		awaitSize(sent, 2);
+		sent.get(1).complete(new ByteArrayInputStream("{\"id\":\"h1\",\"result\":19}".getBytes()));
+		assertEquals(first.join().getResult(), 19);
+		assertTrue(sent.get(0).isCancelled());
+		assertEquals(hedging.getHedges(), 1L);
+		assertEquals(hedging.getHedgeWins(), 1L);
+
+		// The budget allowed a single copy
+		CompletableFuture<JsonRpcResponse<Integer>> second = hedgingClient
+				.sendAsync(JsonRpcRequest.builder().id("h2").method("getinteger").build(), integer);
+		awaitSize(sent, 3);
+		long deadline = System.nanoTime() + 2_000_000_000L;
+		while (hedging.getBudgetExhausted() == 0 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(hedging.getBudgetExhausted(), 1L);
+		sent.get(2).complete(new ByteArrayInputStream("{\"id\":\"h2\",\"result\":7}".getBytes()));
+		assertEquals(second.join().getResult(), 7);
+		assertEquals(sent.size(), 3);
+		assertEquals(hedging.getRequests(), 2L);
+	}
+
+	@Test
+	public void whenFastThenNotHedgedTest() throws Exception {
+		HedgingPolicy hedging = HedgingPolicy.builder().method("getinteger").build();
+		MockTransport transport = new MockTransport();
+		JsonRpcClient hedgingClient = JsonRpcClient.builder().transport(transport).hedgingPolicy(hedging).build();
+		JsonRpcRequest request = JsonRpcRequest.builder().id("1").method("getinteger").build();
+		assertEquals(hedgingClient.send(request, ResultType.of(Integer.class)).getResult(), 19);
+		assertEquals(transport.getCalls(), 1);
+		assertEquals(hedging.getHedges(), 0L);
+	}
+
+	private static Transport heldTransport(List<CompletableFuture<InputStream>> sent) {
+		return new Transport() {
+			@Override
+			public InputStream send(String request) {
+				return sendAsync(request).join();
+			}
+
+			@Override
+			public CompletableFuture<InputStream> sendAsync(String request) {
+				CompletableFuture<InputStream> response = new CompletableFuture<>();
+				sent.add(response);
+				return response;
+			}
+		};
+	}
+
+	private static void awaitSize(List<?> list, int size) throws InterruptedException {
+		long deadline = System.nanoTime() + 2_000_000_000L;
+		while (list.size() < size && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(list.size(), size);
+	}
+
+	@Test
+	public void whenTransportFailsThenRetriedTest() throws Exception {
+		List<Object> replies = new CopyOnWriteArrayList<>(List.of(new IOException("Connection reset"),
+				"<html>503 Service Unavailable</html>", "{\"id\":\"1\",\"result\":19}"));
+		RetryPolicy retry = RetryPolicy.builder().backoff(Duration.ofMillis(1), Duration.ofMillis(5)).build();
+		JsonRpcClient retryingClient = JsonRpcClient.builder().transport(scriptedTransport(replies))
+				.retryPolicy("getinteger", retry).build();
+		JsonRpcRequest request = JsonRpcRequest.builder().id("1").method("getinteger").build();
+		assertEquals(retryingClient.send(request, ResultType.of(Integer.class)).getResult(), 19);
+		assertEquals(retry.getRetries(), 2L);
+		assertTrue(replies.isEmpty());
+	}
+
+	@Test
+	public void whenResultCannotBeBoundThenNotRetriedTest() throws Exception {
+		List<Object> replies = new CopyOnWriteArrayList<>(
+				List.of("{\"id\":\"1\",\"result\":\"nineteen\"}", "{\"id\":\"1\",\"result\":19}"));
+		RetryPolicy retry = RetryPolicy.builder().backoff(Duration.ofMillis(1), Duration.ofMillis(5)).build();
+		JsonRpcClient retryingClient = JsonRpcClient.builder().transport(scriptedTransport(replies))
+				.retryPolicy("getinteger", retry).build();
+		JsonRpcRequest request = JsonRpcRequest.builder().id("1").method("getinteger").build();
+		assertThrows(IOException.class, () -> retryingClient.send(request, ResultType.of(Integer.class)));
+		assertEquals(retry.getRetries(), 0L);
+		assertEquals(replies.size(), 1);
+	}
+
+	@Test
+	public void whenErrorCodeRetryableThenRetriedTest() throws Exception {
+		List<Object> replies = new CopyOnWriteArrayList<>(
+				List.of("{\"id\":\"1\",\"error\":{\"code\":-32000,\"message\":\"busy\"}}",
+						"{\"id\":\"1\",\"error\":{\"code\":-32601,\"message\":\"Method not found\"}}"));
+		RetryPolicy retry = RetryPolicy.builder().backoff(Duration.ofMillis(1), Duration.ofMillis(5))
+				.retryOnErrorCodes(-32000).build();
+		JsonRpcClient retryingClient = JsonRpcClient.builder().transport(scriptedTransport(replies))
+				.retryPolicy("getinteger", retry).build();
+		JsonRpcRequest request = JsonRpcRequest.builder().id("1").method("getinteger").build();
+		JsonRpcResponse<Integer> response = retryingClient.sendAsync(request, ResultType.of(Integer.class)).get();
+		assertEquals(response.getError().getCode(), -32601);
+		assertEquals(retry.getRetries(), 1L);
+	}
+
+	@Test
+	public void whenNotIdempotentThenTransportFailureNotRetriedTest() throws Exception {
+		List<Object> replies = new CopyOnWriteArrayList<>(
+				List.of(new IOException("Connection reset"), "{\"id\":\"1\",\"result\":19}"));
+		RetryPolicy retry = RetryPolicy.builder().retryOnTransportFailure(false).build();
+		JsonRpcClient retryingClient = JsonRpcClient.builder().transport(scriptedTransport(replies))
+				.retryPolicy("sendtransaction", retry).build();
+		JsonRpcRequest request = JsonRpcRequest.builder().id("1").method("sendtransaction").build();
+		assertThrows(IOException.class, () -> retryingClient.send(request, ResultType.of(Integer.class)));
+		assertEquals(replies.size(), 1);
+	}
+
+	@Test
+	public void whenAttemptsTimeOutThenRetriedWithinBudgetTest() throws Exception {
+		List<CompletableFuture<InputStream>> sent = new CopyOnWriteArrayList<>();
+		RetryPolicy retry = RetryPolicy.builder().deadline(Duration.ofMillis(200)).attemptTimeout(Duration.ofMillis(50))
+				.maxAttempts(100).backoff(Duration.ofMillis(1), Duration.ofMillis(1)).budget(0, 2).build();
+		JsonRpcClient retryingClient = JsonRpcClient.builder().transport(heldTransport(sent))
+				.retryPolicy("getinteger", retry).build();
+		JsonRpcRequest request = JsonRpcRequest.builder().id("1").method("getinteger").build();
+		ExecutionException e = assertThrows(ExecutionException.class,
+				() -> retryingClient.sendAsync(request, ResultType.of(Integer.class)).get());
+		assertTrue(e.getCause() instanceof TimeoutException);
+		// The first attempt and the two retries of the budget timed out
+		assertEquals(sent.size(), 3);
+		assertEquals(retry.getRetries(), 2L);
+		assertEquals(retry.getBudgetExhausted(), 1L);
+	}
+
+	@Test
+	public void whenDeadlineExpiresThenTimeoutTest() throws Exception {
+		List<CompletableFuture<InputStream>> sent = new CopyOnWriteArrayList<>();
+		RetryPolicy retry = RetryPolicy.builder().deadline(Duration.ofMillis(50)).build();
+		JsonRpcClient retryingClient = JsonRpcClient.builder().transport(heldTransport(sent))
+				.retryPolicy("getinteger", retry).build();
+		JsonRpcRequest request = JsonRpcRequest.builder().id("1").method("getinteger").build();
+		IOException e = assertThrows(IOException.class,
+				() -> retryingClient.send(request, ResultType.of(Integer.class)));
+		assertTrue(e.getCause() instanceof TimeoutException);
+		assertEquals(sent.size(), 1);
+		assertEquals(retry.getTimeouts(), 1L);
+	}
+
+	/**
+	 * Replies with each String, or fails with each IOException, in turn.
+	 */
+	private static Transport scriptedTransport(List<Object> replies) {
+		return new Transport() {
+			@Override
+			public InputStream send(String request) {
+				return sendAsync(request).join();
+			}
+
+			@Override
+			public CompletableFuture<InputStream> sendAsync(String request) {
+				Object reply = replies.remove(0);
+				if (reply instanceof IOException) {
+					return CompletableFuture.failedFuture((IOException) reply);
+				}
+				return CompletableFuture.completedFuture(new ByteArrayInputStream(((String) reply).getBytes()));
+			}
+		};
+	}
+
+	@Test
+	public void whenPublisherThenBoundedInFlightTest() throws Exception {
+		List<CompletableFuture<InputStream>> sent = new CopyOnWriteArrayList<>();
+		JsonRpcClient flowClient = JsonRpcClient.builder().transport(heldTransport(sent)).build();
+		List<JsonRpcResponse<Integer>> received = new CopyOnWriteArrayList<>();
+		CompletableFuture<Void> completed = new CompletableFuture<>();
+		Flow.Subscription[] subscription = new Flow.Subscription[1];
+		try (SubmissionPublisher<JsonRpcRequest> requests = new SubmissionPublisher<>()) {
+			flowClient.sendAll(requests, ResultType.of(Integer.class), 2).subscribe(new Flow.Subscriber<>() {
+				@Override
+				public void onSubscribe(Flow.Subscription s) {
+					subscription[0] = s;
+				}
+
+				@Override
+				public void onNext(JsonRpcResponse<Integer> item) {
+					received.add(item);
+				}
+
+				@Override
+				public void onError(Throwable throwable) {
+					completed.completeExceptionally(throwable);
+				}
+
+				@Override
+				public void onComplete() {
+					completed.complete(null);
+				}
+			});
+			for (int i = 0; i < 5; i++) {
+				requests.submit(JsonRpcRequest.builder().id("f" + i).method("getinteger").build());
+			}
+			awaitSize(sent, 2);
+			// Answered but not consumed, so no other request is sent
+			sent.get(1).complete(new ByteArrayInputStream("{\"id\":\"f1\",\"result\":1}".getBytes()));
+			Thread.sleep(50);
+			assertEquals(sent.size(), 2);
+			assertTrue(received.isEmpty());
+
+			subscription[0].request(Long.MAX_VALUE);
+			awaitSize(received, 1);
+			assertEquals(received.get(0).getId(), "f1");
+			awaitSize(sent, 3);
+		}
+		// Each response leaves room for the next request
+		for (int i = 0; i < 5; i++) {
+			long deadline = System.nanoTime() + 2_000_000_000L;
+			while (sent.size() <= i && System.nanoTime() < deadline) {
+				Thread.sleep(5);
+			}
+			if (i != 1) {
+				sent.get(i).complete(new ByteArrayInputStream(("{\"id\":\"f" + i + "\",\"result\":" + i + "}").getBytes()));
+			}
+		}
+		completed.get(5, TimeUnit.SECONDS);
+		assertEquals(received.size(), 5);
+		assertEquals(received.stream().map(r -> r.getResult()).sorted().collect(Collectors.toList()),
+				List.of(0, 1, 2, 3, 4));
+	}
+
+	@Test
+	public void whenRequestFailsThenFlowFailsTest() throws Exception {
+		List<Object> replies = new CopyOnWriteArrayList<>(
+				List.of("{\"id\":\"1\",\"result\":19}", new IOException("Connection reset")));
+		JsonRpcClient flowClient = JsonRpcClient.builder().transport(scriptedTransport(replies)).build();
+		CompletableFuture<Throwable> failed = new CompletableFuture<>();
+		try (SubmissionPublisher<JsonRpcRequest> requests = new SubmissionPublisher<>()) {
+			flowClient.sendAll(requests, ResultType.of(Integer.class), 1).subscribe(new Flow.Subscriber<>() {
+				@Override
+				public void onSubscribe(Flow.Subscription s) {
+					s.request(10);
+				}
+
+				@Override
+				public void onNext(JsonRpcResponse<Integer> item) {
+				}
+
+				@Override
+				public void onError(Throwable throwable) {
+					failed.complete(throwable);
+				}
+
+				@Override
+				public void onComplete() {
+					failed.complete(null);
+				}
+			});
+			requests.submit(JsonRpcRequest.builder().id("1").method("getinteger").build());
+			requests.submit(JsonRpcRequest.builder().id("2").method("getinteger").build());
+			requests.submit(JsonRpcRequest.builder().id("3").method("getinteger").build());
+			Throwable e = failed.get(5, TimeUnit.SECONDS);
+			assertTrue(e instanceof IOException, String.valueOf(e));
+		}
+		assertTrue(replies.isEmpty());
+	}
 }
@@ -0,0 +1,214 @@
+package com.emiperez.repeson;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.commons.idgenerators.IdGenerator;
+import com.emiperez.repeson.client.JsonRpcClient;
+import com.emiperez.repeson.client.JsonRpcException;
+import com.emiperez.repeson.client.JsonRpcMethod;
+import com.emiperez.repeson.client.JsonRpcParam;
+import com.emiperez.repeson.client.JsonRpcResponse;
+import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.ParamsMode;
+import com.emiperez.repeson.transport.Transport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+public class JsonRpcProxyTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final List<JsonNode> sent = new CopyOnWriteArrayList<>();
+	private Node node;
+
+	@BeforeEach
+	public void init() {
+		AtomicLong ids = new AtomicLong();
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(new NodeTransport())
+				.idGenerator(new IdGenerator<Long>() {
+					@Override
+					public Long getId() {
+						return ids.incrementAndGet();
+					}
+				}).build();
+		node = client.proxy(Node.class);
+	}
+
+	@Test
+	public void whenPositionalThenArgumentsInAnArray() throws Exception {
+		Block block = node.getBlock("0xabc", true);
+		assertEquals(block.getHash(), "0xabc");
+		assertEquals(block.getNumber(), 7L);
+		assertEquals(sent.get(0).get("method").asText(), "getblock");
+		assertEquals(sent.get(0).get("params").toString(), "[\"0xabc\",true]");
+		assertEquals(sent.get(0).get("id").asText(), "1");
+		assertTrue(sent.get(0).get("id").isNumber());
+	}
+
+	@Test
+	public void whenNamedThenArgumentsInAnObject() throws Exception {
+		assertEquals(node.add(2, 3).get(5, TimeUnit.SECONDS), 5);
+		assertEquals(sent.get(0).get("params").toString(), "{\"a\":2,\"b\":3}");
+		assertEquals(node.addAll(new Operands(4, 5)), 9);
+		assertEquals(sent.get(1).get("params").toString(), "{\"a\":4,\"b\":5}");
+	}
+
+	@Test
+	public void whenNoAnnotationThenMethodNameAndNoParams() throws Exception {
+		assertEquals(node.getblockcount(), 42);
+		assertEquals(sent.get(0).get("method").asText(), "getblockcount");
+		assertNull(sent.get(0).get("params"));
+	}
+
+	@Test
+	public void whenErrorThenJsonRpcException() {
+		JsonRpcException e = assertThrows(JsonRpcException.class, () -> node.fail());
+		assertEquals(e.getError().getCode(), -32000);
+		ExecutionException async = assertThrows(ExecutionException.class,
+				() -> node.failAsync().get(5, TimeUnit.SECONDS));
+		assertTrue(async.getCause() instanceof JsonRpcException);
+	}
+
+	@Test
+	public void whenNullResultForPrimitiveThenJsonRpcException() {
+		JsonRpcException e = assertThrows(JsonRpcException.class, () -> node.getbalance());
+		assertTrue(e.getMessage().contains("getbalance"));
+	}
+
+	@Test
+	public void whenResponseReturnedThenErrorNotThrown() throws Exception {
+		JsonRpcResponse<Integer> response = node.failResponse();
+		assertTrue(response.hasError());
+		assertEquals(response.getError().getCode(), -32000);
+		assertTrue(response.hasNumericId());
+		assertEquals(response.getNumericId(), 1L);
+	}
+
+	@Test
+	public void whenDefaultMethodThenCalledOnTheProxy() throws Exception {
+		assertEquals(node.nextBlockNumber(), 43);
+		assertEquals(node.toString(), "JsonRpcClient proxy of " + Node.class.getName());
+		assertEquals(node, node);
+	}
+
+	@Test
+	public void whenNamedParamsWithoutNamesThenRejected() {
+		JsonRpcClient client = JsonRpcClient.builder().transport(new NodeTransport()).build();
+		assertThrows(IllegalArgumentException.class, () -> client.proxy(Unnamed.class));
+		assertThrows(IllegalArgumentException.class, () -> client.proxy(Block.class));
+	}
+
+	public interface Node {
+
+		@JsonRpcMethod("getblock")
+		Block getBlock(String hash, boolean full) throws IOException, InterruptedException, JsonRpcException;
+
+		@JsonRpcMethod(value = "add", params = ParamsMode.NAMED)
+		CompletableFuture<Integer> add(@JsonRpcParam("a") int a, @JsonRpcParam("b") int b) throws JsonRpcException;
+
+		@JsonRpcMethod(value = "add", params = ParamsMode.NAMED)
+		int addAll(Operands operands) throws IOException, InterruptedException, JsonRpcException;
+
+		int getblockcount() throws IOException, InterruptedException, JsonRpcException;
+
+		long getbalance() throws IOException, InterruptedException, JsonRpcException;
+
+		void fail() throws IOException, InterruptedException, JsonRpcException;
+
+		@JsonRpcMethod("fail")
+		CompletableFuture<Void> failAsync() throws JsonRpcException;
+
+		@JsonRpcMethod("fail")
+		JsonRpcResponse<Integer> failResponse() throws IOException, InterruptedException, JsonRpcException;
+
+		default int nextBlockNumber() throws IOException, InterruptedException, JsonRpcException {
+			return getblockcount() + 1;
+		}
+	}
+
+	public interface Unnamed {
+
+		@JsonRpcMethod(params = ParamsMode.NAMED)
+		int add(int a, int b);
+	}
+
+	@Getter
+	@NoArgsConstructor
+	public static class Block {
+		private String hash;
+		private long number;
+	}
+
+	@Getter
+	public static class Operands {
+		private final int a;
+		private final int b;
+
+		public Operands(int a, int b) {
+			this.a = a;
+			this.b = b;
+		}
+	}
+
+	/**
+	 * Answers each method with a result computed from its params.
+	 */
+	private class NodeTransport implements Transport {
+
+		@Override
+		public InputStream send(String request) throws IOException {
+			JsonNode json = MAPPER.readTree(request);
+			sent.add(json);
+			ObjectNode response = MAPPER.createObjectNode();
+			response.set("id", json.get("id"));
+			JsonNode params = json.get("params");
+			switch (json.get("method").asText()) {
+			case "getblock":
+				response.putObject("result").put("hash", params.get(0).asText()).put("number", 7);
+				break;
+			case "add":
+				response.put("result", params.get("a").asInt() + params.get("b").asInt());
+				break;
+			case "getblockcount":
+				response.put("result", 42);
+				break;
+			case "getbalance":
+				response.putNull("result");
+				break;
+			default:
+				response.putObject("error").put("code", -32000).put("message", "Failed");
+			}
+			return new ByteArrayInputStream(MAPPER.writeValueAsBytes(response));
+		}
+
+		@Override
+		public CompletableFuture<InputStream> sendAsync(String request) {
+			try {
+				return CompletableFuture.completedFuture(send(request));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -1,11 +1,15 @@
 package com.emiperez.repeson;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
 
 import org.junit.jupiter.api.Test;
 
 import com.emiperez.repeson.client.JsonRpcException;
 import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcVersion;
 
 import lombok.Getter;
 
@@ -49,4 +53,75 @@ class JsonRpcRequestTest {
 				"{\"jsonrpc\": \"2.0\", \"id\": \"a\", \"method\": \"b\", \"params\": {\"page\":3,\"rows\":7}}");
 	}
 
+	@Test
+	void whenJsonBytesNoSpacesTest() throws JsonRpcException {
+		
+		@Getter
+		class Params {
+			private int page = 3;
+			private int rows = 7;
+		}
+		
+		JsonRpcRequest request = JsonRpcRequest.builder()
+				.id("a")
+				.method("b")
+				.params(new Params())
+				.isNamedParams(false)
+				.build();
+		assertEquals(new String(request.getJsonBytes(), StandardCharsets.UTF_8), 
+				"{\"jsonrpc\":\"2.0\",\"id\":\"a\",\"method\":\"b\",\"params\":[3,7]}");
+	}
+
+	@Test
+	void whenJsonBytesStringParamEscapedTest() throws JsonRpcException {
+		JsonRpcRequest request = JsonRpcRequest.builder()
+				.id("a")
+				.method("b")
+				.params("quoted \"\u00f1\"")
+				.build();
+		assertEquals(new String(request.getJsonBytes(), StandardCharsets.UTF_8), 
+				"{\"jsonrpc\":\"2.0\",\"id\":\"a\",\"method\":\"b\",\"params\":[\"quoted \\\"\u00f1\\\"\"]}");
+	}
+
+	@Test
+	void whenJsonBytesWithoutParamsTest() throws JsonRpcException {
+		JsonRpcRequest request = JsonRpcRequest.builder()
+				.id("42")
+				.jsonrpc(JsonRpcVersion.v1_0)
+				.method("getblockcount")
+				.build();
+		assertEquals(new String(request.getJsonBytes(), StandardCharsets.UTF_8), 
+				"{\"jsonrpc\":\"1.0\",\"id\":\"42\",\"method\":\"getblockcount\"}");
+		assertEquals(new String(request.getJsonBytes(), StandardCharsets.UTF_8), 
+				"{\"jsonrpc\":\"1.0\",\"id\":\"42\",\"method\":\"getblockcount\"}");
+	}
+
+	@Test
+	void whenJsonBytesIdAndMethodEscapedTest() throws JsonRpcException {
+		JsonRpcRequest request = JsonRpcRequest.builder()
+				.id("a\"\u00f1")
+				.method("m\\n")
+				.params(1)
+				.build();
+		assertEquals(new String(request.getJsonBytes(), StandardCharsets.UTF_8), 
+				"{\"jsonrpc\":\"2.0\",\"id\":\"a\\\"\u00f1\",\"method\":\"m\\\\n\",\"params\":[1]}");
+	}
+
+	@Test
+	void whenNumericIdThenJsonNumberTest() throws JsonRpcException {
+		JsonRpcRequest request = JsonRpcRequest.builder()
+				.id(-9_007_199_254_740_993L)
+				.method("getblockcount")
+				.build();
+		assertEquals(new String(request.getJsonBytes(), StandardCharsets.UTF_8), 
+				"{\"jsonrpc\":\"2.0\",\"id\":-9007199254740993,\"method\":\"getblockcount\"}");
+		assertEquals(request.getJson(), 
+				"{\"jsonrpc\": \"2.0\", \"id\": -9007199254740993, \"method\": \"getblockcount\"}");
+		assertTrue(request.hasNumericId());
+		assertEquals(request.getId(), "-9007199254740993");
+		JsonRpcRequest min = JsonRpcRequest.builder().id(Long.MIN_VALUE).method("m").build();
+		assertEquals(new String(min.getJsonBytes(), StandardCharsets.UTF_8),
+				"{\"jsonrpc\":\"2.0\",\"id\":" + Long.MIN_VALUE + ",\"method\":\"m\"}");
+	}
+
 }
@@ -0,0 +1,147 @@
+package com.emiperez.repeson;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.repeson.client.JsonRpcClient;
+import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcResponse;
+import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.LatencyHistogram;
+import com.emiperez.repeson.client.MetricsRecorder;
+import com.emiperez.repeson.client.MetricsRecorder.MethodMetrics;
+import com.emiperez.repeson.transport.MockTransport;
+import com.emiperez.repeson.transport.Transport;
+
+public class MetricsRecorderTest {
+
+	@Test
+	public void whenSentThenMeasuredByMethod() throws Exception {
+		MetricsRecorder metrics = new MetricsRecorder();
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(new MockTransport())
+				.metrics(metrics).build();
+		client.send(request("1", "getinteger"));
+		client.sendAsync(request("3", "geterror")).get(5, TimeUnit.SECONDS);
+
+		assertEquals(metrics.getMethods(), Set.of("getinteger", "geterror"));
+		MethodMetrics getInteger = metrics.get("getinteger");
+		assertEquals(getInteger.getLatency().getCount(), 1L);
+		assertEquals(getInteger.getInFlight(), 0);
+		assertEquals(getInteger.getErrors(), Map.of());
+		assertTrue(getInteger.getRequestBytes() > 0);
+		assertTrue(getInteger.getResponseBytes() > 0);
+		assertTrue(getInteger.getSerializationNanos() > 0);
+		assertTrue(getInteger.getNetworkNanos() > 0);
+		assertTrue(getInteger.getReadNanos() > 0);
+		MethodMetrics getError = metrics.get("geterror");
+		assertEquals(getError.getLatency().getCount(), 1L);
+		assertEquals(getError.getInFlight(), 0);
+		assertEquals(getError.getErrors(), Map.of(-1, 1L));
+		assertEquals(getError.getFailures(), 0L);
+	}
+
+	@Test
+	public void whenMicroBatchedThenEachRequestMeasured() throws Exception {
+		MetricsRecorder metrics = new MetricsRecorder();
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(new MockTransport())
+				.microBatching(2, 10_000_000).metrics(metrics).build();
+		CompletableFuture<JsonRpcResponse<Integer>> first = client.sendAsync(request("1", "getinteger"));
+		CompletableFuture<JsonRpcResponse<Integer>> second = client.sendAsync(request("3", "geterror"));
+		CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+		// Alone when its window expires, so it is sent as a single request
+		JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(new MockTransport()).microBatching(2, 1000)
+				.metrics(metrics).build().sendAsync(request("2", "getintegers")).get(5, TimeUnit.SECONDS);
+
+		for (String method : Set.of("getinteger", "geterror", "getintegers")) {
+			MethodMetrics measured = metrics.get(method);
+			assertTrue(measured.getRequestBytes() > 0, method);
+			assertTrue(measured.getResponseBytes() > 0, method);
+			assertTrue(measured.getSerializationNanos() > 0, method);
+			assertTrue(measured.getNetworkNanos() > 0, method);
+			assertTrue(measured.getReadNanos() > 0, method);
+		}
+	}
+
+	@Test
+	public void whenTransportFailsThenFailureMeasured() {
+		MetricsRecorder metrics = new MetricsRecorder();
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(new FailingTransport())
+				.metrics(metrics).build();
+		assertThrows(IOException.class, () -> client.send(request("1", "getinteger")));
+		assertThrows(ExecutionException.class,
+				() -> client.sendAsync(request("2", "getinteger")).get(5, TimeUnit.SECONDS));
+
+		MethodMetrics getInteger = metrics.get("getinteger");
+		assertEquals(getInteger.getFailures(), 2L);
+		assertEquals(getInteger.getInFlight(), 0);
+		assertEquals(getInteger.getLatency().getCount(), 2L);
+		assertEquals(getInteger.getResponseBytes(), 0L);
+	}
+
+	@Test
+	public void whenNoRequestsThenEmpty() {
+		MetricsRecorder metrics = new MetricsRecorder();
+		assertEquals(metrics.get("getinteger").getLatency().getCount(), 0L);
+		assertEquals(metrics.getMethods(), Set.of());
+	}
+
+	@Test
+	public void whenRecordedThenPercentilesWithinPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long micros = 1; micros <= 1000; micros++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+		assertEquals(histogram.getCount(), 1000L);
+		assertEquals(histogram.getMax(), TimeUnit.MICROSECONDS.toNanos(1000));
+		assertEquals(histogram.getMean(), 500_500, 1);
+		assertWithin(histogram.getPercentile(0.5), 500_000);
+		assertWithin(histogram.getPercentile(0.99), 990_000);
+		assertEquals(histogram.getPercentile(1), histogram.getMax());
+		assertWithin(histogram.getPercentile(0), 1_000);
+	}
+
+	@Test
+	public void whenSmallValuesThenExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 64; i++) {
+			histogram.record(i);
+		}
+		histogram.record(-5);
+		assertEquals(histogram.getPercentile(0.5), 31L);
+		assertEquals(histogram.getPercentile(0), 0L);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(histogram.getPercentile(1), Long.MAX_VALUE);
+	}
+
+	private static void assertWithin(long actual, long expected) {
+		assertTrue(actual >= expected && actual <= expected + expected / 32, actual + " is not about " + expected);
+	}
+
+	private static JsonRpcRequest request(String id, String method) {
+		return JsonRpcRequest.builder().id(id).jsonrpc(JsonRpcVersion.v2_0).method(method).build();
+	}
+
+	private static class FailingTransport implements Transport {
+
+		@Override
+		public InputStream send(String request) throws IOException {
+			throw new IOException("Connection refused");
+		}
+
+		@Override
+		public CompletableFuture<InputStream> sendAsync(String request) {
+			return CompletableFuture.failedFuture(new IOException("Connection refused"));
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.emiperez.repeson;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.repeson.client.PendingRequestRegistry;
+
+public class PendingRequestRegistryTest {
+
+	@Test
+	public void whenCompletedThenRemoved() throws Exception {
+		PendingRequestRegistry<String> registry = new PendingRequestRegistry<>();
+		CompletableFuture<String> numeric = registry.register("7");
+		CompletableFuture<String> text = registry.register("seven");
+		assertEquals(registry.getInFlight(), 2);
+
+		assertTrue(registry.complete(7, "numeric"));
+		assertTrue(registry.complete("seven", "text"));
+		assertFalse(registry.complete("7", "again"));
+		assertEquals(numeric.get(), "numeric");
+		assertEquals(text.get(), "text");
+		assertEquals(registry.getInFlight(), 0);
+		assertEquals(registry.getHighWaterMark(), 2);
+	}
+
+	@Test
+	public void whenNotCanonicalNumberThenOtherId() throws Exception {
+		PendingRequestRegistry<String> registry = new PendingRequestRegistry<>();
+		CompletableFuture<String> leadingZero = registry.register("07");
+		CompletableFuture<String> negative = registry.register("-7");
+		CompletableFuture<String> huge = registry.register("12345678901234567890");
+		assertFalse(registry.complete(7, "seven"));
+		assertTrue(registry.complete("07", "leadingZero"));
+		assertTrue(registry.complete(-7, "negative"));
+		assertTrue(registry.complete("12345678901234567890", "huge"));
+		assertEquals(leadingZero.get(), "leadingZero");
+		assertEquals(negative.get(), "negative");
+		assertEquals(huge.get(), "huge");
+	}
+
+	@Test
+	public void whenSlotTakenThenStillCorrelated() throws Exception {
+		PendingRequestRegistry<Integer> registry = new PendingRequestRegistry<>(4);
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		IntStream.range(0, 20).forEach(i -> futures.add(registry.register(Integer.toString(i))));
+		assertEquals(registry.getInFlight(), 20);
+		IntStream.range(0, 20).map(i -> 19 - i).forEach(i -> assertTrue(registry.complete(i, i)));
+		for (int i = 0; i < 20; i++) {
+			assertEquals(futures.get(i).get(), i);
+		}
+		assertEquals(registry.getInFlight(), 0);
+	}
+
+	@Test
+	public void whenDuplicatedIdThenRejected() {
+		PendingRequestRegistry<String> registry = new PendingRequestRegistry<>(4);
+		registry.register("1");
+		registry.register("5");
+		registry.register("a");
+		assertThrows(IllegalStateException.class, () -> registry.register("1"));
+		assertThrows(IllegalStateException.class, () -> registry.register("5"));
+		assertThrows(IllegalStateException.class, () -> registry.register("a"));
+		assertEquals(registry.getInFlight(), 3);
+	}
+
+	@Test
+	public void whenSlotFreedThenIdInMapStillRejected() throws Exception {
+		PendingRequestRegistry<String> registry = new PendingRequestRegistry<>(4);
+		registry.register(1, null);
+		CompletableFuture<String> five = registry.register(5, null);
+		assertTrue(registry.complete(1, "one"));
+		// 5 waits in the map, its slot is free again
+		assertThrows(IllegalStateException.class, () -> registry.register(5, null));
+		assertThrows(IllegalStateException.class, () -> registry.register("5"));
+		assertEquals(registry.getInFlight(), 1);
+		assertTrue(registry.complete(5, "five"));
+		assertEquals(five.get(), "five");
+	}
+
+	@Test
+	public void whenTimeoutOrCancelledThenRemoved() throws Exception {
+		PendingRequestRegistry<String> registry = new PendingRequestRegistry<>();
+		CompletableFuture<String> late = registry.register("1", Duration.ofMillis(10));
+		CompletableFuture<String> cancelled = registry.register("2");
+		cancelled.cancel(true);
+		ExecutionException e = assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof TimeoutException);
+		assertFalse(registry.complete("1", "late"));
+		assertEquals(registry.getInFlight(), 0);
+		assertEquals(registry.getTimeouts(), 1);
+		assertEquals(registry.getCancellations(), 1);
+		// The ids can be used again
+		registry.register("1");
+		registry.register("2");
+	}
+
+	@Test
+	public void whenFailAllThenEveryRequestFails() {
+		PendingRequestRegistry<String> registry = new PendingRequestRegistry<>(2);
+		List<CompletableFuture<String>> futures = List.of(registry.register("1"), registry.register("3"),
+				registry.register("x"));
+		assertEquals(registry.failAll(new IOException("Connection lost")), 3);
+		for (CompletableFuture<String> f : futures) {
+			ExecutionException e = assertThrows(ExecutionException.class, () -> f.get());
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(registry.getInFlight(), 0);
+		assertEquals(registry.getHighWaterMark(), 3);
+	}
+
+	@Test
+	public void whenCompleteAllThenEveryRequestGetsItsOwnResponse() throws Exception {
+		PendingRequestRegistry<StringBuilder> registry = new PendingRequestRegistry<>(2);
+		CompletableFuture<StringBuilder> first = registry.register("1");
+		CompletableFuture<StringBuilder> second = registry.register("x");
+		assertEquals(registry.completeAll(() -> new StringBuilder("error")), 2);
+		assertEquals(first.get().toString(), "error");
+		assertTrue(first.get() != second.get());
+		assertEquals(registry.getInFlight(), 0);
+	}
+}
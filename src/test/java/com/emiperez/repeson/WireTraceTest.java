@@ -0,0 +1,117 @@
+package com.emiperez.repeson;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.repeson.client.JsonRpcClient;
+import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcResponse;
+import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.ResultType;
+import com.emiperez.repeson.client.WireTrace;
+import com.emiperez.repeson.transport.MockTransport;
+
+public class WireTraceTest {
+
+	private final Logger logger = Logger.getLogger(WireTrace.LOGGER_NAME);
+	private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+	private final Handler handler = new Handler() {
+		@Override
+		public void publish(LogRecord record) {
+			records.add(record);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+	private final JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0)
+			.transport(new MockTransport()).build();
+
+	@BeforeEach
+	public void init() {
+		logger.addHandler(handler);
+	}
+
+	@AfterEach
+	public void reset() {
+		logger.removeHandler(handler);
+		logger.setLevel(null);
+		WireTrace.setSampleRate(1);
+		WireTrace.setMaxPayloadBytes(2048);
+	}
+
+	@Test
+	public void whenOffThenNothingTraced() throws Exception {
+		JsonRpcResponse<Integer> response = client.send(request(), ResultType.of(Integer.class));
+		assertEquals(response.getResult(), 19);
+		request().getJson();
+		assertTrue(records.isEmpty());
+	}
+
+	@Test
+	public void whenOnThenRequestAndResponseTraced() throws Exception {
+		logger.setLevel(Level.FINE);
+		JsonRpcResponse<Integer> response = client.send(request(), ResultType.of(Integer.class));
+		assertEquals(response.getResult(), 19);
+		assertEquals(records.size(), 2);
+		assertEquals(records.get(0).getParameters()[0], "request");
+		assertTrue(((String) records.get(0).getParameters()[2]).contains("\"method\":\"getinteger\""));
+		assertEquals(records.get(1).getParameters()[0], "response");
+		assertTrue(((String) records.get(1).getParameters()[2]).contains("19"));
+
+		client.sendAsync(request(), ResultType.of(Integer.class)).get();
+		assertEquals(records.size(), 4);
+	}
+
+	@Test
+	public void whenPayloadTooLongThenCut() throws Exception {
+		logger.setLevel(Level.FINE);
+		WireTrace.setMaxPayloadBytes(10);
+		String json = request().getJson();
+		assertEquals(records.size(), 1);
+		assertEquals(records.get(0).getParameters()[1], json.length());
+		assertEquals(records.get(0).getParameters()[2], json.substring(0, 10) + "...");
+	}
+
+	@Test
+	public void whenResponseTooLongThenOnlyItsBeginningReadAhead() throws Exception {
+		logger.setLevel(Level.FINE);
+		WireTrace.setMaxPayloadBytes(10);
+		JsonRpcResponse<Integer> response = client.send(request(), ResultType.of(Integer.class));
+		assertEquals(response.getResult(), 19);
+		LogRecord traced = records.get(1);
+		assertEquals(traced.getMessage(), "{0} (over {1} bytes): {2}");
+		assertEquals(traced.getParameters()[1], 10);
+		assertEquals(((String) traced.getParameters()[2]).length(), 13);
+	}
+
+	@Test
+	public void whenNotSampledThenNothingTraced() throws Exception {
+		logger.setLevel(Level.FINE);
+		WireTrace.setSampleRate(0);
+		for (int i = 0; i < 10; i++) {
+			client.send(request(), ResultType.of(Integer.class));
+		}
+		assertTrue(records.isEmpty());
+	}
+
+	private static JsonRpcRequest request() {
+		return JsonRpcRequest.builder().id("1").jsonrpc(JsonRpcVersion.v2_0).method("getinteger").build();
+	}
+}
@@ -0,0 +1,89 @@
+package com.emiperez.repeson.transport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void whenReleasedThenAcquiredAgainBySizeClass() {
+		BufferPool pool = BufferPool.builder().leakDetection(true).build();
+		ByteBuffer buffer = pool.acquire(1500);
+		assertEquals(buffer.capacity(), 2048);
+		assertEquals(buffer.limit(), 1500);
+		assertEquals(buffer.position(), 0);
+		buffer.put((byte) 1);
+		pool.release(buffer);
+		ByteBuffer again = pool.acquire(2048);
+		assertSame(again, buffer);
+		assertEquals(again.position(), 0);
+		assertEquals(again.limit(), 2048);
+		assertNotSame(pool.acquire(1024), buffer);
+		assertEquals(pool.getAllocations(), 2L);
+	}
+
+	@Test
+	public void whenLargerThanMaxSizeThenNotPooled() {
+		BufferPool pool = BufferPool.builder().build();
+		ByteBuffer large = pool.acquire(BufferPool.MAX_SIZE + 1);
+		assertEquals(large.capacity(), BufferPool.MAX_SIZE + 1);
+		pool.release(large);
+		assertNotSame(pool.acquire(BufferPool.MAX_SIZE + 1), large);
+		assertEquals(pool.getAllocations(), 2L);
+	}
+
+	@Test
+	public void whenDirectThenDirectBuffers() {
+		BufferPool pool = BufferPool.builder().direct(true).build();
+		ByteBuffer buffer = pool.acquire(0);
+		assertTrue(buffer.isDirect());
+		assertEquals(buffer.capacity(), BufferPool.MIN_SIZE);
+		pool.release(buffer);
+		assertSame(pool.acquire(10), buffer);
+		assertTrue(BufferPool.direct().isDirect());
+	}
+
+	@Test
+	public void whenNotReleasedThenLeakReported() {
+		BufferPool pool = BufferPool.builder().leakDetection(true).build();
+		ByteBuffer released = pool.acquire(10);
+		pool.acquire(5000);
+		pool.release(released);
+		List<Throwable> leaks = pool.getLeaks();
+		assertEquals(leaks.size(), 1);
+		assertEquals(leaks.get(0).getMessage(), "Buffer of 8192 bytes acquired here");
+		assertEquals(leaks.get(0).getStackTrace()[1].getMethodName(), "whenNotReleasedThenLeakReported");
+		assertThrows(IllegalStateException.class, () -> pool.release(released));
+		assertThrows(IllegalStateException.class, () -> pool.release(ByteBuffer.allocate(1024)));
+	}
+
+	@Test
+	public void whenPooledStreamClosedThenBufferReleased() throws IOException {
+		BufferPool pool = BufferPool.builder().leakDetection(true).build();
+		byte[] json = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = pool.acquire(json.length);
+		buffer.put(json).flip();
+		PooledInputStream input = new PooledInputStream(pool, buffer);
+		assertEquals(input.available(), json.length);
+		assertEquals(input.read(), '{');
+		assertEquals(input.skip(1), 1L);
+		byte[] rest = input.readAllBytes();
+		assertArrayEquals(rest, "id\":1}".getBytes(StandardCharsets.UTF_8));
+		assertEquals(input.read(), -1);
+		input.close();
+		input.close();
+		assertEquals(pool.getLeaks(), List.of());
+		assertThrows(IOException.class, input::read);
+	}
+}
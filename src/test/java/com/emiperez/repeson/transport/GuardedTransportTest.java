@@ -0,0 +1,214 @@
+package com.emiperez.repeson.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.repeson.transport.GuardedTransport.CircuitState;
+
+public class GuardedTransportTest {
+
+	private static final byte[] REQUEST = "{\"id\":\"1\",\"method\":\"getinteger\"}".getBytes();
+
+	@Test
+	public void whenFailuresThenCircuitOpensAndClosesAfterTrial() throws Exception {
+		HeldTransport endpoint = new HeldTransport();
+		endpoint.fail = true;
+		GuardedTransport transport = GuardedTransport.builder(endpoint)
+				.circuitBreaker(0.5, 4, Duration.ofMillis(50)).build();
+		for (int i = 0; i < 4; i++) {
+			assertThrows(IOException.class, () -> transport.send(REQUEST));
+		}
+		assertEquals(transport.getCircuitState(), CircuitState.OPEN);
+		// Rejected without reaching the endpoint
+		assertThrows(RejectedRequestException.class, () -> transport.send(REQUEST));
+		assertEquals(endpoint.calls.get(), 4);
+		assertEquals(transport.getRejected(), 1L);
+
+		Thread.sleep(60);
+		endpoint.fail = false;
+		endpoint.hold = true;
+		CompletableFuture<InputStream> trial = transport.sendAsync(REQUEST);
+		assertEquals(transport.getCircuitState(), CircuitState.HALF_OPEN);
+		// Only the trial is sent while the circuit is half open
+		assertTrue(transport.sendAsync(REQUEST).isCompletedExceptionally());
+		endpoint.held.get(0).complete(InputStream.nullInputStream());
+		trial.get(5, TimeUnit.SECONDS);
+		assertEquals(transport.getCircuitState(), CircuitState.CLOSED);
+	}
+
+	@Test
+	public void whenLimitReachedThenShed() throws Exception {
+		HeldTransport endpoint = new HeldTransport();
+		endpoint.hold = true;
+		GuardedTransport transport = GuardedTransport.builder(endpoint).concurrencyLimit(2, 2, 2).build();
+		transport.sendAsync(REQUEST);
+		transport.sendAsync(REQUEST);
+		ExecutionException e = assertThrows(ExecutionException.class,
+				() -> transport.sendAsync(REQUEST).get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof RejectedRequestException);
+		assertEquals(endpoint.calls.get(), 2);
+		assertEquals(transport.getInFlight(), 2);
+
+		endpoint.held.get(0).complete(InputStream.nullInputStream());
+		assertEquals(transport.getInFlight(), 1);
+		transport.sendAsync(REQUEST);
+		assertEquals(endpoint.calls.get(), 3);
+	}
+
+	@Test
+	public void whenQueuedThenSentWhenAnotherFinishes() throws Exception {
+		HeldTransport endpoint = new HeldTransport();
+		endpoint.hold = true;
+		GuardedTransport transport = GuardedTransport.builder(endpoint).concurrencyLimit(1, 1, 1)
+				.queue(1, Duration.ofSeconds(5)).build();
+		CompletableFuture<InputStream> first = transport.sendAsync(REQUEST);
+		CompletableFuture<InputStream> second = transport.sendAsync(REQUEST);
+		assertTrue(transport.sendAsync(REQUEST).isCompletedExceptionally());
+		assertEquals(transport.getQueued(), 1);
+		assertEquals(endpoint.calls.get(), 1);
+
+		endpoint.held.get(0).complete(InputStream.nullInputStream());
+		first.get(5, TimeUnit.SECONDS);
+		assertEquals(endpoint.calls.get(), 2);
+		assertEquals(transport.getQueued(), 0);
+		assertFalse(second.isDone());
+		endpoint.held.get(1).complete(InputStream.nullInputStream());
+		second.get(5, TimeUnit.SECONDS);
+		assertEquals(transport.getInFlight(), 0);
+	}
+
+	@Test
+	public void whenQueueWaitExpiresThenRejected() {
+		HeldTransport endpoint = new HeldTransport();
+		endpoint.hold = true;
+		GuardedTransport transport = GuardedTransport.builder(endpoint).concurrencyLimit(1, 1, 1)
+				.queue(10, Duration.ofMillis(50)).build();
+		transport.sendAsync(REQUEST);
+		ExecutionException e = assertThrows(ExecutionException.class,
+				() -> transport.sendAsync(REQUEST).get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof RejectedRequestException);
+		assertEquals(transport.getQueued(), 0);
+		assertEquals(endpoint.calls.get(), 1);
+	}
+
+	@Test
+	public void whenFailureThenLimitDecreasesAndGrowsBack() throws Exception {
+		HeldTransport endpoint = new HeldTransport();
+		// The responses take microseconds, so a wide tolerance keeps their jitter from cutting the limit
+		GuardedTransport transport = GuardedTransport.builder(endpoint).concurrencyLimit(10, 1, 100)
+				.latencyTolerance(1_000_000).build();
+		endpoint.fail = true;
+		assertThrows(IOException.class, () -> transport.send(REQUEST));
+		assertEquals(transport.getLimit(), 9);
+		endpoint.fail = false;
+		for (int i = 0; i < 20; i++) {
+			transport.send(REQUEST);
+		}
+		assertEquals(transport.getLimit(), 11);
+	}
+
+	@Test
+	public void whenInterruptedThenPlaceAndTrialFreed() throws Exception {
+		HeldTransport endpoint = new HeldTransport();
+		endpoint.fail = true;
+		GuardedTransport transport = GuardedTransport.builder(endpoint).circuitBreaker(0.5, 2, Duration.ofMillis(20))
+				.concurrencyLimit(1, 1, 1).build();
+		assertThrows(IOException.class, () -> transport.send(REQUEST));
+		assertThrows(IOException.class, () -> transport.send(REQUEST));
+		assertEquals(transport.getCircuitState(), CircuitState.OPEN);
+		Thread.sleep(30);
+		endpoint.fail = false;
+		endpoint.interrupt = true;
+		assertThrows(InterruptedException.class, () -> transport.send(REQUEST));
+		assertEquals(transport.getInFlight(), 0);
+		// The interrupted trial is neither a success nor a failure, so another one is let through
+		assertEquals(transport.getCircuitState(), CircuitState.HALF_OPEN);
+		endpoint.interrupt = false;
+		transport.send(REQUEST);
+		assertEquals(transport.getCircuitState(), CircuitState.CLOSED);
+		assertEquals(transport.getInFlight(), 0);
+	}
+
+	@Test
+	public void whenCancelledThenRequestCancelledAndPlaceFreed() throws Exception {
+		HeldTransport endpoint = new HeldTransport();
+		endpoint.hold = true;
+		GuardedTransport transport = GuardedTransport.builder(endpoint).concurrencyLimit(1, 1, 1)
+				.queue(1, Duration.ofSeconds(5)).build();
+		CompletableFuture<InputStream> sent = transport.sendAsync(REQUEST);
+		CompletableFuture<InputStream> queued = transport.sendAsync(REQUEST);
+		assertEquals(transport.getQueued(), 1);
+		queued.cancel(true);
+		assertEquals(transport.getQueued(), 0);
+		sent.cancel(true);
+		assertTrue(endpoint.held.get(0).isCancelled());
+		assertEquals(transport.getInFlight(), 0);
+		// Neither counted as a failure
+		assertEquals(transport.getLimit(), 1);
+		CompletableFuture<InputStream> next = transport.sendAsync(REQUEST);
+		assertEquals(endpoint.calls.get(), 2);
+		endpoint.held.get(1).complete(InputStream.nullInputStream());
+		next.get(5, TimeUnit.SECONDS);
+	}
+
+	private static class HeldTransport implements Transport {
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private final List<CompletableFuture<InputStream>> held = new CopyOnWriteArrayList<>();
+		private volatile boolean fail;
+		private volatile boolean hold;
+		private volatile boolean interrupt;
+
+		@Override
+		public InputStream send(String jsonRpcRequest) throws IOException, InterruptedException {
+			return send(jsonRpcRequest.getBytes());
+		}
+
+		@Override
+		public CompletableFuture<InputStream> sendAsync(String jsonRpcRequest) {
+			return sendAsync(jsonRpcRequest.getBytes());
+		}
+
+		@Override
+		public InputStream send(byte[] jsonRpcRequest) throws IOException, InterruptedException {
+			calls.incrementAndGet();
+			if (interrupt) {
+				throw new InterruptedException();
+			}
+			if (fail) {
+				throw new IOException("Connection refused");
+			}
+			return new ByteArrayInputStream("{\"id\":\"1\",\"result\":1}".getBytes());
+		}
+
+		@Override
+		public CompletableFuture<InputStream> sendAsync(byte[] jsonRpcRequest) {
+			if (hold) {
+				calls.incrementAndGet();
+				CompletableFuture<InputStream> response = new CompletableFuture<>();
+				held.add(response);
+				return response;
+			}
+			try {
+				return CompletableFuture.completedFuture(send(jsonRpcRequest));
+			} catch (IOException | InterruptedException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.emiperez.repeson.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.repeson.client.JsonRpcClient;
+import com.emiperez.repeson.client.JsonRpcMetrics;
+import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.ResultType;
+
+public class HttpTransportTest {
+
+	private static final ResultType<String> STRING = ResultType.of(String.class);
+
+	private MockHttpServer server;
+
+	@BeforeEach
+	public void init() throws IOException {
+		server = new MockHttpServer(50);
+	}
+
+	@AfterEach
+	public void close() {
+		server.close();
+	}
+
+	@Test
+	public void whenExecutorThenAsyncResponsesCompleteOnIt() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "responses"));
+		try {
+			HttpTransport transport = HttpTransport.builder().uri(server.getUri()).executor(executor).build();
+			CompletableFuture<String> thread = transport.sendAsync("{\"id\":\"1\",\"method\":\"echo\"}")
+					.thenApply(in -> Thread.currentThread().getName());
+			assertEquals(thread.get(5, TimeUnit.SECONDS), "responses");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void whenNoVirtualThreadsThenNewExecutorFails() {
+		assumeTrue(!VirtualThreads.isAvailable());
+		assertThrows(UnsupportedOperationException.class, VirtualThreads::newExecutor);
+	}
+
+	@Test
+	public void whenBlockingSendsFromVirtualThreadsThenAllRunConcurrently() throws Exception {
+		assumeTrue(Runtime.version().feature() >= 21);
+		// Through reflection, as the tests are compiled for Java 11
+		ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+				.invoke(null);
+		HttpTransport transport = HttpTransport.builder().uri(server.getUri()).executor(executor).build();
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport).build();
+		int callers = 500;
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				String id = String.valueOf(i);
+				results.add(executor.submit(() -> client.send(request(id), STRING).getResult()));
+			}
+			for (int i = 0; i < callers; i++) {
+				assertEquals(results.get(i).get(30, TimeUnit.SECONDS), String.valueOf(i));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		// Far more callers than carrier threads were blocked at the same time
+		assertTrue(server.getMaxInFlight() > Runtime.getRuntime().availableProcessors());
+	}
+
+	@Test
+	public void whenResponsesReadThenBuffersReusedAndReleased() throws Exception {
+		BufferPool pool = BufferPool.builder().leakDetection(true).build();
+		HttpTransport transport = HttpTransport.builder().uri(server.getUri()).bufferPool(pool).build();
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport).build();
+		for (int i = 0; i < 10; i++) {
+			assertEquals(client.send(request(String.valueOf(i)), STRING).getResult(), String.valueOf(i));
+		}
+		List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			results.add(client.sendAsync(request("a" + i), STRING).thenApply(r -> r.getResult()));
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals(results.get(i).get(5, TimeUnit.SECONDS), "a" + i);
+		}
+		assertEquals(pool.getLeaks(), List.of());
+		// Every response was read into a pooled buffer, most of them reused
+		assertTrue(pool.getAllocations() > 0 && pool.getAllocations() < 20, pool.getAllocations() + " buffers allocated");
+		assertThrows(IllegalArgumentException.class, () -> HttpTransport.builder().bufferPool(BufferPool.direct()));
+	}
+
+	@Test
+	public void whenMeasuredThenPooledResponsesCountedAndReleased() throws Exception {
+		BufferPool pool = BufferPool.builder().leakDetection(true).build();
+		HttpTransport transport = HttpTransport.builder().uri(server.getUri()).bufferPool(pool).build();
+		AtomicLong bytes = new AtomicLong();
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport)
+				.metrics(new JsonRpcMetrics() {
+
+					@Override
+					public void responseRead(String method, long size, long nanos) {
+						bytes.addAndGet(size);
+					}
+				}).build();
+		assertEquals(client.send(request("7"), STRING).getResult(), "7");
+		assertEquals(bytes.get(), (long) "{\"id\":\"7\",\"result\":\"7\",\"error\":null}".length());
+		assertEquals(pool.getLeaks(), List.of());
+	}
+
+	private static JsonRpcRequest request(String id) {
+		return JsonRpcRequest.builder().id(id).jsonrpc(JsonRpcVersion.v2_0).method("echo").build();
+	}
+}
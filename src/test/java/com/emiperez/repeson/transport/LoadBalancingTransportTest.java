@@ -0,0 +1,267 @@
+package com.emiperez.repeson.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.repeson.transport.LoadBalancingTransport.Endpoint;
+import com.emiperez.repeson.transport.LoadBalancingTransport.Policy;
+
+public class LoadBalancingTransportTest {
+
+	private static final byte[] REQUEST = "{\"id\":\"1\",\"method\":\"getinteger\"}".getBytes();
+
+	@Test
+	public void whenRoundRobinThenEachEndpointInTurn() throws Exception {
+		StubTransport a = new StubTransport();
+		StubTransport b = new StubTransport();
+		StubTransport c = new StubTransport();
+		LoadBalancingTransport transport = LoadBalancingTransport.builder().endpoint(a).endpoint(b).endpoint(c).build();
+		for (int i = 0; i < 9; i++) {
+			transport.send(REQUEST);
+		}
+		assertEquals(a.calls.get(), 3);
+		assertEquals(b.calls.get(), 3);
+		assertEquals(c.calls.get(), 3);
+	}
+
+	@Test
+	public void whenLeastOutstandingThenAvoidsBusyEndpoint() {
+		StubTransport busy = new StubTransport();
+		busy.hold = true;
+		StubTransport idle = new StubTransport();
+		LoadBalancingTransport transport = LoadBalancingTransport.builder().policy(Policy.LEAST_OUTSTANDING)
+				.endpoint(busy).endpoint(idle).build();
+		// The first one may go to either, every other one to the idle endpoint
+		for (int i = 0; i < 10; i++) {
+			transport.sendAsync(REQUEST);
+		}
+		assertTrue(busy.calls.get() <= 1);
+		assertEquals(transport.getEndpoints().get(1).getOutstanding(), 0);
+	}
+
+	@Test
+	public void whenEwmaThenSlowEndpointGetsLessRequests() throws Exception {
+		StubTransport slow = new StubTransport();
+		slow.delayMillis = 20;
+		StubTransport fast = new StubTransport();
+		LoadBalancingTransport transport = LoadBalancingTransport.builder().policy(Policy.EWMA).endpoint(slow)
+				.endpoint(fast).build();
+		for (int i = 0; i < 100; i++) {
+			transport.send(REQUEST);
+		}
+		assertTrue(slow.calls.get() < 20, "Slow endpoint got " + slow.calls.get());
+		List<Endpoint> endpoints = transport.getEndpoints();
+		assertTrue(endpoints.get(0).getLatencyEwma().compareTo(endpoints.get(1).getLatencyEwma()) > 0);
+	}
+
+	@Test
+	public void whenConsecutiveFailuresThenEjectedAndProbedBack() throws Exception {
+		StubTransport failing = new StubTransport();
+		failing.fail = true;
+		StubTransport healthy = new StubTransport();
+		LoadBalancingTransport transport = LoadBalancingTransport.builder().endpoint(failing).endpoint(healthy)
+				.ejection(2, Duration.ofMillis(50), Duration.ofSeconds(1)).build();
+		Endpoint endpoint = transport.getEndpoints().get(0);
+		int failures = 0;
+		for (int i = 0; i < 6; i++) {
+			try {
+				transport.send(REQUEST);
+			} catch (IOException e) {
+				failures++;
+			}
+		}
+		assertEquals(failures, 2);
+		assertTrue(endpoint.isEjected());
+		assertEquals(failing.calls.get(), 2);
+
+		// The probe fails, so it is ejected again
+		Thread.sleep(60);
+		assertThrows(IOException.class, () -> transport.send(REQUEST));
+		assertTrue(endpoint.isEjected());
+		assertEquals(failing.calls.get(), 3);
+
+		// After twice the time the probe succeeds
+		failing.fail = false;
+		Thread.sleep(60);
+		transport.send(REQUEST);
+		assertEquals(failing.calls.get(), 3);
+		Thread.sleep(60);
+		transport.send(REQUEST);
+		assertEquals(failing.calls.get(), 4);
+		assertFalse(endpoint.isEjected());
+		assertEquals(endpoint.getFailures(), 3);
+	}
+
+	@Test
+	public void whenAllEjectedThenUsedAnyway() throws Exception {
+		StubTransport a = new StubTransport();
+		a.fail = true;
+		StubTransport b = new StubTransport();
+		b.fail = true;
+		LoadBalancingTransport transport = LoadBalancingTransport.builder().endpoint(a).endpoint(b)
+				.ejection(1, Duration.ofMinutes(1), Duration.ofMinutes(1)).build();
+		List<CompletableFuture<InputStream>> responses = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			responses.add(transport.sendAsync(REQUEST));
+		}
+		assertTrue(responses.stream().allMatch(CompletableFuture::isCompletedExceptionally));
+		assertEquals(a.calls.get() + b.calls.get(), 4);
+		assertTrue(transport.getEndpoints().stream().allMatch(Endpoint::isEjected));
+	}
+
+	@Test
+	public void whenProbeInterruptedThenProbedAgain() throws Exception {
+		StubTransport stub = new StubTransport();
+		stub.fail = true;
+		LoadBalancingTransport transport = LoadBalancingTransport.builder().endpoint(stub)
+				.ejection(1, Duration.ofMillis(20), Duration.ofSeconds(1)).build();
+		Endpoint endpoint = transport.getEndpoints().get(0);
+		assertThrows(IOException.class, () -> transport.send(REQUEST));
+		assertTrue(endpoint.isEjected());
+		Thread.sleep(30);
+		stub.fail = false;
+		stub.delayMillis = 1;
+		Thread.currentThread().interrupt();
+		assertThrows(InterruptedException.class, () -> transport.send(REQUEST));
+		assertEquals(endpoint.getOutstanding(), 0);
+		assertTrue(endpoint.isEjected());
+		stub.delayMillis = 0;
+		transport.send(REQUEST);
+		assertFalse(endpoint.isEjected());
+		assertEquals(endpoint.getOutstanding(), 0);
+		assertEquals(endpoint.getFailures(), 1L);
+	}
+
+	@Test
+	public void whenCancelledThenEndpointRequestCancelledAndNotFailed() {
+		StubTransport stub = new StubTransport();
+		stub.hold = true;
+		LoadBalancingTransport transport = LoadBalancingTransport.builder().endpoint(stub)
+				.ejection(1, Duration.ofSeconds(1), Duration.ofSeconds(1)).build();
+		Endpoint endpoint = transport.getEndpoints().get(0);
+		CompletableFuture<InputStream> response = transport.sendAsync(REQUEST);
+		assertEquals(endpoint.getOutstanding(), 1);
+		response.cancel(true);
+		assertTrue(stub.held.get(0).isCancelled());
+		assertEquals(endpoint.getOutstanding(), 0);
+		assertEquals(endpoint.getFailures(), 0L);
+		assertFalse(endpoint.isEjected());
+	}
+
+	@Test
+	public void whenRejectedThenRoutedToAnotherEndpointWithoutEjection() throws Exception {
+		StubTransport shedding = new StubTransport();
+		shedding.reject = true;
+		StubTransport healthy = new StubTransport();
+		LoadBalancingTransport transport = LoadBalancingTransport.builder().endpoint(shedding).endpoint(healthy)
+				.ejection(1, Duration.ofSeconds(10), Duration.ofSeconds(10)).build();
+		for (int i = 0; i < 4; i++) {
+			transport.send(REQUEST);
+			transport.sendAsync(REQUEST).get();
+		}
+		assertEquals(healthy.calls.get(), 8);
+		assertEquals(shedding.calls.get(), 4);
+		Endpoint endpoint = transport.getEndpoints().get(0);
+		assertFalse(endpoint.isEjected());
+		assertEquals(endpoint.getFailures(), 0L);
+		assertEquals(endpoint.getOutstanding(), 0);
+
+		healthy.reject = true;
+		assertThrows(RejectedRequestException.class, () -> transport.send(REQUEST));
+		ExecutionException e = assertThrows(ExecutionException.class, () -> transport.sendAsync(REQUEST).get());
+		assertTrue(e.getCause() instanceof RejectedRequestException);
+	}
+
+	@Test
+	public void whenEndpointUnavailableThenFailsAndEjected() throws Exception {
+		try (MockHttpServer unavailable = new MockHttpServer(0); MockHttpServer available = new MockHttpServer(0)) {
+			unavailable.setStatus(503);
+			LoadBalancingTransport transport = LoadBalancingTransport.builder()
+					.endpoint(HttpTransport.builder().uri(unavailable.getUri()).build())
+					.endpoint(HttpTransport.builder().uri(available.getUri()).build())
+					.ejection(2, Duration.ofSeconds(10), Duration.ofSeconds(10)).build();
+			int failures = 0;
+			for (int i = 0; i < 8; i++) {
+				try {
+					if (i % 2 == 0) {
+						transport.send(REQUEST).close();
+					} else {
+						transport.sendAsync(REQUEST).get().close();
+					}
+				} catch (IOException | ExecutionException e) {
+					failures++;
+				}
+			}
+			assertEquals(failures, 2);
+			Endpoint endpoint = transport.getEndpoints().get(0);
+			assertTrue(endpoint.isEjected());
+			assertEquals(endpoint.getFailures(), 2L);
+			assertEquals(transport.getEndpoints().get(1).getRequests(), 6L);
+		}
+	}
+
+	private static class StubTransport implements Transport {
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private final List<CompletableFuture<InputStream>> held = new CopyOnWriteArrayList<>();
+		private volatile boolean fail;
+		private volatile boolean reject;
+		private volatile boolean hold;
+		private volatile long delayMillis;
+
+		@Override
+		public InputStream send(String jsonRpcRequest) throws IOException, InterruptedException {
+			return send(jsonRpcRequest.getBytes());
+		}
+
+		@Override
+		public CompletableFuture<InputStream> sendAsync(String jsonRpcRequest) {
+			return sendAsync(jsonRpcRequest.getBytes());
+		}
+
+		@Override
+		public InputStream send(byte[] jsonRpcRequest) throws IOException, InterruptedException {
+			calls.incrementAndGet();
+			if (delayMillis > 0) {
+				Thread.sleep(delayMillis);
+			}
+			if (fail) {
+				throw new IOException("Connection refused");
+			}
+			if (reject) {
+				throw new RejectedRequestException("Circuit open");
+			}
+			return new ByteArrayInputStream("{\"id\":\"1\",\"result\":1}".getBytes());
+		}
+
+		@Override
+		public CompletableFuture<InputStream> sendAsync(byte[] jsonRpcRequest) {
+			if (hold) {
+				calls.incrementAndGet();
+				CompletableFuture<InputStream> response = new CompletableFuture<>();
+				held.add(response);
+				return response;
+			}
+			try {
+				return CompletableFuture.completedFuture(send(jsonRpcRequest));
+			} catch (IOException | InterruptedException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+	}
+}
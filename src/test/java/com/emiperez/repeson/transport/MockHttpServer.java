@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+package com.emiperez.repeson.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP server, running in the test JVM, that answers each JSON-RPC request
+ * with its own id as the result, after a fixed delay. The delay is waited on a
+ * timer, not on a thread per request, so that many requests can be held at once
+ * by a few threads.
+ */
+public class MockHttpServer implements Closeable {
+
+	static {
+		// Otherwise the body waits for the acknowledgement of the headers
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private static final Pattern ID = Pattern.compile("\"id\":\"?([^\",}]*)");
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+	private final long delayMillis;
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile int status = 200;
+
+	public MockHttpServer(long delayMillis) throws IOException {
+		this.delayMillis = delayMillis;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	public URI getUri() {
+		return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+	}
+
+	/**
+	 * @param status the HTTP status of the next responses. Any other than 200 is
+	 *               sent with an HTML body, as a proxy would.
+	 */
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	/**
+	 * @return the most requests that were held by the server at the same time
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String body;
+		try (InputStream in = exchange.getRequestBody()) {
+			body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+		Matcher matcher = ID.matcher(body);
+		String id = matcher.find() ? matcher.group(1) : "";
+		int current = status;
+		String response = current == 200 ? "{\"id\":\"" + id + "\",\"result\":\"" + id + "\",\"error\":null}"
+				: "<html>" + current + "</html>";
+		timer.schedule(() -> reply(exchange, current, response), delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void reply(HttpExchange exchange, int status, String response) {
+		inFlight.decrementAndGet();
+		byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+		try (OutputStream out = exchange.getResponseBody()) {
+			exchange.getResponseHeaders().set("Content-Type", status == 200 ? "application/json" : "text/html");
+			exchange.sendResponseHeaders(status, bytes.length);
+			out.write(bytes);
+		} catch (IOException e) {
+			exchange.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		timer.shutdownNow();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single-client server, running in the test JVM, that exchanges one JSON
+ * message per line. Received lines are queued, and the test decides when, in
+ * which order and whether to reply, or to drop the connection.
+ */
+public class MockLineServer implements Closeable {
+
+	private final ServerSocketChannel serverChannel;
+	private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+	private final AtomicInteger connections = new AtomicInteger();
+	private volatile SocketChannel client;
+
+	/**
+	 * @param serverChannel an open channel, already bound to its address
+	 */
+	public MockLineServer(ServerSocketChannel serverChannel) {
+		this.serverChannel = serverChannel;
+		Thread acceptor = new Thread(this::accept, "mock-line-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public SocketAddress getAddress() throws IOException {
+		return serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * @return the next line received, waiting up to 5 seconds
+	 */
+	public String take() throws InterruptedException {
+		String message = received.poll(5, TimeUnit.SECONDS);
+		if (message == null) {
+			throw new IllegalStateException("No message received");
+		}
+		return message;
+	}
+
+	/**
+	 * Writes the message, split in two writes to check that the client joins
+	 * them.
+	 */
+	public void reply(String message) throws IOException, InterruptedException {
+		byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+		int half = bytes.length / 2;
+		writeFully(ByteBuffer.wrap(bytes, 0, half));
+		Thread.sleep(10);
+		writeFully(ByteBuffer.wrap(bytes, half, bytes.length - half));
+	}
+
+	public void disconnect() throws IOException {
+		client.close();
+	}
+
+	/**
+	 * @return the number of connections accepted
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverChannel.close();
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			client.write(buffer);
+		}
+	}
+
+	private void accept() {
+		while (serverChannel.isOpen()) {
+			try (SocketChannel channel = serverChannel.accept()) {
+				client = channel;
+				connections.incrementAndGet();
+				ByteBuffer buffer = ByteBuffer.allocate(1024);
+				ByteArrayOutputStream line = new ByteArrayOutputStream();
+				while (channel.read(buffer) >= 0) {
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						byte b = buffer.get();
+						if (b == '\n') {
+							received.add(line.toString(StandardCharsets.UTF_8));
+							line.reset();
+						} else {
+							line.write(b);
+						}
+					}
+					buffer.clear();
+				}
+			} catch (IOException e) {
+				// Disconnected, wait for the next connection
+			}
+		}
+	}
+}
@@ -18,19 +18,32 @@ package com.emiperez.repeson.transport;
 import static java.util.Map.entry;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import com.emiperez.repeson.transport.Transport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import lombok.extern.java.Log; 
 
+/**
+ * Answers the known requests, compared as JSON trees so that whitespace and
+ * field order do not matter. Batches are answered in reverse order, as a server
+ * is allowed to do.
+ */
 @Log
 public class MockTransport implements Transport {
 	
+	private static final ObjectMapper MAPPER = new ObjectMapper();
 	
-	private static final Map<String, String> responses = Map.ofEntries(
+	private static final Map<JsonNode, JsonNode> responses = Map.ofEntries(
 				entry("{\"jsonrpc\": \"2.0\", \"id\": \"1\", \"method\": \"getinteger\"}", 
 						"{\"result\": 19, \"id\": 1, \"error\": null}"),
 				entry("{\"jsonrpc\": \"2.0\", \"id\": \"2\", \"method\": \"getintegers\"}", 
@@ -39,13 +52,24 @@ public class MockTransport implements Transport {
 						"{\"result\":null,\"error\":{\"code\":-1,\"message\":\"Error Message\"},\"id\": 3}"),
 				entry("{\"jsonrpc\": \"2.0\", \"id\": \"4\", \"method\": \"getintegers\", \"params\": {\"page\":1,\"rows\":10}}", 
 						"{\"result\": [1,2,3,4,5,6,7,8,9,10], \"id\": 4}")
-			);
+			).entrySet().stream().collect(Collectors.toMap(e -> readTree(e.getKey()), e -> readTree(e.getValue())));
+
+	private final AtomicInteger calls = new AtomicInteger();
 
 	@Override
 	public InputStream send(String request) {
-		String response = responses.get(request);
+		calls.incrementAndGet();
+		JsonNode requestNode = readTree(request);
+		JsonNode response;
+		if (requestNode.isArray()) {
+			ArrayNode batch = MAPPER.createArrayNode();
+			requestNode.forEach(r -> batch.insert(0, responses.get(r)));
+			response = batch;
+		} else {
+			response = responses.get(requestNode);
+		}
 		log.info("RESPONSE: " + response);
-		return new ByteArrayInputStream(response.getBytes());
+		return new ByteArrayInputStream(response.toString().getBytes());
 	}
 
 	@Override
@@ -53,4 +77,18 @@ public class MockTransport implements Transport {
 		return CompletableFuture.completedFuture(send(request));
 	}
 
+	/**
+	 * @return the number of messages received, a batch being a single message.
+	 */
+	public int getCalls() {
+		return calls.get();
+	}
+
+	private static JsonNode readTree(String json) {
+		try {
+			return MAPPER.readTree(json);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
 }
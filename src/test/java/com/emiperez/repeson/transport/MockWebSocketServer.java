@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2020 Emilio Perez. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code)
+ */
+
+package com.emiperez.repeson.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal, single-client WebSocket server (RFC 6455) that runs in the test
+ * JVM. Received text messages are queued, and the test decides when, in which
+ * order and whether to reply, or to drop the connection.
+ */
+public class MockWebSocketServer implements Closeable {
+
+	private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	private final ServerSocket serverSocket;
+	private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+	private final AtomicInteger connections = new AtomicInteger();
+	private volatile Socket client;
+	private volatile OutputStream out;
+
+	public MockWebSocketServer() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::accept, "mock-websocket-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public URI getUri() {
+		return URI.create("ws://127.0.0.1:" + serverSocket.getLocalPort());
+	}
+
+	/**
+	 * @return the next message received, waiting up to 5 seconds
+	 */
+	public String take() throws InterruptedException {
+		String message = received.poll(5, TimeUnit.SECONDS);
+		if (message == null) {
+			throw new IllegalStateException("No message received");
+		}
+		return message;
+	}
+
+	public void reply(String message) throws IOException {
+		writeFrame(0x1, message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Closes the TCP connection without a closing handshake.
+	 */
+	public void disconnect() throws IOException {
+		client.close();
+	}
+
+	/**
+	 * @return the number of connections accepted
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try (Socket socket = serverSocket.accept()) {
+				client = socket;
+				handshake(socket.getInputStream(), socket.getOutputStream());
+				out = socket.getOutputStream();
+				connections.incrementAndGet();
+				readFrames(new DataInputStream(socket.getInputStream()));
+			} catch (IOException e) {
+				// Disconnected, wait for the next connection
+			}
+		}
+	}
+
+	private void handshake(InputStream in, OutputStream out) throws IOException {
+		String key = null;
+		for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+			if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+				key = line.substring(line.indexOf(':') + 1).trim();
+			}
+		}
+		String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+				+ "Sec-WebSocket-Accept: " + accept(key) + "\r\n\r\n";
+		out.write(response.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private void readFrames(DataInputStream in) throws IOException {
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		while (true) {
+			int first = in.readUnsignedByte();
+			int second = in.readUnsignedByte();
+			long length = second & 0x7F;
+			if (length == 126) {
+				length = in.readUnsignedShort();
+			} else if (length == 127) {
+				length = in.readLong();
+			}
+			byte[] mask = new byte[4];
+			if ((second & 0x80) != 0) {
+				in.readFully(mask);
+			}
+			byte[] payload = new byte[(int) length];
+			in.readFully(payload);
+			for (int i = 0; i < payload.length; i++) {
+				payload[i] ^= mask[i % 4];
+			}
+			int opcode = first & 0x0F;
+			if (opcode == 0x8) {
+				writeFrame(0x8, payload);
+				return;
+			} else if (opcode == 0x9) {
+				writeFrame(0xA, payload);
+			} else if (opcode == 0x1 || opcode == 0x0) {
+				message.write(payload);
+				if ((first & 0x80) != 0) {
+					received.add(message.toString(StandardCharsets.UTF_8));
+					message.reset();
+				}
+			}
+		}
+	}
+
+	private void writeFrame(int opcode, byte[] payload) throws IOException {
+		ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		frame.write(0x80 | opcode);
+		if (payload.length < 126) {
+			frame.write(payload.length);
+		} else if (payload.length < 65536) {
+			frame.write(126);
+			frame.write(payload.length >>> 8);
+			frame.write(payload.length);
+		} else {
+			frame.write(127);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				frame.write((int) ((long) payload.length >>> shift));
+			}
+		}
+		frame.write(payload);
+		out.write(frame.toByteArray());
+		out.flush();
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (int c = in.read(); c != '\n'; c = in.read()) {
+			if (c == -1) {
+				throw new IOException("Connection closed during the handshake");
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	private static String accept(String key) {
+		try {
+			byte[] sha1 = MessageDigest.getInstance("SHA-1")
+					.digest((key + GUID).getBytes(StandardCharsets.US_ASCII));
+			return Base64.getEncoder().encodeToString(sha1);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package com.emiperez.repeson.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.repeson.client.JsonRpcClient;
+import com.emiperez.repeson.client.JsonRpcException;
+import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcResponse;
+import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.ResultType;
+import com.emiperez.repeson.client.RetryPolicy;
+
+public class SocketTransportTest {
+
+	private static final ResultType<Integer> INTEGER = ResultType.of(Integer.class);
+
+	private MockLineServer server;
+	private SocketTransport transport;
+
+	@BeforeEach
+	public void init() throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server = new MockLineServer(channel);
+		InetSocketAddress address = (InetSocketAddress) server.getAddress();
+		transport = SocketTransport.builder().tcp(address.getHostString(), address.getPort()).bufferSize(16).build();
+	}
+
+	@AfterEach
+	public void close() throws IOException {
+		transport.close();
+		server.close();
+	}
+
+	@Test
+	public void whenRepliesOutOfOrderEachRequestGetsItsResponse() throws Exception {
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport).build();
+		CompletableFuture<JsonRpcResponse<Integer>> first = client.sendAsync(request("1"), INTEGER);
+		CompletableFuture<JsonRpcResponse<Integer>> second = client.sendAsync(request("2"), INTEGER);
+		// Longer than the buffers, so it is written and read in several steps
+		assertTrue(server.take().contains("\"id\":\"1\""));
+		assertTrue(server.take().contains("\"id\":\"2\""));
+
+		server.reply("{\"id\":\"2\",\"result\":20,\"error\":null}");
+		assertEquals(second.get(5, TimeUnit.SECONDS).getResult(), 20);
+		assertFalse(first.isDone());
+		server.reply("{\"id\":\"1\",\"result\":10,\"error\":null}");
+		assertEquals(first.get(5, TimeUnit.SECONDS).getResult(), 10);
+		assertEquals(server.getConnections(), 1);
+		assertEquals(transport.getPendingRequests(), 0);
+	}
+
+	@Test
+	public void whenBatchThenRoutedByAnyOfItsIds() throws Exception {
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport).build();
+		CompletableFuture<List<JsonRpcResponse<Integer>>> batch = client
+				.sendBatchAsync(List.of(request("3"), request("4")), INTEGER);
+		assertTrue(server.take().startsWith("["));
+		server.reply("[{\"id\":\"4\",\"result\":40},{\"id\":\"3\",\"result\":30}]");
+		List<JsonRpcResponse<Integer>> responses = batch.get(5, TimeUnit.SECONDS);
+		assertEquals(responses.get(0).getResult(), 30);
+		assertEquals(responses.get(1).getResult(), 40);
+	}
+
+	@Test
+	public void whenBatchStartsWithNotificationThenRoutedByNextId() throws Exception {
+		CompletableFuture<InputStream> batch = transport
+				.sendAsync("[{\"method\":\"notify\"},{\"id\":\"9\",\"method\":\"getinteger\"}]");
+		server.take();
+		server.reply("[{\"id\":\"9\",\"result\":90}]");
+		assertTrue(new String(batch.get(5, TimeUnit.SECONDS).readAllBytes()).contains("90"));
+		assertEquals(transport.getPendingRequests(), 0);
+	}
+
+	@Test
+	public void whenErrorWithoutIdThenGivenToOldestBatch() throws Exception {
+		CompletableFuture<InputStream> batch = transport.sendAsync("[{\"id\":\"10\",\"method\":\"getinteger\"}]");
+		CompletableFuture<InputStream> single = transport.sendAsync(request("11").getJson());
+		server.take();
+		server.take();
+		String error = "{\"id\":null,\"error\":{\"code\":-32600,\"message\":\"Invalid Request\"}}";
+		server.reply(error);
+		assertEquals(new String(batch.get(5, TimeUnit.SECONDS).readAllBytes()), error);
+		assertFalse(single.isDone());
+		assertEquals(transport.getPendingRequests(), 1);
+	}
+
+	@Test
+	public void whenErrorWithoutIdAndNoBatchThenGivenToSingleRequest() throws Exception {
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport).build();
+		CompletableFuture<JsonRpcResponse<Integer>> single = client.sendAsync(request("16"), INTEGER);
+		server.take();
+		server.reply("{\"id\":null,\"error\":{\"code\":-32700,\"message\":\"Parse error\"}}");
+		assertEquals(single.get(5, TimeUnit.SECONDS).getError().getCode(), -32700);
+		assertEquals(transport.getPendingRequests(), 0);
+	}
+
+	@Test
+	public void whenNumericAndStringIdsAlikeThenDifferentRequests() throws Exception {
+		CompletableFuture<InputStream> numeric = transport.sendAsync("{\"id\":12,\"method\":\"getinteger\"}");
+		CompletableFuture<InputStream> text = transport.sendAsync("{\"id\":\"12\",\"method\":\"getinteger\"}");
+		server.take();
+		server.take();
+		assertEquals(transport.getPendingRequests(), 2);
+		server.reply("{\"id\":\"12\",\"result\":2}");
+		assertEquals(JsonRpcResponse.of(text.get(5, TimeUnit.SECONDS), INTEGER).getResult(), 2);
+		assertFalse(numeric.isDone());
+		server.reply("{\"id\":12,\"result\":1}");
+		assertEquals(JsonRpcResponse.of(numeric.get(5, TimeUnit.SECONDS), INTEGER).getResult(), 1);
+		assertEquals(transport.getMaxPendingRequests(), 2);
+	}
+
+	@Test
+	public void whenAttemptTimesOutThenRetriedWithSameId() throws Exception {
+		RetryPolicy retry = RetryPolicy.builder().attemptTimeout(Duration.ofMillis(100)).maxAttempts(2)
+				.backoff(Duration.ZERO, Duration.ZERO).build();
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport)
+				.retryPolicy("getinteger", retry).build();
+		CompletableFuture<JsonRpcResponse<Integer>> response = client.sendAsync(request("13"), INTEGER);
+		// The first attempt is left unanswered
+		server.take();
+		assertTrue(server.take().contains("\"id\":\"13\""));
+		server.reply("{\"id\":\"13\",\"result\":130}");
+		assertEquals(response.get(5, TimeUnit.SECONDS).getResult(), 130);
+		assertEquals(retry.getTimeouts(), 1L);
+		assertEquals(transport.getPendingRequests(), 0);
+	}
+
+	@Test
+	public void whenResponseArrivesThenDependentsNotRunOnReader() throws Exception {
+		CompletableFuture<InputStream> first = transport.sendAsync(request("14").getJson());
+		String next = request("15").getJson();
+		// A dependent that sends another request, which would block the reader
+		CompletableFuture<String> thread = first.thenApply(r -> {
+			transport.sendAsync(next);
+			return Thread.currentThread().getName();
+		});
+		server.take();
+		server.reply("{\"id\":\"14\",\"result\":140}");
+		assertFalse(thread.get(5, TimeUnit.SECONDS).startsWith("repeson-socket-reader"));
+		assertTrue(server.take().contains("\"15\""));
+	}
+
+	@Test
+	public void whenLineBreaksInRequestThenSentInOneLine() throws Exception {
+		CompletableFuture<InputStream> response = transport
+				.sendAsync("{\n  \"jsonrpc\": \"2.0\",\r\n  \"id\": \"5\",\n  \"method\": \"getinteger\"\n}");
+		assertEquals(server.take(), "{   \"jsonrpc\": \"2.0\",    \"id\": \"5\",   \"method\": \"getinteger\" }");
+		server.reply("{\"id\":\"5\",\"result\":50}");
+		assertEquals(JsonRpcResponse.of(response.get(5, TimeUnit.SECONDS), INTEGER).getResult(), 50);
+	}
+
+	@Test
+	public void whenConnectionLostThenPendingFailAndReconnects() throws Exception {
+		CompletableFuture<InputStream> lost = transport.sendAsync(request("6").getJson());
+		server.take();
+		server.disconnect();
+		ExecutionException e = assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof IOException);
+
+		CompletableFuture<InputStream> next = transport.sendAsync(request("7").getJson());
+		server.take();
+		server.reply("{\"id\":\"7\",\"result\":70}");
+		assertEquals(JsonRpcResponse.of(next.get(5, TimeUnit.SECONDS), INTEGER).getResult(), 70);
+		assertEquals(server.getConnections(), 2);
+	}
+
+	@Test
+	public void whenUnixSocketThenSameProtocol() throws Exception {
+		assumeTrue(Runtime.version().feature() >= 16, "Unix domain sockets need Java 16");
+		Path dir = Files.createTempDirectory("repeson");
+		Path path = dir.resolve("node.ipc");
+		SocketTransport unix = SocketTransport.builder().unixSocket(path).build();
+		// Opened by reflection, as the code is compiled for Java 11
+		ServerSocketChannel channel = (ServerSocketChannel) ServerSocketChannel.class
+				.getMethod("open", ProtocolFamily.class).invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+		channel.bind((SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class)
+				.invoke(null, path));
+		try (MockLineServer unixServer = new MockLineServer(channel)) {
+			CompletableFuture<InputStream> response = unix.sendAsync(request("8").getJson());
+			unixServer.take();
+			unixServer.reply("{\"id\":\"8\",\"result\":80}");
+			assertEquals(JsonRpcResponse.of(response.get(5, TimeUnit.SECONDS), INTEGER).getResult(), 80);
+		} finally {
+			unix.close();
+			Files.deleteIfExists(path);
+			Files.delete(dir);
+		}
+	}
+
+	private static JsonRpcRequest request(String id) throws JsonRpcException {
+		return JsonRpcRequest.builder().id(id).jsonrpc(JsonRpcVersion.v2_0).method("getinteger").build();
+	}
+}
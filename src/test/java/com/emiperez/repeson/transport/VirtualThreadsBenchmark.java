@@ -0,0 +1,85 @@
+package com.emiperez.repeson.transport;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.emiperez.repeson.client.JsonRpcClient;
+import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.ResultType;
+
+/**
+ * Compares blocking {@code send} calls, each from its own virtual thread, with
+ * {@code sendAsync} calls from a single thread, for many concurrent callers
+ * against a local server that answers after a delay. It needs Java 21 or later.
+ *
+ * <p>
+ * Run with the test classpath: {@code VirtualThreadsBenchmark [callers]
+ * [delayMillis] [rounds]}, by default 10000 callers, 50 ms and 5 rounds. The
+ * number of open files may have to be raised, as each caller holds a
+ * connection.
+ */
+public class VirtualThreadsBenchmark {
+
+	private static final ResultType<String> STRING = ResultType.of(String.class);
+
+	public static void main(String[] args) throws Exception {
+		int callers = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		long delayMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		// Keeps the connections of every caller open between the rounds
+		System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(callers * 2));
+		try (MockHttpServer server = new MockHttpServer(delayMillis)) {
+			ExecutorService virtualThreads = (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			JsonRpcClient blocking = client(HttpTransport.builder().uri(server.getUri()).executor(virtualThreads));
+			JsonRpcClient async = client(HttpTransport.builder().uri(server.getUri()));
+			for (int round = 1; round <= rounds; round++) {
+				report("virtual threads", round, callers, () -> {
+					List<Future<?>> responses = new ArrayList<>(callers);
+					for (int i = 0; i < callers; i++) {
+						JsonRpcRequest request = request(i);
+						responses.add(virtualThreads.submit(() -> blocking.send(request, STRING)));
+					}
+					for (Future<?> response : responses) {
+						response.get();
+					}
+				});
+				report("sendAsync", round, callers, () -> {
+					List<CompletableFuture<?>> responses = new ArrayList<>(callers);
+					for (int i = 0; i < callers; i++) {
+						responses.add(async.sendAsync(request(i), STRING));
+					}
+					CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join();
+				});
+			}
+			virtualThreads.shutdownNow();
+		}
+	}
+
+	private static JsonRpcClient client(HttpTransport.Builder transport) {
+		return JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport.build()).build();
+	}
+
+	private static JsonRpcRequest request(int id) {
+		return JsonRpcRequest.builder().id(String.valueOf(id)).jsonrpc(JsonRpcVersion.v2_0).method("echo").build();
+	}
+
+	private static void report(String mode, int round, int callers, Run run) throws Exception {
+		ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+		long start = System.nanoTime();
+		run.run();
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-16s round %d: %6d ms, %8.0f requests/s, peak platform threads %d%n", mode, round,
+				elapsed / 1_000_000, callers * 1e9 / elapsed, ManagementFactory.getThreadMXBean().getPeakThreadCount());
+	}
+
+	private interface Run {
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,133 @@
+package com.emiperez.repeson.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.emiperez.repeson.client.JsonRpcClient;
+import com.emiperez.repeson.client.JsonRpcException;
+import com.emiperez.repeson.client.JsonRpcRequest;
+import com.emiperez.repeson.client.JsonRpcResponse;
+import com.emiperez.repeson.client.JsonRpcVersion;
+import com.emiperez.repeson.client.ResultType;
+
+public class WebSocketTransportTest {
+
+	private static final ResultType<Integer> INTEGER = ResultType.of(Integer.class);
+
+	private MockWebSocketServer server;
+	private WebSocketTransport transport;
+
+	@BeforeEach
+	public void init() throws IOException {
+		server = new MockWebSocketServer();
+		transport = WebSocketTransport.builder(HttpClient.newHttpClient()).uri(server.getUri())
+				.reconnectBackoff(Duration.ofMillis(10), Duration.ofMillis(100)).build();
+	}
+
+	@AfterEach
+	public void close() throws IOException {
+		transport.close();
+		server.close();
+	}
+
+	@Test
+	public void whenRepliesOutOfOrderEachRequestGetsItsResponse() throws Exception {
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport).build();
+		CompletableFuture<JsonRpcResponse<Integer>> first = client.sendAsync(request("1"), INTEGER);
+		CompletableFuture<JsonRpcResponse<Integer>> second = client.sendAsync(request("2"), INTEGER);
+		CompletableFuture<JsonRpcResponse<Integer>> third = client.sendAsync(request("3"), INTEGER);
+		server.take();
+		server.take();
+		server.take();
+		assertEquals(transport.getPendingRequests(), 3);
+
+		server.reply("{\"id\":\"3\",\"result\":30}");
+		server.reply("{\"id\":\"1\",\"result\":10}");
+		assertEquals(third.get(5, TimeUnit.SECONDS).getResult(), 30);
+		assertEquals(first.get(5, TimeUnit.SECONDS).getResult(), 10);
+		assertFalse(second.isDone());
+		server.reply("{\"id\":\"2\",\"result\":20}");
+		assertEquals(second.get(5, TimeUnit.SECONDS).getResult(), 20);
+		assertEquals(server.getConnections(), 1);
+		assertEquals(transport.getPendingRequests(), 0);
+	}
+
+	@Test
+	public void whenBatchThenRoutedByAnyOfItsIds() throws Exception {
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport).build();
+		CompletableFuture<List<JsonRpcResponse<Integer>>> batch = client
+				.sendBatchAsync(List.of(request("4"), request("5")), INTEGER);
+		assertTrue(server.take().startsWith("["));
+		server.reply("[{\"id\":\"5\",\"result\":50},{\"id\":\"4\",\"result\":40}]");
+		List<JsonRpcResponse<Integer>> responses = batch.get(5, TimeUnit.SECONDS);
+		assertEquals(responses.get(0).getResult(), 40);
+		assertEquals(responses.get(1).getResult(), 50);
+	}
+
+	@Test
+	public void whenErrorWithoutIdAndNoBatchThenGivenToEveryRequest() throws Exception {
+		JsonRpcClient client = JsonRpcClient.builder().version(JsonRpcVersion.v2_0).transport(transport).build();
+		CompletableFuture<JsonRpcResponse<Integer>> first = client.sendAsync(request("8"), INTEGER);
+		CompletableFuture<JsonRpcResponse<Integer>> second = client.sendAsync(request("9"), INTEGER);
+		server.take();
+		server.take();
+		server.reply("{\"id\":null,\"error\":{\"code\":-32600,\"message\":\"Invalid Request\"}}");
+		assertEquals(first.get(5, TimeUnit.SECONDS).getError().getCode(), -32600);
+		assertEquals(second.get(5, TimeUnit.SECONDS).getError().getCode(), -32600);
+		assertEquals(transport.getPendingRequests(), 0);
+	}
+
+	@Test
+	public void whenDuplicatedIdInFlightThenFails() throws Exception {
+		CompletableFuture<InputStream> first = transport.sendAsync(request("6").getJson());
+		CompletableFuture<InputStream> duplicated = transport.sendAsync(request("6").getJson());
+		ExecutionException e = assertThrows(ExecutionException.class, () -> duplicated.get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof IOException);
+		server.take();
+		server.reply("{\"id\":\"6\",\"result\":60}");
+		assertEquals(JsonRpcResponse.of(first.get(5, TimeUnit.SECONDS), INTEGER).getResult(), 60);
+	}
+
+	@Test
+	public void whenConnectionLostThenPendingFailAndReconnects() throws Exception {
+		CompletableFuture<InputStream> lost = transport.sendAsync(request("7").getJson());
+		server.take();
+		server.disconnect();
+		ExecutionException e = assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof IOException);
+
+		CompletableFuture<InputStream> next = transport.sendAsync(request("8").getJson());
+		server.take();
+		server.reply("{\"id\":\"8\",\"result\":80}");
+		assertEquals(JsonRpcResponse.of(next.get(5, TimeUnit.SECONDS), INTEGER).getResult(), 80);
+		assertEquals(server.getConnections(), 2);
+	}
+
+	@Test
+	public void whenServerUnreachableThenFailsAfterRetries() throws IOException {
+		server.close();
+		WebSocketTransport unreachable = WebSocketTransport.builder(HttpClient.newHttpClient()).uri(server.getUri())
+				.reconnectBackoff(Duration.ofMillis(1), Duration.ofMillis(5)).maxReconnectAttempts(2).build();
+		assertThrows(IOException.class, () -> unreachable.send(request("9").getJson()));
+		unreachable.close();
+	}
+
+	private static JsonRpcRequest request(String id) throws JsonRpcException {
+		return JsonRpcRequest.builder().id(id).jsonrpc(JsonRpcVersion.v2_0).method("getinteger").build();
+	}
+}